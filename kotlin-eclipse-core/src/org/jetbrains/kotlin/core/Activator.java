@@ -20,7 +20,10 @@ import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.Plugin;
 import org.eclipse.core.runtime.preferences.DefaultScope;
+import org.jetbrains.kotlin.core.compiler.KotlinCompilerService;
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache;
+import org.jetbrains.kotlin.core.model.KotlinJarPackagesStorage;
+import org.jetbrains.kotlin.core.model.KotlinLookupStorage;
 import org.jetbrains.kotlin.core.model.KotlinRefreshProjectListener;
 import org.jetbrains.kotlin.core.preferences.KotlinProperties;
 import org.osgi.framework.BundleContext;
@@ -47,6 +50,7 @@ public class Activator extends Plugin {
 		        IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE | IResourceChangeEvent.PRE_BUILD);
 		ResourcesPlugin.getWorkspace().addResourceChangeListener(KotlinRefreshProjectListener.INSTANCE,
 		        IResourceChangeEvent.PRE_REFRESH);
+		ResourcesPlugin.getWorkspace().addSaveParticipant(PLUGIN_ID, KotlinLookupStorage.INSTANCE);
 		
 		KotlinProperties.init();
 	}
@@ -55,6 +59,11 @@ public class Activator extends Plugin {
     public void stop(BundleContext bundleContext) throws Exception {
 	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(KotlinAnalysisProjectCache.INSTANCE);
 	    ResourcesPlugin.getWorkspace().removeResourceChangeListener(KotlinRefreshProjectListener.INSTANCE);
+	    ResourcesPlugin.getWorkspace().removeSaveParticipant(PLUGIN_ID);
+	    
+	    KotlinLookupStorage.INSTANCE.saveAll();
+	    KotlinJarPackagesStorage.INSTANCE.save();
+	    KotlinCompilerService.INSTANCE.release();
 	    
 		plugin = null;
 	}
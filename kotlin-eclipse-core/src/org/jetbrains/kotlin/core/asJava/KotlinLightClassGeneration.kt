@@ -22,7 +22,6 @@ import org.eclipse.core.resources.IProject
 import org.eclipse.core.resources.WorkspaceJob
 import org.eclipse.core.runtime.IProgressMonitor
 import org.eclipse.core.runtime.IStatus
-import org.eclipse.core.runtime.Path
 import org.eclipse.jdt.core.JavaCore
 import org.jetbrains.kotlin.analyzer.AnalysisResult
 import org.jetbrains.kotlin.codegen.KotlinCodegenFacade
@@ -32,29 +31,67 @@ import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.filesystem.KotlinLightClassManager
 import org.jetbrains.kotlin.core.model.KotlinEnvironment
 import org.jetbrains.kotlin.core.model.KotlinJavaManager
-import org.jetbrains.kotlin.fileClasses.JvmFileClassUtil
+import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
 import org.jetbrains.kotlin.psi.KtClassOrObject
 import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.psi.KtScript
 import org.jetbrains.kotlin.lexer.KtTokens
 import org.jetbrains.kotlin.psi.KtCodeFragment
+import java.io.File
 
 object KotlinLightClassGeneration {
 
+    /**
+     * Updates light classes generated from [affectedFiles], light classes of other files are kept as they are.
+     */
     fun updateLightClasses(project: IProject, affectedFiles: Set<IFile>, resourcesTreeBlocked: Boolean = false) {
         if (!KotlinJavaManager.hasLinkedKotlinBinFolder(project)) return
 
-        KotlinPsiManager.recreateSourcesForProject(JavaCore.create(project))
+        // Source folders are not walked again, only the changed files are checked
+        KotlinPsiManager.updateSourceFiles(project, affectedFiles)
 
-        KotlinLightClassManager.getInstance(project).computeLightClassesSources()
         KotlinLightClassManager.getInstance(project).updateLightClasses(affectedFiles, resourcesTreeBlocked)
     }
 
+    /**
+     * Computes light classes of all files of the project again and removes outdated ones.
+     */
+    fun recreateLightClasses(project: IProject, affectedFiles: Set<IFile>, resourcesTreeBlocked: Boolean = false) {
+        if (!KotlinJavaManager.hasLinkedKotlinBinFolder(project)) return
+
+        KotlinPsiManager.recreateSourcesForProject(JavaCore.create(project))
+
+        KotlinLightClassManager.getInstance(project).recreateLightClasses(affectedFiles, resourcesTreeBlocked)
+    }
+
+    /**
+     * Analyzes [jetFiles] and generates all their light classes in one pass. Every generated class is stored
+     * in the light class cache, so classes declared next to a requested one don't need another analysis
+     * and code generation. Returns generated classes by their paths in the Kotlin bin folder.
+     */
+    fun generateLightClasses(project: IProject, jetFiles: List<KtFile>): Map<File, ByteArray> {
+        if (jetFiles.isEmpty()) return emptyMap()
+
+        val analysisResult = KotlinAnalyzer.analyzeFiles(jetFiles).analysisResult
+        val state = buildLightClasses(analysisResult, project, jetFiles)
+
+        val binFolder = KotlinJavaManager.getKotlinBinFolderFor(project).fullPath
+        val lightClassManager = KotlinLightClassManager.getInstance(project)
+        return state.factory.asList()
+            .filter { it.relativePath.endsWith(".class") }
+            .associate { outputFile ->
+                val lightClass = binFolder.append(outputFile.relativePath).toFile()
+                val bytes = outputFile.asByteArray()
+                lightClassManager.cacheLightClass(lightClass, bytes)
+
+                lightClass to bytes
+            }
+    }
+
     fun buildLightClasses(
             analysisResult: AnalysisResult,
             eclipseProject: IProject,
-            jetFiles: List<KtFile>,
-            requestedClassName: String): GenerationState {
+            jetFiles: List<KtFile>): GenerationState {
         val state = GenerationState.Builder(
                 KotlinEnvironment.getEnvironment(eclipseProject).project,
                 LightClassBuilderFactory(),
@@ -68,15 +105,10 @@ object KotlinLightClassGeneration {
 
                     override fun shouldAnnotateClass(processingClassOrObject: KtClassOrObject): Boolean = true
 
-                    override fun shouldGenerateClass(processingClassOrObject: KtClassOrObject): Boolean {
-                        val internalName = KotlinLightClassManager.getInternalName(processingClassOrObject)
-                        return checkByInternalName(internalName, requestedClassName)
-                    }
+                    override fun shouldGenerateClass(processingClassOrObject: KtClassOrObject): Boolean =
+                        KotlinLightClassManager.getInternalName(processingClassOrObject) != null
 
-                    override fun shouldGeneratePackagePart(jetFile: KtFile): Boolean {
-                        val internalName = JvmFileClassUtil.getFileClassInternalName(jetFile)
-                        return checkByInternalName(internalName, requestedClassName)
-                    }
+                    override fun shouldGeneratePackagePart(jetFile: KtFile): Boolean = true
 
                     override fun shouldGenerateScript(script: KtScript): Boolean = false
 
@@ -90,19 +122,4 @@ object KotlinLightClassGeneration {
 
         return state
     }
-
-    private fun checkByInternalName(internalName: String?, requestedClassFileName: String): Boolean {
-        if (internalName == null) return false
-
-        val classFileName = Path(internalName).lastSegment()
-        val requestedInternalName = requestedClassFileName.dropLast(".class".length)
-
-        if (requestedInternalName.startsWith(classFileName)) {
-            if (requestedInternalName.length == classFileName.length) return true
-
-            if (requestedInternalName[classFileName.length] == '$') return true
-        }
-
-        return false
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,104 @@
+package org.jetbrains.kotlin.core.asJava
+
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.ResourcesPlugin
+import org.eclipse.core.runtime.IProgressMonitor
+import org.eclipse.core.runtime.IStatus
+import org.eclipse.core.runtime.OperationCanceledException
+import org.eclipse.core.runtime.Status
+import org.eclipse.core.runtime.SubMonitor
+import org.eclipse.core.runtime.jobs.Job
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.filesystem.KotlinLightClassManager
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.model.KotlinAnalysisScheduler
+import org.jetbrains.kotlin.core.model.KotlinJavaManager
+import org.jetbrains.kotlin.core.preferences.KotlinBuildingProperties
+import org.jetbrains.kotlin.progress.CompilationCanceledException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Generates light classes of whole projects in the background after a full build, so the first requests
+ * from JDT (indexing, "Open Type", content assist) find them in the cache instead of waiting for analysis.
+ *
+ * Projects are processed in the order of their references, upstream projects first. Files whose light classes
+ * are already cached are skipped. Enabled by [KotlinBuildingProperties.pregenerateLightClasses].
+ *
+ * Generation of a project stops when its light class cache is full and classes are not spilled to disk, as new
+ * classes would only evict the ones generated before. Analysis runs as a background request of
+ * [KotlinAnalysisScheduler]: it stops when the job is canceled and yields to editors, then the job is scheduled
+ * again for the remaining projects.
+ */
+object KotlinLightClassPregeneration {
+    private const val SCHEDULE_DELAY = 1000L
+
+    private val pendingProjects = ConcurrentHashMap.newKeySet<IProject>()
+
+    private val pregenerationJob = object : Job("Generating Kotlin light classes") {
+        override fun run(monitor: IProgressMonitor?): IStatus {
+            val projects = pendingProjects.toList()
+            pendingProjects.removeAll(projects)
+
+            return try {
+                pregenerate(projects, SubMonitor.convert(monitor, name, projects.size))
+                Status.OK_STATUS
+            } catch (e: OperationCanceledException) {
+                Status.CANCEL_STATUS
+            } finally {
+                monitor?.done()
+            }
+        }
+    }.apply { priority = Job.DECORATE }
+
+    fun schedule(project: IProject) {
+        if (!KotlinBuildingProperties.workspaceInstance.pregenerateLightClasses) return
+
+        pendingProjects.add(project)
+        pregenerationJob.schedule(SCHEDULE_DELAY)
+    }
+
+    private fun pregenerate(projects: List<IProject>, monitor: SubMonitor) {
+        val orderedProjects = ResourcesPlugin.getWorkspace().computeProjectOrder(projects.toTypedArray()).projects
+        for ((index, project) in orderedProjects.withIndex()) {
+            val projectMonitor = monitor.split(1)
+            if (!project.isAccessible || !KotlinJavaManager.hasLinkedKotlinBinFolder(project)) continue
+
+            try {
+                pregenerate(project, projectMonitor)
+            } catch (e: CompilationCanceledException) {
+                if (projectMonitor.isCanceled) throw OperationCanceledException()
+
+                // Analysis was interrupted in favor of an editor, it will continue when the editor is idle
+                pendingProjects.addAll(orderedProjects.drop(index))
+                pregenerationJob.schedule(SCHEDULE_DELAY)
+                return
+            }
+        }
+    }
+
+    private fun pregenerate(project: IProject, monitor: SubMonitor) {
+        val lightClassManager = KotlinLightClassManager.getInstance(project)
+        val files = KotlinPsiManager.getFilesByProject(project)
+        monitor.setWorkRemaining(files.size)
+        monitor.subTask(project.name)
+
+        for (file in files) {
+            monitor.split(1)
+            if (lightClassManager.isCacheFull) return
+            if (!file.exists()) continue
+
+            try {
+                val sources = lightClassManager.getSourcesOfUncachedLightClasses(file)
+                KotlinAnalysisScheduler.analyzeProject(project, { monitor.isCanceled }) {
+                    KotlinLightClassGeneration.generateLightClasses(project, sources)
+                }
+            } catch (e: OperationCanceledException) {
+                throw e
+            } catch (e: CompilationCanceledException) {
+                throw e
+            } catch (e: Exception) {
+                KotlinLogger.logError("Could not generate light classes of ${file.fullPath}", e)
+            }
+        }
+    }
+}
@@ -40,6 +40,16 @@ public class LightClassFile {
         }
     }
     
+    public void delete() {
+        try {
+            if (file.exists()) {
+                file.delete(true, null);
+            }
+        } catch (CoreException e) {
+            KotlinLogger.logAndThrow(e);
+        }
+    }
+    
     @NotNull
     public File asFile() {
         return file.getFullPath().toFile();
@@ -33,7 +33,9 @@ import org.eclipse.jdt.core.IClasspathEntry
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
 import org.eclipse.jface.text.IDocument
+import org.eclipse.jface.text.IDocumentExtension4
 import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
 import org.jetbrains.kotlin.core.model.KotlinLightVirtualFile
 import org.jetbrains.kotlin.core.model.KotlinNature
 import org.jetbrains.kotlin.core.model.KotlinScriptEnvironment
@@ -46,8 +48,9 @@ import org.jetbrains.kotlin.psi.KtElement
 import org.jetbrains.kotlin.psi.KtFile
 import java.io.File
 import java.util.Collections
-import java.util.HashSet
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
 
 interface PsiFilesStorage {
     fun getPsiFile(eclipseFile: IFile): KtFile
@@ -57,6 +60,8 @@ interface PsiFilesStorage {
     fun isApplicable(file: IFile): Boolean
     
     fun removeFile(file: IFile)
+    
+    fun getCachedPsiFile(file: IFile): KtFile?
 }
 
 private class ScriptsFilesStorage : PsiFilesStorage {
@@ -86,122 +91,99 @@ private class ScriptsFilesStorage : PsiFilesStorage {
     override fun removeFile(file: IFile) {
         cachedKtFiles.remove(file)
     }
+    
+    override fun getCachedPsiFile(file: IFile): KtFile? = cachedKtFiles[file]
 }
 
+/**
+ * Source files of Kotlin projects. Files of a project are collected once, when the project is first accessed;
+ * each file is parsed lazily by the first thread which requests it, other threads wait for the same parse.
+ * No lock is held while a file is parsed, so a big file doesn't block access to other files.
+ */
 private class ProjectSourceFiles : PsiFilesStorage {
     companion object {
         @JvmStatic
         fun isKotlinFile(file: IFile): Boolean = KotlinFileType.INSTANCE.getDefaultExtension() == file.fileExtension
     }
     
-    private val projectFiles = hashMapOf<IProject, HashSet<IFile>>()
-    private val cachedKtFiles = hashMapOf<IFile, KtFile>()
-    private val mapOperationLock = Any()
+    private val projectFiles = ConcurrentHashMap<IProject, MutableSet<IFile>>()
+    private val cachedKtFiles = ConcurrentHashMap<IFile, FutureTask<KtFile>>()
     
     override fun getPsiFile(eclipseFile: IFile): KtFile {
-        synchronized (mapOperationLock) {
-            updateProjectPsiSourcesIfNeeded(eclipseFile.getProject())
-
-            assert(existsInProjectSources(eclipseFile), { "File(" + eclipseFile.getName() + ") does not contain in the psiFiles" })
-
-            return cachedKtFiles.getOrPut(eclipseFile) {
-                KotlinPsiManager.parseFile(eclipseFile) ?: throw IllegalStateException("Can't parse file $eclipseFile")
-            }
-        }
+        assert(existsInProjectSources(eclipseFile), { "File(" + eclipseFile.getName() + ") does not contain in the psiFiles" })
+        
+        return getParsedFile(eclipseFile, getPsiFileTask(eclipseFile))
     }
     
     override fun getPsiFile(file: IFile, expectedSourceCode: String): KtFile {
-        synchronized (mapOperationLock) {
-            updatePsiFile(file, expectedSourceCode)
-            return getPsiFile(file)
+        val sourceCodeWithouCR = StringUtilRt.convertLineSeparators(expectedSourceCode)
+        
+        assert(existsInProjectSources(file), { "File(" + file.getName() + ") does not contain in the psiFiles" })
+        
+        while (true) {
+            val currentTask = getPsiFileTask(file)
+            val currentParsedFile = getParsedFile(file, currentTask)
+            if (currentParsedFile.getText() == sourceCodeWithouCR) {
+                return currentParsedFile
+            }
+            
+            val jetFile = KotlinPsiManager.parseText(sourceCodeWithouCR, file)!!
+            if (cachedKtFiles.replace(file, currentTask, completedTask(jetFile))) {
+                return jetFile
+            }
         }
     }
     
     override fun isApplicable(file: IFile): Boolean = existsInProjectSources(file)
 
     fun existsInProjectSources(file: IFile, update: Boolean = true): Boolean {
-        synchronized (mapOperationLock) {
-            return file.project?.let {
-                if (update) {
-                    updateProjectPsiSourcesIfNeeded(it)
-                }
-                projectFiles[it]?.contains(file)
-            } ?: false
-        }
+        return file.project?.let {
+            if (update) {
+                updateProjectPsiSourcesIfNeeded(it)
+            }
+            projectFiles[it]?.contains(file)
+        } ?: false
     }
     
-    fun containsProject(project: IProject): Boolean {
-        return synchronized (mapOperationLock) {
-            projectFiles.containsKey(project)
-        }
-    }
+    fun containsProject(project: IProject): Boolean = projectFiles.containsKey(project)
     
     fun getFilesByProject(project: IProject): Set<IFile> {
-        synchronized (mapOperationLock) {
-            updateProjectPsiSourcesIfNeeded(project)
-            
-            if (projectFiles.containsKey(project)) {
-                return Collections.unmodifiableSet(projectFiles[project])
-            }
-            
-            return emptySet()
-        }
+        updateProjectPsiSourcesIfNeeded(project)
+        
+        return projectFiles[project]?.let { Collections.unmodifiableSet(it) } ?: emptySet()
     }
     
     fun addFile(file: IFile) {
-        synchronized (mapOperationLock) {
-            assert(KotlinNature.hasKotlinNature(file.getProject()),
-                    { "Project (" + file.getProject().getName() + ") does not have Kotlin nature" })
-            
-            assert(!existsInProjectSources(file, false), { "File(" + file.getName() + ") is already added" })
-            
-            projectFiles
-                    .getOrPut(file.project) { hashSetOf() }
-                    .add(file)
-        }
+        assert(KotlinNature.hasKotlinNature(file.getProject()),
+                { "Project (" + file.getProject().getName() + ") does not have Kotlin nature" })
+        
+        assert(!existsInProjectSources(file, false), { "File(" + file.getName() + ") is already added" })
+        
+        projectFiles
+                .computeIfAbsent(file.project) { ConcurrentHashMap.newKeySet() }
+                .add(file)
     }
     
     override fun removeFile(file: IFile) {
-        synchronized (mapOperationLock) {
-            assert(existsInProjectSources(file), { "File(" + file.getName() + ") does not contain in the psiFiles" })
-            
-            cachedKtFiles.remove(file)
-            projectFiles.get(file.project)?.remove(file)
-        }
+        assert(existsInProjectSources(file), { "File(" + file.getName() + ") does not contain in the psiFiles" })
+        
+        projectFiles[file.project]?.remove(file)
+        cachedKtFiles.remove(file)
     }
     
     fun addProject(project: IProject) {
-        synchronized (mapOperationLock) {
-            if (ProjectUtils.isAccessibleKotlinProject(project)) {
-                addFilesToParse(JavaCore.create(project))
-            }
+        if (ProjectUtils.isAccessibleKotlinProject(project)) {
+            addFilesToParse(JavaCore.create(project))
         }
     }
     
     fun removeProject(project: IProject) {
-        synchronized (mapOperationLock) {
-            val files = getFilesByProject(project)
-            
-            projectFiles.remove(project)
-            for (file in files) {
-                cachedKtFiles.remove(file)
-            }
-        }
+        projectFiles.remove(project)?.forEach { cachedKtFiles.remove(it) }
     }
     
     fun addFilesToParse(javaProject: IJavaProject) {
         try {
-            projectFiles.put(javaProject.getProject(), HashSet<IFile>())
-            
-            for (sourceFolder in javaProject.sourceFolders) {
-                sourceFolder.resource.accept { resource ->
-                    if (resource is IFile && isKotlinFile(resource)) {
-                        addFile(resource)
-                    }
-                    
-                    true
-                }
-            }
+            projectFiles.putIfAbsent(javaProject.getProject(), collectSourceFiles(javaProject))
         } catch (e: CoreException) {
             KotlinLogger.logError(e)
         }
@@ -228,41 +210,68 @@ private class ProjectSourceFiles : PsiFilesStorage {
         cachedKtFiles.clear()
     }
     
-    private fun updatePsiFile(file: IFile, sourceCode: String) {
-        val sourceCodeWithouCR = StringUtilRt.convertLineSeparators(sourceCode)
-        
-        synchronized (mapOperationLock) {
-            assert(existsInProjectSources(file), { "File(" + file.getName() + ") does not contain in the psiFiles" })
-            
-            val currentParsedFile = getPsiFile(file)
-            if (!currentParsedFile.getText().equals(sourceCodeWithouCR)) {
-                val jetFile = KotlinPsiManager.parseText(sourceCodeWithouCR, file)!!
-                cachedKtFiles.put(file, jetFile)
-            }
+    override fun getCachedPsiFile(file: IFile): KtFile? {
+        val task = cachedKtFiles[file]?.takeIf { it.isDone } ?: return null
+        return try {
+            task.get()
+        } catch (e: ExecutionException) {
+            null
         }
     }
 
     fun addFilesIfNotPresent(project: IJavaProject) {
         try {
-            with(projectFiles.getOrPut(project.project) { hashSetOf() }) {
-                for (sourceFolder in project.sourceFolders) {
-                    sourceFolder.resource.accept { resource ->
-                        if (resource is IFile && isKotlinFile(resource) && !contains(resource)) {
-                            add(resource)
-                        }
-                        true
-                    }
-                }
-            }
+            projectFiles.computeIfAbsent(project.project) { ConcurrentHashMap.newKeySet() }
+                .addAll(collectSourceFiles(project))
         } catch (e: CoreException) {
             KotlinLogger.logError(e)
         }
     }
+    
+    private fun collectSourceFiles(javaProject: IJavaProject): MutableSet<IFile> {
+        val files = ConcurrentHashMap.newKeySet<IFile>()
+        for (sourceFolder in javaProject.sourceFolders) {
+            sourceFolder.resource.accept { resource ->
+                if (resource is IFile && isKotlinFile(resource)) {
+                    files.add(resource)
+                }
+                
+                true
+            }
+        }
+        
+        return files
+    }
+    
+    private fun getPsiFileTask(file: IFile): FutureTask<KtFile> = cachedKtFiles.computeIfAbsent(file) {
+        FutureTask {
+            KotlinPsiManager.parseFile(file) ?: throw IllegalStateException("Can't parse file $file")
+        }
+    }
+    
+    private fun getParsedFile(file: IFile, task: FutureTask<KtFile>): KtFile {
+        task.run()
+        
+        try {
+            return task.get()
+        } catch (e: ExecutionException) {
+            cachedKtFiles.remove(file, task)
+            throw e.cause ?: e
+        }
+    }
+    
+    private fun completedTask(ktFile: KtFile): FutureTask<KtFile> = FutureTask { ktFile }.apply { run() }
 }
 
+/**
+ * Parsed file together with the modification stamp of the document it was parsed from.
+ */
+private class CommittedDocument(val modificationStamp: Long, val ktFile: KtFile)
+
 object KotlinPsiManager {
     private val projectSourceFiles = ProjectSourceFiles()
     private val scriptsFiles = ScriptsFilesStorage()
+    private val committedDocuments = ConcurrentHashMap<IFile, CommittedDocument>()
     
     fun getParsedFile(file: IFile): KtFile {
         return storage(file).getPsiFile(file)
@@ -281,14 +290,19 @@ object KotlinPsiManager {
     }
     
     fun invalidateCachedProjectSourceFiles() {
+        committedDocuments.keys.removeIf { !scriptsFiles.isApplicable(it) }
         projectSourceFiles.invalidateProjectSourceFiles()
     }
     
     fun removeFile(file: IFile) {
+        committedDocuments.remove(file)
         storage(file).removeFile(file)
+        KotlinAnalysisFileCache.fileRemoved(file)
     }
 
     fun removeProjectFromManager(project: IProject) {
+        committedDocuments.keys.removeIf { it.project == project }
+        KotlinAnalysisFileCache.projectRemoved(project)
         projectSourceFiles.updateProjectPsiSources(project, IResourceDelta.REMOVED)
     }
 
@@ -325,8 +339,30 @@ object KotlinPsiManager {
     }
 
     private fun getParsedFile(file: IFile, expectedSourceCode: String): KtFile {
+        committedDocuments.remove(file)
         return storage(file).getPsiFile(file, expectedSourceCode)
     }
+    
+    /**
+     * Returns the file parsed from the current content of [document]. Editor features ask for it several times
+     * per change, so the text of the document is extracted and compared only once per document modification.
+     */
+    private fun getParsedFile(file: IFile, document: IDocument): KtFile {
+        val modificationStamp = (document as? IDocumentExtension4)?.modificationStamp
+            ?: IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+        if (modificationStamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+            return getParsedFile(file, document.get())
+        }
+        
+        committedDocuments[file]
+            ?.takeIf { it.modificationStamp == modificationStamp }
+            ?.let { return it.ktFile }
+        
+        val ktFile = storage(file).getPsiFile(file, document.get())
+        committedDocuments[file] = CommittedDocument(modificationStamp, ktFile)
+        
+        return ktFile
+    }
 
     @JvmOverloads
     @JvmStatic
@@ -386,6 +422,11 @@ object KotlinPsiManager {
         return if (isApplicable(file)) getParsedFile(file, sourceCode) else null
     }
 
+    @JvmStatic
+    fun getKotlinFileIfExist(file: IFile, document: IDocument): KtFile? {
+        return if (isApplicable(file)) getParsedFile(file, document) else null
+    }
+
     @JvmStatic
     fun getEclipseFile(jetFile: KtFile): IFile? {
         val virtualFile = jetFile.getVirtualFile()
@@ -395,6 +436,16 @@ object KotlinPsiManager {
             null
     }
 
+    /**
+     * Checks whether [ktFile] is the current parsed state of its file, i.e. it was not replaced by a newer version
+     * and it is not a temporary copy of the file.
+     */
+    @JvmStatic
+    fun isActual(ktFile: KtFile): Boolean {
+        val file = getEclipseFile(ktFile) ?: return false
+        return applicableStorage(file)?.getCachedPsiFile(file) === ktFile
+    }
+
     @JvmStatic
     fun getJavaProject(jetElement: KtElement): IJavaProject? {
         return getEclipseFile(jetElement.getContainingKtFile())?.let { eclipseFile ->
@@ -404,7 +455,25 @@ object KotlinPsiManager {
 
     @JvmStatic
     fun commitFile(file: IFile, document: IDocument) {
-        getKotlinFileIfExist(file, document.get())
+        getKotlinFileIfExist(file, document)
+    }
+
+    /**
+     * Brings known source files of [project] in line with [affectedFiles] of a resource delta, e.g. when a build
+     * sees files added or removed before the resource change listener is notified. Other files are not checked.
+     */
+    @JvmStatic
+    fun updateSourceFiles(project: IProject, affectedFiles: Collection<IFile>) {
+        if (!projectSourceFiles.containsProject(project)) return
+        
+        for (file in affectedFiles) {
+            val isKnown = projectSourceFiles.existsInProjectSources(file, false)
+            val isSource = file.exists() && isKotlinSourceFile(file)
+            when {
+                isSource && !isKnown -> projectSourceFiles.addFile(file)
+                !isSource && isKnown -> removeFile(file)
+            }
+        }
     }
 
     @JvmStatic
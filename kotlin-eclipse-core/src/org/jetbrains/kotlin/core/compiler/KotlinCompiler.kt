@@ -1,8 +1,6 @@
 package org.jetbrains.kotlin.core.compiler
 
-import com.intellij.openapi.util.Disposer
 import org.eclipse.jdt.core.IJavaProject
-import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys
 import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSourceLocation
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageLocation
@@ -10,83 +8,155 @@ import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.ERROR
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.EXCEPTION
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector
-import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
-import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
-import org.jetbrains.kotlin.config.CompilerConfiguration
-import org.jetbrains.kotlin.config.JVMConfigurationKeys
 import org.jetbrains.kotlin.core.launch.CompilerOutputData
-import org.jetbrains.kotlin.core.launch.CompilerOutputParser
-import org.jetbrains.kotlin.core.launch.KotlinCLICompiler
 import org.jetbrains.kotlin.core.model.KOTLIN_COMPILER_PATH
 import org.jetbrains.kotlin.core.model.KotlinEnvironment
 import org.jetbrains.kotlin.core.preferences.CompilerPlugin
+import org.jetbrains.kotlin.core.preferences.KotlinBuildingProperties
 import org.jetbrains.kotlin.core.utils.ProjectUtils
-import org.jetbrains.kotlin.incremental.makeIncrementally
-import java.io.BufferedReader
-import java.io.ByteArrayOutputStream
 import java.io.File
-import java.io.PrintStream
-import java.io.Reader
-import java.io.StringReader
-
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compiles source groups of a project concurrently in the IDE process. Compilations share the global state
+ * of the compiler:
+ * - the application environment, which [KotlinCompilerService] keeps for the whole build and the compiler
+ *   reference-counts under its own lock; every compilation creates its own project environment, so sources,
+ *   classpath roots and caches are not shared, the same way the Kotlin daemon runs parallel compilations in one
+ *   process;
+ * - system properties, which every compilation sets to the same values;
+ * - the single slot of the canceled status, see [KotlinCompilerService].
+ */
 object KotlinCompiler {
+    private const val CACHE_DIR_NAME = "cache"
+
+    // Files of incremental caches which were kept directly in the cache folder
+    private val SHARED_CACHE_FILES = listOf("caches-jvm", "build-history.bin", "last-build.bin", "dirty-sources.txt")
+
+    private const val THREAD_KEEP_ALIVE_SECONDS = 60L
+
+    // Shared by all builds, idle threads are stopped
+    private val executor = ThreadPoolExecutor(
+        1, 1, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, LinkedBlockingQueue()
+    ) { runnable ->
+        Thread(runnable, "Kotlin compiler").apply { isDaemon = true }
+    }.apply { allowCoreThreadTimeOut(true) }
+
+    /**
+     * Sources compiled into one output folder. Test sources see classes of main sources, so they are compiled
+     * after main sources with the main output folders in their classpath.
+     */
+    private class SourceGroup(val outputDir: File, val sourceDirs: List<File>, val isTest: Boolean) {
+        var dependencyOutputDirs: List<File> = emptyList()
+    }
 
     private fun compileKotlinFiles(
         javaProject: IJavaProject,
-        compilation: (IJavaProject, File, List<File>) -> KotlinCompilerResult
-    ): KotlinCompilerResult =
-        ProjectUtils.getSrcOutDirectories(javaProject)
-            .groupingBy { it.second }.fold(mutableListOf<File>()) { list, key ->
-                list.apply { add(key.first) }
-            }.map { (out, sources) ->
-                compilation(javaProject, out, sources)
-            }.fold(KotlinCompilerResult(true, CompilerOutputData())) { previous, current ->
-                KotlinCompilerResult(previous.result and current.result, CompilerOutputData().apply {
-                    previous.compilerOutput.list.union(current.compilerOutput.list).forEach {
-                        add(it.messageSeverity, it.message, it.messageLocation)
-                    }
-                })
+        compilation: (IJavaProject, SourceGroup) -> KotlinCompilerResult
+    ): KotlinCompilerResult {
+        val testSourceDirs = ProjectUtils.getTestSourceDirectories(javaProject)
+        val (testGroups, mainGroups) = ProjectUtils.getSrcOutDirectories(javaProject)
+            .groupBy({ it.second }, { it.first })
+            .map { (out, sources) -> SourceGroup(out, sources, sources.all { it in testSourceDirs }) }
+            .partition { it.isTest }
+
+        testGroups.forEach { group -> group.dependencyOutputDirs = mainGroups.map { it.outputDir } }
+
+        updateParallelism(KotlinBuildingProperties.workspaceInstance.compilerParallelism.coerceAtLeast(1))
+        val results = KotlinCompilerService.withApplication {
+            listOf(mainGroups, testGroups).flatMap { groups ->
+                groups.map { group -> executor.submit(Callable { compilation(javaProject, group) }) }
+                    .map { it.getResult() }
             }
+        }
+
+        return KotlinCompilerResult(results.all { it.result }, CompilerOutputData().apply {
+            results.flatMap { it.compilerOutput.list }.distinct().forEach {
+                add(it.messageSeverity, it.message, it.messageLocation)
+            }
+        })
+    }
+
+    @Synchronized
+    private fun updateParallelism(parallelism: Int) {
+        // The core size may not exceed the maximum size
+        if (parallelism > executor.maximumPoolSize) {
+            executor.maximumPoolSize = parallelism
+            executor.corePoolSize = parallelism
+        } else {
+            executor.corePoolSize = parallelism
+            executor.maximumPoolSize = parallelism
+        }
+    }
+
+    private fun <T> Future<T>.getResult(): T =
+        try {
+            get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
 
     @JvmStatic
     fun compileKotlinFiles(javaProject: IJavaProject): KotlinCompilerResult =
-        compileKotlinFiles(javaProject) { project, path, sources ->
-            execKotlinCompiler(configureCompilerArguments(project, path.absolutePath, sources))
+        compileKotlinFiles(javaProject) { project, group ->
+            execKotlinCompiler(configureCompilerArguments(project, group))
         }
 
     @JvmStatic
     fun compileIncrementallyFiles(
         javaProject: IJavaProject
-    ): KotlinCompilerResult =
-        compileKotlinFiles(javaProject) { project, path, sources ->
-            execIncrementalKotlinCompiler(project, path.absoluteFile, sources)
+    ): KotlinCompilerResult {
+        removeSharedCaches(javaProject)
+        return compileKotlinFiles(javaProject) { project, group ->
+            execIncrementalKotlinCompiler(project, group)
         }
+    }
+
+    /**
+     * Caches of every output folder are kept in a folder named after it. Caches which were shared by all output
+     * folders before are deleted, the first build of each output folder is a full one anyway.
+     */
+    private fun removeSharedCaches(javaProject: IJavaProject) {
+        ProjectUtils.getSrcOutDirectories(javaProject)
+            .map { File(it.second.absoluteFile.parentFile, CACHE_DIR_NAME) }
+            .distinct()
+            .forEach { cacheDir ->
+                SHARED_CACHE_FILES
+                    .map { File(cacheDir, it) }
+                    .filter { it.exists() }
+                    .forEach { it.deleteRecursively() }
+            }
+    }
 
     private fun execIncrementalKotlinCompiler(
         javaProject: IJavaProject,
-        outputDir: File,
-        sourceDirs: List<File>
+        group: SourceGroup
     ): KotlinCompilerResult {
-        val arguments = getCompilerArguments(javaProject, outputDir)
+        val outputDir = group.outputDir.absoluteFile
+        val arguments = getCompilerArguments(javaProject, outputDir, group.dependencyOutputDirs)
         val messageCollector = CompilerMessageCollector()
-        val disposable = Disposer.newDisposable()
-        val config = CompilerConfiguration().apply {
-            put(JVMConfigurationKeys.NO_JDK, true)
-            put(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE)
-            put(CLIConfigurationKeys.INTELLIJ_PLUGIN_ROOT, KOTLIN_COMPILER_PATH)
-        }
-        KotlinCoreEnvironment.getOrCreateApplicationEnvironmentForProduction(disposable, config)
-        var cacheDir = File("${outputDir.parentFile.absolutePath}/cache").also { it.mkdirs() }
-        makeIncrementally(cacheDir, sourceDirs, arguments, messageCollector)
+        // Groups are compiled concurrently, so every output folder has its own caches
+        val cacheDir = File(File(outputDir.parentFile, CACHE_DIR_NAME), outputDir.name).also { it.mkdirs() }
+        KotlinCompilerService.compileIncrementally(cacheDir, group.sourceDirs, arguments, messageCollector)
         return messageCollector.getCompilerResult()
     }
 
-    private fun execKotlinCompiler(arguments: Array<String>): KotlinCompilerResult = with(ByteArrayOutputStream()) {
-        KotlinCLICompiler.doMain(K2JVMCompiler(), PrintStream(this), arguments)
-        parseCompilerOutput(BufferedReader(StringReader(this.toString())))
+    private fun execKotlinCompiler(arguments: Array<String>): KotlinCompilerResult {
+        val messageCollector = CompilerMessageCollector()
+        KotlinCompilerService.compile(arguments, messageCollector)
+        return messageCollector.getCompilerResult()
     }
 
-    private fun getCompilerArguments(javaProject: IJavaProject, outputDir: File) = K2JVMCompilerArguments().apply {
+    private fun getCompilerArguments(
+        javaProject: IJavaProject,
+        outputDir: File,
+        dependencyOutputDirs: List<File>
+    ) = K2JVMCompilerArguments().apply {
         val kotlinProperties =
             KotlinEnvironment.getEnvironment(javaProject.project).compilerProperties
 
@@ -122,14 +192,14 @@ object KotlinCompiler {
         pluginClasspaths = pluginClasspathsList.toTypedArray()
         pluginOptions = pluginOptionsList.toTypedArray()
 
-        classpath = ProjectUtils.collectClasspathWithDependenciesForLaunch(javaProject, jdkUndefined)
+        classpath = (ProjectUtils.collectClasspathWithDependenciesForLaunch(javaProject, jdkUndefined) + dependencyOutputDirs)
             .joinToString(separator = System.getProperty("path.separator")) { it.absolutePath }
 
 
     }
 
     private fun configureCompilerArguments(
-        javaProject: IJavaProject, outputDir: String, sourceDirs: List<File>
+        javaProject: IJavaProject, group: SourceGroup
     ): Array<String> = with(mutableListOf<String>()) {
         val kotlinProperties =
             KotlinEnvironment.getEnvironment(javaProject.project).compilerProperties
@@ -164,14 +234,14 @@ object KotlinCompiler {
         }
 
         add("-classpath")
-        ProjectUtils.collectClasspathWithDependenciesForLaunch(javaProject, jdkUndefined)
+        (ProjectUtils.collectClasspathWithDependenciesForLaunch(javaProject, jdkUndefined) + group.dependencyOutputDirs)
             .joinToString(separator = System.getProperty("path.separator")) { it.absolutePath }
             .let { add(it) }
 
         add("-d")
-        add(outputDir)
+        add(group.outputDir.absolutePath)
 
-        addAll(sourceDirs.map {
+        addAll(group.sourceDirs.map {
             it.absolutePath
         })
 
@@ -215,14 +285,6 @@ object KotlinCompiler {
         fun getCompilerResult(): KotlinCompilerResult =
             KotlinCompilerResult(severities.firstOrNull { it == ERROR || it == EXCEPTION } == null, compilerOutput)
     }
-
-    private fun parseCompilerOutput(reader: Reader): KotlinCompilerResult {
-        val messageCollector = CompilerMessageCollector()
-
-        CompilerOutputParser.parseCompilerMessagesFromReader(messageCollector, reader)
-
-        return messageCollector.getCompilerResult()
-    }
 }
 
 class KotlinCompilerResult(val result: Boolean, val compilerOutput: CompilerOutputData) {
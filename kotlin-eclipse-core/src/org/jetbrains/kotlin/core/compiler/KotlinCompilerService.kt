@@ -0,0 +1,194 @@
+package org.jetbrains.kotlin.core.compiler
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.util.Disposer
+import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
+import org.jetbrains.kotlin.cli.common.arguments.parseCommandLineArguments
+import org.jetbrains.kotlin.cli.common.arguments.validateArguments
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
+import org.jetbrains.kotlin.cli.common.messages.MessageCollector
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.cli.jvm.compiler.CompileEnvironmentException
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.core.model.KOTLIN_COMPILER_PATH
+import org.jetbrains.kotlin.core.model.KotlinAnalysisScheduler
+import org.jetbrains.kotlin.incremental.makeIncrementally
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compilations which created the compiler application environment and compilations which reused it. The project
+ * environment is created by every compilation, so the times include it in both cases.
+ */
+data class CompilerServiceStatistics(
+    val newApplicationCompilations: Long,
+    val reusedApplicationCompilations: Long,
+    val newApplicationTimeMillis: Long,
+    val reusedApplicationTimeMillis: Long,
+    val releases: Long
+)
+
+/**
+ * Runs the Kotlin compiler in the IDE process. Both full compilations (script launches) and incremental
+ * compilations (builds before launching programs, see [compileIncrementally]) go through the service.
+ * Diagnostics are reported directly to a [MessageCollector].
+ *
+ * The compiler installs its application environment as the global application, which displaces the shared
+ * application environment of editor analyses. So the compiler application environment is kept only while
+ * compilations run: compilations of one build share it through [withApplication], and it is released as soon as
+ * the last of them finishes, which installs the previous application back. The project environment depends on
+ * the sources and the classpath of a compilation and is created by the compiler for every run.
+ *
+ * The compiler keeps the canceled status in a single global slot. Every compilation installs the status
+ * of [KotlinAnalysisScheduler], which only checks analysis requests of the current thread, so concurrent
+ * compilations and analyses don't cancel each other. An incremental compilation clears the slot as it has no
+ * services to take the status from, so analyses running in other threads can't be canceled until the compilation
+ * finishes and the status is installed again.
+ */
+object KotlinCompilerService {
+    private val serviceLock = Any()
+
+    private var applicationDisposable: Disposable? = null
+    private var applicationUsers = 0
+
+    private var newApplicationCompilations = 0L
+    private var reusedApplicationCompilations = 0L
+    private var newApplicationTimeMillis = 0L
+    private var reusedApplicationTimeMillis = 0L
+    private var releases = 0L
+
+    fun compile(args: Array<String>, messageCollector: MessageCollector): ExitCode {
+        val arguments = K2JVMCompilerArguments()
+        parseCommandLineArguments(args.asList(), arguments)
+        validateArguments(arguments.errors)?.let { message ->
+            messageCollector.report(CompilerMessageSeverity.ERROR, message, null)
+            return ExitCode.COMPILATION_ERROR
+        }
+
+        if (arguments.intellijPluginRoot == null) {
+            arguments.intellijPluginRoot = KOTLIN_COMPILER_PATH
+        }
+
+        return compile(arguments, messageCollector)
+    }
+
+    fun compile(arguments: K2JVMCompilerArguments, messageCollector: MessageCollector): ExitCode =
+        runCompilation(messageCollector, ExitCode.INTERNAL_ERROR) {
+            K2JVMCompiler().exec(messageCollector, KotlinAnalysisScheduler.compilerServices(), arguments)
+        }
+
+    /**
+     * Compiles [sourceDirs] incrementally, keeping incremental caches in [cacheDir].
+     */
+    fun compileIncrementally(
+        cacheDir: File,
+        sourceDirs: List<File>,
+        arguments: K2JVMCompilerArguments,
+        messageCollector: MessageCollector
+    ) {
+        runCompilation(messageCollector, Unit) {
+            makeIncrementally(cacheDir, sourceDirs, arguments, messageCollector)
+        }
+    }
+
+    /**
+     * Keeps the compiler application environment for all compilations run by [action], e.g. compilations of all
+     * source groups of a build, and releases it afterwards.
+     */
+    fun <T> withApplication(action: () -> T): T {
+        acquireApplication()
+        try {
+            return action()
+        } finally {
+            releaseApplication()
+        }
+    }
+
+    /**
+     * Runs [compilation] and reports a [CompileEnvironmentException] as an error, then [failedResult] is returned.
+     */
+    private fun <T> runCompilation(messageCollector: MessageCollector, failedResult: T, compilation: () -> T): T {
+        System.setProperty("java.awt.headless", "true")
+
+        val isApplicationReused = acquireApplication()
+        val startTime = System.nanoTime()
+        try {
+            return compilation()
+        } catch (e: CompileEnvironmentException) {
+            messageCollector.report(CompilerMessageSeverity.ERROR, e.message.orEmpty(), null)
+            return failedResult
+        } finally {
+            KotlinAnalysisScheduler.installCanceledStatus()
+
+            val elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)
+            synchronized(serviceLock) {
+                if (isApplicationReused) {
+                    reusedApplicationCompilations++
+                    reusedApplicationTimeMillis += elapsedMillis
+                } else {
+                    newApplicationCompilations++
+                    newApplicationTimeMillis += elapsedMillis
+                }
+            }
+
+            releaseApplication()
+        }
+    }
+
+    fun getStatistics(): CompilerServiceStatistics = synchronized(serviceLock) {
+        CompilerServiceStatistics(
+            newApplicationCompilations,
+            reusedApplicationCompilations,
+            newApplicationTimeMillis,
+            reusedApplicationTimeMillis,
+            releases
+        )
+    }
+
+    /**
+     * Releases the compiler application environment even if compilations still use it, e.g. when the plugin stops.
+     */
+    fun release() {
+        synchronized(serviceLock) {
+            applicationDisposable?.let {
+                applicationDisposable = null
+                releases++
+                Disposer.dispose(it)
+            }
+        }
+    }
+
+    // Returns whether the application environment was already created for another compilation
+    private fun acquireApplication(): Boolean = synchronized(serviceLock) {
+        applicationUsers++
+
+        val isAlive = applicationDisposable != null
+        if (!isAlive) {
+            applicationDisposable = Disposer.newDisposable().also { retainApplicationEnvironment(it) }
+        }
+
+        isAlive
+    }
+
+    private fun releaseApplication() {
+        synchronized(serviceLock) {
+            applicationUsers--
+            if (applicationUsers == 0) release()
+        }
+    }
+
+    // The compiler disposes its application environment when the last disposable registered for it is disposed,
+    // then the application which was installed before the environment was created is installed back
+    private fun retainApplicationEnvironment(disposable: Disposable) {
+        val configuration = CompilerConfiguration().apply {
+            put(JVMConfigurationKeys.NO_JDK, true)
+            put(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE)
+            put(CLIConfigurationKeys.INTELLIJ_PLUGIN_ROOT, KOTLIN_COMPILER_PATH)
+        }
+        KotlinCoreEnvironment.getOrCreateApplicationEnvironmentForProduction(disposable, configuration)
+    }
+}
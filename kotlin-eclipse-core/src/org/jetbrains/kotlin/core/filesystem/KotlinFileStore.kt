@@ -34,7 +34,6 @@ import org.eclipse.core.runtime.Status
 import org.eclipse.jdt.internal.compiler.util.Util
 import org.jetbrains.kotlin.core.asJava.KotlinLightClassGeneration
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
-import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.File
@@ -49,28 +48,16 @@ public class KotlinFileStore(file: File) : LocalFile(file) {
             throw CoreException(Status.CANCEL_STATUS)
         }
         
-        val lightClass = KotlinLightClassManager.getInstance(project).getCachedLightClass(file)
+        val lightClassManager = KotlinLightClassManager.getInstance(project)
+        val lightClass = lightClassManager.getCachedLightClass(file)
         if (lightClass != null) {
             return ByteArrayInputStream(lightClass)
         }
 
-        val jetFiles = KotlinLightClassManager.getInstance(project).getSourceFiles(file)
-        if (jetFiles.isNotEmpty()) {
-            val analysisResult = KotlinAnalyzer.analyzeFiles(jetFiles).analysisResult
-
-            val requestedClassName = Path(file.getAbsolutePath()).lastSegment()
-            val state = KotlinLightClassGeneration.buildLightClasses(analysisResult, project, jetFiles, requestedClassName)
-            val generatedClass = state.factory.asList().find {
-                val generatedClassName = Path(it.relativePath).lastSegment()
-                requestedClassName == generatedClassName
-            }
-
-            if (generatedClass != null) {
-                val byteArray = generatedClass.asByteArray()
-                
-                KotlinLightClassManager.getInstance(project).cacheLightClass(file, byteArray)
-                return ByteArrayInputStream(byteArray)
-            }
+        val jetFiles = lightClassManager.getSourceFiles(file)
+        val generatedClass = KotlinLightClassGeneration.generateLightClasses(project, jetFiles)[file]
+        if (generatedClass != null) {
+            return ByteArrayInputStream(generatedClass)
         }
 
         throw CoreException(Status.CANCEL_STATUS)
@@ -5,8 +5,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -23,14 +25,16 @@ import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
-import org.eclipse.jdt.internal.core.util.LRUCache;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.core.Activator;
 import org.jetbrains.kotlin.core.asJava.LightClassFile;
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.core.log.KotlinLogger;
 import org.jetbrains.kotlin.core.model.KotlinEnvironment;
 import org.jetbrains.kotlin.core.model.KotlinJavaManager;
+import org.jetbrains.kotlin.core.model.KotlinProjectAbi;
+import org.jetbrains.kotlin.core.preferences.KotlinBuildingProperties;
 import org.jetbrains.kotlin.core.utils.ProjectUtils;
 import org.jetbrains.kotlin.fileClasses.FileClasses;
 import org.jetbrains.kotlin.fileClasses.NoResolveFileClassesProvider;
@@ -48,100 +52,208 @@ import com.intellij.psi.PsiElement;
 import com.intellij.psi.util.PsiTreeUtil;
 
 public class KotlinLightClassManager {
-    private static final int LIGHT_CLASSES_CACHE_SIZE = 300;
-
     private static final String WORKSPACE_JOB_ID = "updateLightClassesJob";
     
-    private final LRUCache cachedLightClasses = new LRUCache(LIGHT_CLASSES_CACHE_SIZE);
-    
     private final IProject project;
     
     private final ConcurrentMap<File, Set<IFile>> sourceFiles = new ConcurrentHashMap<>();
     
+    private final Map<IFile, List<File>> lightClassesBySource = new HashMap<>();
+    
+    private final Map<IFile, Integer> signatureHashes = new HashMap<>();
+    
+    private final Object sourcesLock = new Object();
+    
     @NotNull
     public static KotlinLightClassManager getInstance(@NotNull IProject project) {
         Project ideaProject = KotlinEnvironment.Companion.getEnvironment(project).getProject();
         return ServiceManager.getService(ideaProject, KotlinLightClassManager.class);
     }
     
+    private final LightClassCache cachedLightClasses;
+    
     public KotlinLightClassManager(@NotNull IProject project) {
         this.project = project;
+        this.cachedLightClasses = new LightClassCache(
+                () -> KotlinBuildingProperties.Companion.getWorkspaceInstance().getLightClassCacheSize() * 1024L * 1024L,
+                getSpillFolder(project));
     }
     
     @Nullable
-    public synchronized byte[] getCachedLightClass(File file) {
-        Object lightClass = cachedLightClasses.get(file);
-        if (lightClass != null) return (byte[]) lightClass;
-        
-        return null;
+    public byte[] getCachedLightClass(File file) {
+        return cachedLightClasses.get(file);
     }
     
-    public synchronized void cacheLightClass(File file, @NotNull byte[] lightClass) {
+    public void cacheLightClass(File file, @NotNull byte[] lightClass) {
         cachedLightClasses.put(file, lightClass);
     }
     
-    public synchronized void removeLightClass(@NotNull File file) {
-        cachedLightClasses.flush(file);
+    public void removeLightClass(@NotNull File file) {
+        cachedLightClasses.remove(file);
+    }
+    
+    public boolean isCacheFull() {
+        return cachedLightClasses.isFull();
     }
     
+    @NotNull
+    public LightClassCacheStatistics getCacheStatistics() {
+        return cachedLightClasses.getStatistics();
+    }
+    
+    @Nullable
+    private static File getSpillFolder(@NotNull IProject project) {
+        Activator plugin = Activator.getDefault();
+        if (plugin == null || !KotlinBuildingProperties.Companion.getWorkspaceInstance().getSpillLightClassesToDisk()) {
+            return null;
+        }
+        
+        return plugin.getStateLocation().append("lightClasses").append(project.getName()).toFile();
+    }
+    
+    /**
+     * Computes light classes of all source files of the project from scratch.
+     */
     public void computeLightClassesSources() {
-        Map<File, Set<IFile>> newSourceFilesMap = new HashMap<>();
-        for (IFile sourceFile : KotlinPsiManager.INSTANCE.getFilesByProject(project)) {
-            List<IPath> lightClassesPaths = getLightClassesPaths(sourceFile);
+        synchronized (sourcesLock) {
+            Map<File, Set<IFile>> newSourceFilesMap = new HashMap<>();
+            lightClassesBySource.clear();
+            signatureHashes.clear();
+            for (IFile sourceFile : KotlinPsiManager.INSTANCE.getFilesByProject(project)) {
+                KtFile ktFile = KotlinPsiManager.INSTANCE.getParsedFile(sourceFile);
+                List<File> lightClasses = getLightClassFiles(ktFile);
+                for (File lightClass : lightClasses) {
+                    newSourceFilesMap.computeIfAbsent(lightClass, key -> new HashSet<>()).add(sourceFile);
+                }
+                
+                lightClassesBySource.put(sourceFile, lightClasses);
+                signatureHashes.put(sourceFile, KotlinProjectAbi.INSTANCE.signatureHash(ktFile));
+            }
             
-            for (IPath path : lightClassesPaths) {
-                LightClassFile lightClassFile = new LightClassFile(project.getFile(path));
+            sourceFiles.clear();
+            for (Map.Entry<File, Set<IFile>> entry : newSourceFilesMap.entrySet()) {
+                Set<IFile> sources = ConcurrentHashMap.newKeySet();
+                sources.addAll(entry.getValue());
+                sourceFiles.put(entry.getKey(), sources);
+            }
+        }
+    }
+    
+    /**
+     * Creates, updates and removes light classes of all source files of the project.
+     */
+    public void recreateLightClasses(@NotNull Set<IFile> affectedFiles, Boolean resourceTreeBlocked) {
+        List<LightClassFile> toCreate = new ArrayList<>();
+        List<LightClassFile> toRemove = new ArrayList<>();
+        synchronized (sourcesLock) {
+            computeLightClassesSources();
+            
+            for (Map.Entry<File, Set<IFile>> entry : sourceFiles.entrySet()) {
+                LightClassFile lightClassFile = getLightClassFile(entry.getKey());
+                if (!lightClassFile.exists()) {
+                    toCreate.add(lightClassFile);
+                }
                 
-                Set<IFile> newSourceFiles = newSourceFilesMap.get(lightClassFile.asFile());
-                if (newSourceFiles == null) {
-                    newSourceFiles = new HashSet<>();
-                    newSourceFilesMap.put(lightClassFile.asFile(), newSourceFiles);
+                for (IFile sourceFile : entry.getValue()) {
+                    if (affectedFiles.contains(sourceFile)) {
+                        toRemove.add(lightClassFile);
+                        break;
+                    }
                 }
-                newSourceFiles.add(sourceFile);
             }
         }
         
-        sourceFiles.clear();
-        sourceFiles.putAll(newSourceFilesMap);
+        runUpdate(resourceTreeBlocked, () -> {
+            updateLightClasses(toCreate, toRemove);
+            cleanOutdatedLightClasses(project);
+        });
     }
-
+    
+    /**
+     * Updates light classes of changed source files only. Existing light classes are updated only when
+     * declarations of their sources changed (see {@link KotlinProjectAbi#signatureHash}), light classes
+     * which don't have sources anymore are deleted.
+     */
     public void updateLightClasses(@NotNull Set<IFile> affectedFiles, Boolean resourceTreeBlocked) {
+        if (sourceFiles.isEmpty()) {
+            recreateLightClasses(affectedFiles, resourceTreeBlocked);
+            return;
+        }
+        
         List<LightClassFile> toCreate = new ArrayList<>();
         List<LightClassFile> toRemove = new ArrayList<>();
-        for (Map.Entry<File, Set<IFile>> entry : sourceFiles.entrySet()) {
-            IFile lightClassIFile = ResourcesPlugin.getWorkspace().getRoot().getFile(new Path(entry.getKey().getPath()));
-            if (lightClassIFile == null) continue;
-            
-            LightClassFile lightClassFile = new LightClassFile(lightClassIFile);
-
-            if (!lightClassFile.exists()) {
-                toCreate.add(lightClassFile);
-            }
-            
-            for (IFile sourceFile : entry.getValue()) {
-                if (affectedFiles.contains(sourceFile)) {
-                    toRemove.add(lightClassFile);
-                    break;
+        List<LightClassFile> toDelete = new ArrayList<>();
+        synchronized (sourcesLock) {
+            for (IFile sourceFile : affectedFiles) {
+                KtFile ktFile = sourceFile.exists() ? KotlinPsiManager.getKotlinParsedFile(sourceFile) : null;
+                
+                List<File> oldLightClasses = lightClassesBySource.getOrDefault(sourceFile, Collections.emptyList());
+                List<File> newLightClasses = ktFile != null ? getLightClassFiles(ktFile) : Collections.emptyList();
+                
+                Integer oldHash = signatureHashes.get(sourceFile);
+                Integer newHash = ktFile != null ? KotlinProjectAbi.INSTANCE.signatureHash(ktFile) : null;
+                
+                for (File lightClass : oldLightClasses) {
+                    if (newLightClasses.contains(lightClass)) continue;
+                    
+                    Set<IFile> sources = sourceFiles.get(lightClass);
+                    if (sources != null) {
+                        sources.remove(sourceFile);
+                        if (sources.isEmpty()) {
+                            sourceFiles.remove(lightClass);
+                            toDelete.add(getLightClassFile(lightClass));
+                        }
+                    }
+                }
+                
+                for (File lightClass : newLightClasses) {
+                    sourceFiles.computeIfAbsent(lightClass, key -> ConcurrentHashMap.newKeySet()).add(sourceFile);
+                    
+                    LightClassFile lightClassFile = getLightClassFile(lightClass);
+                    if (!lightClassFile.exists()) {
+                        toCreate.add(lightClassFile);
+                    } else if (!Objects.equals(oldHash, newHash)) {
+                        toRemove.add(lightClassFile);
+                    }
+                }
+                
+                if (ktFile != null) {
+                    lightClassesBySource.put(sourceFile, newLightClasses);
+                    signatureHashes.put(sourceFile, newHash);
+                } else {
+                    lightClassesBySource.remove(sourceFile);
+                    signatureHashes.remove(sourceFile);
                 }
             }
         }
-        if (resourceTreeBlocked) {
-            if (!toCreate.isEmpty() || !toRemove.isEmpty()) {
-                WorkspaceJob job = new WorkspaceJob(WORKSPACE_JOB_ID) {
-                    @Override
-                    public IStatus runInWorkspace(IProgressMonitor monitor) {
-                        monitor.beginTask("Light class generation started", 0);
-                        updateLightClasses(toCreate, toRemove);
-                        monitor.done();
-                        return new JobStatus(0, this, "Light classes generation finished");
-                    }
-                };
-                job.setRule(ResourcesPlugin.getWorkspace().getRuleFactory().createRule(
-                        project.getFolder(KotlinJavaManager.KOTLIN_BIN_FOLDER)));
-                job.schedule();
+        
+        if (toCreate.isEmpty() && toRemove.isEmpty() && toDelete.isEmpty()) return;
+        
+        runUpdate(resourceTreeBlocked, () -> {
+            updateLightClasses(toCreate, toRemove);
+            for (LightClassFile lightClassFile : toDelete) {
+                removeLightClass(lightClassFile.asFile());
+                lightClassFile.delete();
             }
+        });
+    }
+    
+    private void runUpdate(Boolean resourceTreeBlocked, Runnable update) {
+        if (resourceTreeBlocked) {
+            WorkspaceJob job = new WorkspaceJob(WORKSPACE_JOB_ID) {
+                @Override
+                public IStatus runInWorkspace(IProgressMonitor monitor) {
+                    monitor.beginTask("Light class generation started", 0);
+                    update.run();
+                    monitor.done();
+                    return new JobStatus(0, this, "Light classes generation finished");
+                }
+            };
+            job.setRule(ResourcesPlugin.getWorkspace().getRuleFactory().createRule(
+                    project.getFolder(KotlinJavaManager.KOTLIN_BIN_FOLDER)));
+            job.schedule();
         } else {
-            updateLightClasses(toCreate, toRemove);
+            update.run();
         }
     }
 
@@ -154,7 +266,11 @@ public class KotlinLightClassManager {
             removeLightClass(lightClassFile.asFile());
             lightClassFile.touchFile();
         }
-        cleanOutdatedLightClasses(project);
+    }
+    
+    @NotNull
+    private LightClassFile getLightClassFile(@NotNull File lightClass) {
+        return new LightClassFile(ResourcesPlugin.getWorkspace().getRoot().getFile(new Path(lightClass.getPath())));
     }
     
     public List<KtFile> getSourceFiles(@NotNull File file) {
@@ -165,6 +281,31 @@ public class KotlinLightClassManager {
         return getSourceKtFiles(file);
     }
     
+    /**
+     * Sources needed to generate light classes of {@code sourceFile} which are not in the cache yet.
+     * Returns an empty list if all light classes of the file are cached.
+     */
+    @NotNull
+    public List<KtFile> getSourcesOfUncachedLightClasses(@NotNull IFile sourceFile) {
+        if (sourceFiles.isEmpty()) {
+            computeLightClassesSources();
+        }
+        
+        List<File> lightClasses;
+        synchronized (sourcesLock) {
+            lightClasses = lightClassesBySource.getOrDefault(sourceFile, Collections.emptyList());
+        }
+        
+        Set<KtFile> sources = new LinkedHashSet<>();
+        for (File lightClass : lightClasses) {
+            if (!cachedLightClasses.contains(lightClass)) {
+                sources.addAll(getSourceKtFiles(lightClass));
+            }
+        }
+        
+        return new ArrayList<>(sources);
+    }
+    
     @Nullable
     public static String getInternalName(KtClassOrObject classOrObject) {
         FqName fullFqName = classOrObject.getFqName();
@@ -204,10 +345,19 @@ public class KotlinLightClassManager {
     }
 
     @NotNull
-    private List<IPath> getLightClassesPaths(@NotNull IFile sourceFile) {
+    private List<File> getLightClassFiles(@NotNull KtFile ktFile) {
+        List<File> lightClasses = new ArrayList<>();
+        for (IPath path : getLightClassesPaths(ktFile)) {
+            lightClasses.add(new LightClassFile(project.getFile(path)).asFile());
+        }
+        
+        return lightClasses;
+    }
+    
+    @NotNull
+    private List<IPath> getLightClassesPaths(@NotNull KtFile ktFile) {
         List<IPath> lightClasses = new ArrayList<IPath>();
         
-        KtFile ktFile = KotlinPsiManager.INSTANCE.getParsedFile(sourceFile);
         for (KtClassOrObject classOrObject : findLightClasses(ktFile)) {
             String internalName = getInternalName(classOrObject);
             if (internalName != null) {
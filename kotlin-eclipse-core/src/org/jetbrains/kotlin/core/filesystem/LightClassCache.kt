@@ -0,0 +1,139 @@
+package org.jetbrains.kotlin.core.filesystem
+
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+data class LightClassCacheStatistics(
+    val hits: Long,
+    val diskHits: Long,
+    val misses: Long,
+    val evictions: Long,
+    val size: Int,
+    val weight: Long
+)
+
+/**
+ * Bytes of generated light classes bounded by their total size. Reads don't block each other, the least recently
+ * used classes are evicted when the cache grows over [maxWeight] bytes.
+ *
+ * When [diskFolder] is given, evicted classes are compressed to it and read back on the next request instead
+ * of being generated again. The folder is cleared on creation as its content may be outdated.
+ */
+internal class LightClassCache(private val maxWeight: () -> Long, private val diskFolder: File?) {
+    private class Entry(val bytes: ByteArray, @Volatile var lastAccess: Long)
+
+    private val entries = ConcurrentHashMap<File, Entry>()
+    private val evictionLock = Any()
+
+    private val clock = AtomicLong()
+    private val weight = AtomicLong()
+
+    private val hits = AtomicLong()
+    private val diskHits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+
+    init {
+        diskFolder?.deleteRecursively()
+    }
+
+    fun get(file: File): ByteArray? {
+        entries[file]?.let { entry ->
+            entry.lastAccess = clock.incrementAndGet()
+            hits.incrementAndGet()
+            return entry.bytes
+        }
+
+        val spilled = readSpilled(file)
+        if (spilled != null) {
+            diskHits.incrementAndGet()
+            put(file, spilled)
+            return spilled
+        }
+
+        misses.incrementAndGet()
+        return null
+    }
+
+    fun put(file: File, bytes: ByteArray) {
+        val oldEntry = entries.put(file, Entry(bytes, clock.incrementAndGet()))
+        if (weight.addAndGet(bytes.size.toLong() - (oldEntry?.bytes?.size ?: 0)) > maxWeight()) {
+            evict()
+        }
+    }
+
+    /**
+     * Checks whether new classes would evict cached ones which can't be read back, i.e. the cache reached
+     * its limit and classes are not spilled to disk.
+     */
+    fun isFull(): Boolean = diskFolder == null && weight.get() >= maxWeight()
+
+    fun contains(file: File): Boolean = entries.containsKey(file) || spillFile(file)?.exists() == true
+
+    fun remove(file: File) {
+        entries.remove(file)?.let { weight.addAndGet(-it.bytes.size.toLong()) }
+        spillFile(file)?.delete()
+    }
+
+    fun getStatistics(): LightClassCacheStatistics =
+        LightClassCacheStatistics(hits.get(), diskHits.get(), misses.get(), evictions.get(), entries.size, weight.get())
+
+    // Evicts down to 90% of the limit, so a burst of new classes doesn't sort the entries for every class
+    private fun evict() {
+        synchronized(evictionLock) {
+            val limit = maxWeight()
+            if (weight.get() <= limit) return
+
+            val targetWeight = limit / 10 * 9
+            for ((file, entry) in entries.entries.sortedBy { it.value.lastAccess }) {
+                if (weight.get() <= targetWeight) break
+
+                if (entries.remove(file, entry)) {
+                    weight.addAndGet(-entry.bytes.size.toLong())
+                    evictions.incrementAndGet()
+                    spill(file, entry.bytes)
+                }
+            }
+        }
+    }
+
+    private fun spill(file: File, bytes: ByteArray) {
+        val spillFile = spillFile(file) ?: return
+        try {
+            spillFile.parentFile.mkdirs()
+            DataOutputStream(DeflaterOutputStream(spillFile.outputStream().buffered())).use { output ->
+                output.writeUTF(file.path)
+                output.writeInt(bytes.size)
+                output.write(bytes)
+            }
+        } catch (e: IOException) {
+            KotlinLogger.logError("Could not save light class ${file.path}", e)
+            spillFile.delete()
+        }
+    }
+
+    private fun readSpilled(file: File): ByteArray? {
+        val spillFile = spillFile(file)?.takeIf { it.exists() } ?: return null
+        return try {
+            DataInputStream(InflaterInputStream(spillFile.inputStream().buffered())).use { input ->
+                // Different classes may share a file name, then the file belongs to the last spilled one
+                if (input.readUTF() != file.path) return null
+
+                ByteArray(input.readInt()).also { input.readFully(it) }
+            }
+        } catch (e: IOException) {
+            KotlinLogger.logError("Could not read light class ${file.path}", e)
+            null
+        }
+    }
+
+    private fun spillFile(file: File): File? =
+        diskFolder?.let { File(it, Integer.toHexString(file.path.hashCode()) + ".bin") }
+}
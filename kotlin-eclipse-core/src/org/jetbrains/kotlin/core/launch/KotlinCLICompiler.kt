@@ -4,7 +4,7 @@ import java.io.PrintStream
 import org.jetbrains.kotlin.cli.common.CLICompiler
 import org.jetbrains.kotlin.cli.common.ExitCode
 import org.jetbrains.kotlin.cli.jvm.compiler.CompileEnvironmentException
-import org.jetbrains.kotlin.config.Services
+import org.jetbrains.kotlin.core.model.KotlinAnalysisScheduler
 import kotlin.jvm.JvmStatic
 import org.jetbrains.kotlin.core.model.KOTLIN_COMPILER_PATH
 
@@ -28,7 +28,7 @@ object KotlinCLICompiler {
 		try {
 			compiler.execAndOutputXml(
 					errorStream,
-					Services.EMPTY,
+					KotlinAnalysisScheduler.compilerServices(),
 					*obligatoryCompilerFlags,
 					*args)
 		} catch (e: CompileEnvironmentException) {
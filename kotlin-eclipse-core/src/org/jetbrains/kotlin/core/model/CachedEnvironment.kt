@@ -18,7 +18,7 @@ package org.jetbrains.kotlin.core.model
 
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.Disposer
-import com.intellij.openapi.vfs.impl.ZipHandler
+import org.jetbrains.kotlin.core.resolve.KotlinDependencyModuleCache
 import java.util.concurrent.ConcurrentHashMap
 
 class CachedEnvironment<T, E : KotlinCommonEnvironment> {
@@ -51,9 +51,9 @@ class CachedEnvironment<T, E : KotlinCommonEnvironment> {
     private fun removeEnvironmentInternal(resource: T) {
         environmentCache.remove(resource)?.also {
             ideaProjectToEclipseResource.remove(it.project)
+            KotlinDependencyModuleCache.resetCache(it)
 
-            Disposer.dispose(it.kotlinCoreApplicationEnvironment.parentDisposable)
-            ZipHandler.clearFileAccessorCache()
+            Disposer.dispose(it.disposable)
         }
     }
 
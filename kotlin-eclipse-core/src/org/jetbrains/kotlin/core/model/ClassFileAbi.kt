@@ -0,0 +1,248 @@
+package org.jetbrains.kotlin.core.model
+
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.load.java.JvmAbi
+import org.jetbrains.kotlin.metadata.ProtoBuf
+import org.jetbrains.kotlin.metadata.deserialization.Flags
+import org.jetbrains.kotlin.metadata.deserialization.NameResolver
+import org.jetbrains.kotlin.metadata.deserialization.TypeTable
+import org.jetbrains.kotlin.metadata.jvm.JvmProtoBuf
+import org.jetbrains.kotlin.metadata.jvm.deserialization.JvmProtoBufUtil
+import org.jetbrains.org.objectweb.asm.ClassReader
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.tree.AnnotationNode
+import org.jetbrains.org.objectweb.asm.tree.ClassNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import org.jetbrains.org.objectweb.asm.util.Textifier
+import org.jetbrains.org.objectweb.asm.util.TraceMethodVisitor
+
+/**
+ * Public ABI of a compiled Kotlin class: a hash of the class header and hashes of its non-private members
+ * grouped by name. Method bodies are ignored, except bodies of inline functions, inline property accessors and
+ * `$default` methods of inline functions as they are copied into callers.
+ *
+ * `kotlin.Metadata` is not a part of the header hash: it describes private declarations too, so it changes
+ * with any edit of the class.
+ */
+internal class ClassFileAbi private constructor(
+    private val internalName: String,
+    private val isFileFacade: Boolean,
+    private val headerHash: Int,
+    private val memberHashes: Map<String, Int>
+) {
+    private val packageName: String
+        get() = internalName.substringBeforeLast('/', "").replace('/', '.')
+
+    private val classFqName: String
+        get() = internalName.replace('/', '.').replace('$', '.')
+
+    private val classSymbol: LookupSymbol
+        get() {
+            val simpleName = internalName.substringAfterLast('/')
+            return if ('$' in simpleName) {
+                LookupSymbol(classFqName.substringBeforeLast('.'), simpleName.substringAfterLast('$'), true)
+            } else {
+                LookupSymbol(packageName, simpleName, false)
+            }
+        }
+
+    private fun memberSymbols(memberName: String): List<LookupSymbol> {
+        if (memberName == "<init>") return listOf(classSymbol)
+
+        return lookupNames(memberName).map { name ->
+            if (isFileFacade) LookupSymbol(packageName, name, false) else LookupSymbol(classFqName, name, true)
+        }
+    }
+
+    private fun allSymbols(): List<LookupSymbol> =
+        (if (isFileFacade) emptyList() else listOf(classSymbol)) + memberHashes.keys.flatMap { memberSymbols(it) }
+
+    companion object {
+        private const val METADATA_DESCRIPTOR = "Lkotlin/Metadata;"
+
+        private const val CLASS_KIND = 1
+        private const val FILE_FACADE_KIND = 2
+        private const val SYNTHETIC_CLASS_KIND = 3
+        private const val MULTIFILE_CLASS_KIND = 4
+        private const val MULTIFILE_CLASS_PART_KIND = 5
+
+        private val PROPERTY_ACCESSOR_PREFIXES = listOf("get", "set", "is")
+
+        /**
+         * Reads ABI of a class file, returns `null` for classes which were not generated from Kotlin declarations.
+         */
+        fun read(bytes: ByteArray): ClassFileAbi? {
+            return try {
+                val classNode = ClassNode()
+                ClassReader(bytes).accept(classNode, ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
+                read(classNode)
+            } catch (e: Exception) {
+                KotlinLogger.logError("Could not read class file", e)
+                null
+            }
+        }
+
+        /**
+         * Symbols of declarations whose ABI differs between [old] and [new] versions of one class file.
+         */
+        fun changedSymbols(old: ClassFileAbi?, new: ClassFileAbi?): Set<LookupSymbol> {
+            if (old == null || new == null) return (old ?: new)?.allSymbols().orEmpty().toSet()
+            if (old.headerHash != new.headerHash) return (old.allSymbols() + new.allSymbols()).toSet()
+
+            return (old.memberHashes.keys + new.memberHashes.keys)
+                .filter { old.memberHashes[it] != new.memberHashes[it] }
+                .flatMapTo(hashSetOf()) { new.memberSymbols(it) }
+        }
+
+        private fun read(classNode: ClassNode): ClassFileAbi? {
+            val metadata = classNode.visibleAnnotations?.find { it.desc == METADATA_DESCRIPTOR } ?: return null
+            val metadataValues = metadata.values.orEmpty().chunked(2).associate { (name, value) -> name as String to value }
+
+            val kind = metadataValues["k"] as? Int ?: return null
+            if (kind == SYNTHETIC_CLASS_KIND) return null
+
+            val inlineMethods = findInlineMethods(kind, metadataValues["d1"].asStrings(), metadataValues["d2"].asStrings())
+
+            val header = listOf(
+                classNode.access,
+                classNode.superName,
+                classNode.interfaces,
+                classNode.signature,
+                annotationsText(classNode.visibleAnnotations.orEmpty().filter { it != metadata }, classNode.invisibleAnnotations)
+            ).joinToString()
+
+            val memberHashes = hashMapOf<String, Int>()
+            fun addMember(name: String, text: String) {
+                memberHashes[name] = (memberHashes[name] ?: 0) * 31 + text.hashCode()
+            }
+
+            classNode.fields.orEmpty()
+                .filter { !it.access.isPrivate() }
+                .forEach { field ->
+                    addMember(field.name, listOf(
+                        field.access,
+                        field.desc,
+                        field.signature,
+                        field.value,
+                        annotationsText(field.visibleAnnotations, field.invisibleAnnotations)
+                    ).joinToString())
+                }
+
+            classNode.methods.orEmpty()
+                .filter { !it.access.isPrivate() && it.name != "<clinit>" && !it.name.startsWith("access$") }
+                .forEach { method ->
+                    val isInline = inlineMethods?.contains(method) ?: true
+                    addMember(method.name, listOf(
+                        method.access,
+                        method.desc,
+                        method.signature,
+                        method.exceptions,
+                        annotationsText(method.visibleAnnotations, method.invisibleAnnotations),
+                        method.invisibleParameterAnnotations?.map { annotationsText(it, null) },
+                        if (isInline) methodBodyText(method) else ""
+                    ).joinToString())
+                }
+
+            val isFileFacade = kind == FILE_FACADE_KIND || kind == MULTIFILE_CLASS_KIND || kind == MULTIFILE_CLASS_PART_KIND
+            return ClassFileAbi(classNode.name, isFileFacade, header.hashCode(), memberHashes)
+        }
+
+        // Returns `null` if inline functions are not known, then bodies of all methods are a part of ABI
+        private fun findInlineMethods(kind: Int, data: Array<String>?, strings: Array<String>?): InlineMethods? {
+            if (data == null || strings == null) return null
+
+            return try {
+                when (kind) {
+                    CLASS_KIND -> {
+                        val (nameResolver, classProto) = JvmProtoBufUtil.readClassDataFrom(data, strings)
+                        InlineMethods.create(
+                            classProto.functionList, classProto.propertyList, nameResolver, TypeTable(classProto.typeTable))
+                    }
+                    FILE_FACADE_KIND, MULTIFILE_CLASS_PART_KIND -> {
+                        val (nameResolver, packageProto) = JvmProtoBufUtil.readPackageDataFrom(data, strings)
+                        InlineMethods.create(
+                            packageProto.functionList, packageProto.propertyList, nameResolver, TypeTable(packageProto.typeTable))
+                    }
+                    else -> null
+                }
+            } catch (e: Exception) {
+                null
+            }
+        }
+
+        private fun methodBodyText(method: MethodNode): String {
+            val textifier = Textifier()
+            method.instructions.accept(TraceMethodVisitor(textifier))
+            return textifier.text.joinToString("")
+        }
+
+        private fun annotationsText(visible: List<AnnotationNode>?, invisible: List<AnnotationNode>?): String =
+            (visible.orEmpty() + invisible.orEmpty()).joinToString { it.desc + it.values }
+
+        // Names by which Kotlin code can refer to a method, property accessors are referred by property names
+        private fun lookupNames(methodName: String): List<String> {
+            val name = methodName.removeSuffix("\$default").substringBefore('-')
+            val prefix = PROPERTY_ACCESSOR_PREFIXES.find { name.startsWith(it) && name.length > it.length }
+                ?: return listOf(name)
+
+            val propertyName = if (prefix == "is") name else name.removePrefix(prefix).decapitalize()
+            return listOf(name, propertyName).distinct()
+        }
+
+        private fun Int.isPrivate(): Boolean = this and Opcodes.ACC_PRIVATE != 0
+
+        @Suppress("UNCHECKED_CAST")
+        private fun Any?.asStrings(): Array<String>? = (this as? List<String>)?.toTypedArray()
+    }
+}
+
+/**
+ * Methods whose bodies are inlined into callers: inline functions are matched by JVM signature, their `$default`
+ * methods and inline property accessors are matched by name, as their descriptors are not stored in metadata.
+ */
+private class InlineMethods(private val signatures: Set<String>, private val names: Set<String>) {
+    operator fun contains(method: MethodNode): Boolean = method.name + method.desc in signatures || method.name in names
+
+    companion object {
+        fun create(
+            functions: List<ProtoBuf.Function>,
+            properties: List<ProtoBuf.Property>,
+            nameResolver: NameResolver,
+            typeTable: TypeTable
+        ): InlineMethods {
+            val signatures = hashSetOf<String>()
+            val names = hashSetOf<String>()
+
+            functions
+                .filter { Flags.IS_INLINE.get(it.flags) }
+                .mapNotNull { JvmProtoBufUtil.getJvmMethodSignature(it, nameResolver, typeTable) }
+                .forEach {
+                    signatures.add(it.asString())
+                    names.add(it.name + "\$default")
+                }
+
+            for (property in properties) {
+                val name = nameResolver.getString(property.name)
+                val signature = if (property.hasExtension(JvmProtoBuf.propertySignature)) {
+                    property.getExtension(JvmProtoBuf.propertySignature)
+                } else {
+                    null
+                }
+
+                if (property.hasGetterFlags() && Flags.IS_INLINE_ACCESSOR.get(property.getterFlags)) {
+                    names.add(signature?.takeIf { it.hasGetter() && it.getter.hasName() }
+                        ?.let { nameResolver.getString(it.getter.name) }
+                        ?: JvmAbi.getterName(name))
+                }
+
+                if (property.hasSetterFlags() && Flags.IS_INLINE_ACCESSOR.get(property.setterFlags)) {
+                    names.add(signature?.takeIf { it.hasSetter() && it.setter.hasName() }
+                        ?.let { nameResolver.getString(it.setter.name) }
+                        ?: JvmAbi.setterName(name))
+                }
+            }
+
+            return InlineMethods(signatures, names)
+        }
+    }
+}
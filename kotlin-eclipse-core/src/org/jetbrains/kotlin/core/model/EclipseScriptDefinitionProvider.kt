@@ -15,6 +15,7 @@ import java.io.File
 import kotlin.reflect.KClass
 import kotlin.script.experimental.api.KotlinType
 import kotlin.script.experimental.api.SourceCode
+import kotlin.script.experimental.host.FileScriptSource
 import kotlin.script.experimental.host.ScriptingHostConfiguration
 import kotlin.script.experimental.host.configurationDependencies
 import kotlin.script.experimental.host.getScriptingClass
@@ -53,6 +54,11 @@ class EclipseScriptDefinitionProvider : ScriptDefinitionProvider {
         private val scriptDefinitions: Sequence<ScriptDefinition>
             get() = contributions.asSequence().map { it.definition }
 
+        fun findDefinition(scriptFile: File): ScriptDefinition? {
+            val source = FileScriptSource(scriptFile)
+            return scriptDefinitions.firstOrNull { it.isScript(source) }
+        }
+
         fun getEnvironment(scriptFile: File) =
             scriptFile.asResource
                 ?.let { KotlinPsiManager.getKotlinParsedFile(it) }
@@ -16,43 +16,154 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.core.model
 
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.preferences.KotlinBuildingProperties
 import org.jetbrains.kotlin.core.resolve.AnalysisResultWithProvider
 import org.jetbrains.kotlin.core.resolve.EclipseAnalyzerFacadeForJVM
 import org.jetbrains.kotlin.psi.KtFile
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+import java.util.concurrent.atomic.AtomicLong
 
-data class FileAnalysisResults(val file: KtFile, val analysisResult: AnalysisResultWithProvider)
+data class AnalysisCacheStatistics(val hits: Long, val misses: Long, val evictions: Long, val size: Int)
 
+/**
+ * Keeps analysis results for the most recently used files. Entries are keyed by [KtFile] identity
+ * and are valid only for the modification stamp of the file and the dependencies modification count
+ * they were computed for, so editing one file doesn't drop results of others unless its signatures change.
+ * Analysis of different files runs concurrently, while concurrent requests for the same file wait
+ * for a single computation. Temporary copies of files, e.g. files parsed for completion, are analyzed
+ * without caching, so they don't evict results of files opened in editors.
+ */
 object KotlinAnalysisFileCache {
-    @Volatile
-    private var lastAnalysedFileCache: FileAnalysisResults? = null
+    private class CacheEntry(
+        val modificationStamp: Long,
+        val dependenciesModificationCount: Long,
+        val task: FutureTask<AnalysisResultWithProvider>
+    ) {
+        fun isValid(file: KtFile): Boolean =
+            modificationStamp == file.modificationStamp &&
+                    dependenciesModificationCount == getDependenciesModificationCount()
+    }
+
+    private val cacheLock = Any()
 
-    @Synchronized fun getAnalysisResult(file: KtFile): AnalysisResultWithProvider {
-        return getImmediatlyFromCache(file) ?: run {
-            val environment = getEnvironment(file.project)!!
-            val analysisResult = resolve(file, environment)
-            
-            lastAnalysedFileCache = FileAnalysisResults(file, analysisResult)
-            lastAnalysedFileCache!!.analysisResult
+    private val cachedResults = object : LinkedHashMap<KtFile, CacheEntry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<KtFile, CacheEntry>): Boolean {
+            return (size > maxCacheSize()).also { if (it) evictions.incrementAndGet() }
         }
     }
-    
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+
+    private val dependenciesModificationCount = AtomicLong()
+
+    private val signatureHashes = ConcurrentHashMap<IFile, Int>()
+
+    /**
+     * Grows every time something analysis of a file depends on changes outside of the file: Java classes,
+     * the classpath, other Kotlin files or projects the file depends on.
+     */
+    fun getDependenciesModificationCount(): Long = dependenciesModificationCount.get()
+
+    fun dependenciesChanged() {
+        dependenciesModificationCount.incrementAndGet()
+    }
+
+    /**
+     * Outdates results of other files when public signatures of [ktFile] changed, e.g. while [file] is edited.
+     * Results of [ktFile] itself are outdated by its modification stamp.
+     */
+    fun fileChanged(file: IFile, ktFile: KtFile) {
+        val signatureHash = KotlinProjectAbi.signatureHash(ktFile)
+        val oldSignatureHash = signatureHashes.put(file, signatureHash)
+        if (oldSignatureHash != null && oldSignatureHash != signatureHash) {
+            dependenciesChanged()
+        }
+    }
+
+    /**
+     * Forgets the public signatures of [file] when it is removed from the project.
+     */
+    fun fileRemoved(file: IFile) {
+        signatureHashes.remove(file)
+    }
+
+    fun projectRemoved(project: IProject) {
+        signatureHashes.keys.removeIf { it.project == project }
+    }
+
+    fun getAnalysisResult(file: KtFile): AnalysisResultWithProvider {
+        if (!KotlinPsiManager.isActual(file)) {
+            return resolve(file)
+        }
+
+        val (entry, isNew) = synchronized(cacheLock) {
+            val cached = cachedResults[file]
+            if (cached != null && cached.isValid(file)) {
+                hits.incrementAndGet()
+                cached to false
+            } else {
+                misses.incrementAndGet()
+                val task = FutureTask<AnalysisResultWithProvider> { resolve(file) }
+                CacheEntry(file.modificationStamp, getDependenciesModificationCount(), task)
+                    .also { cachedResults[file] = it } to true
+            }
+        }
+
+        if (isNew) {
+            entry.task.run()
+        }
+
+        return try {
+            entry.task.get()
+        } catch (e: ExecutionException) {
+            synchronized(cacheLock) {
+                cachedResults.remove(file, entry)
+            }
+            throw e.cause ?: e
+        }
+    }
+
+    fun isCached(file: KtFile): Boolean = synchronized(cacheLock) {
+        val cached = cachedResults[file]
+        cached != null && cached.isValid(file) && cached.task.isDone
+    }
+
+    fun getStatistics(): AnalysisCacheStatistics = synchronized(cacheLock) {
+        AnalysisCacheStatistics(hits.get(), misses.get(), evictions.get(), cachedResults.size)
+    }
+
     fun resetCache() {
-        lastAnalysedFileCache = null
+        dependenciesChanged()
+        signatureHashes.clear()
+        synchronized(cacheLock) {
+            cachedResults.clear()
+        }
+    }
+
+    fun resetCache(file: KtFile) {
+        synchronized(cacheLock) {
+            cachedResults.remove(file)
+        }
     }
-    
-    private fun resolve(file: KtFile, environment: KotlinCommonEnvironment): AnalysisResultWithProvider {
-        return when (environment) {
-            is KotlinScriptEnvironment -> EclipseAnalyzerFacadeForJVM.analyzeScript(environment, file)
+
+    private fun maxCacheSize(): Int =
+        KotlinBuildingProperties.workspaceInstance.analysisCacheSize.coerceAtLeast(1)
+
+    private fun resolve(file: KtFile): AnalysisResultWithProvider {
+        // The script environment must not be evicted from the pool while the script is analyzed
+        KotlinScriptEnvironment.withEnvironment(file.project) { EclipseAnalyzerFacadeForJVM.analyzeScript(it, file) }
+            ?.let { return it }
+
+        return when (val environment = getEnvironment(file.project)) {
             is KotlinEnvironment -> EclipseAnalyzerFacadeForJVM.analyzeSources(environment, listOf(file))
             else -> throw IllegalArgumentException("Could not analyze file with environment: $environment")
         }
     }
-    
-    @Synchronized
-    private fun getImmediatlyFromCache(file: KtFile): AnalysisResultWithProvider? {
-        return if (lastAnalysedFileCache != null && lastAnalysedFileCache!!.file == file)
-            lastAnalysedFileCache!!.analysisResult
-        else
-            null
-    }
 }
\ No newline at end of file
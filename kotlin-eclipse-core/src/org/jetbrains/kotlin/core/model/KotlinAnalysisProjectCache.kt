@@ -22,55 +22,75 @@ import org.eclipse.core.resources.IResourceChangeEvent
 import org.eclipse.core.resources.IResourceChangeListener
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
-import org.jetbrains.kotlin.analyzer.AnalysisResult
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
-import org.jetbrains.kotlin.core.resolve.EclipseAnalyzerFacadeForJVM
-import org.jetbrains.kotlin.core.utils.ProjectUtils
+import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
 import java.util.concurrent.ConcurrentHashMap
 
 object KotlinAnalysisProjectCache : IResourceChangeListener {
-    private val cachedAnalysisResults = ConcurrentHashMap<IProject, AnalysisResult>()
+    private val cachedAnalysisStates = ConcurrentHashMap<IProject, ProjectAnalysisState>()
+    private val changedFiles = ConcurrentHashMap<IProject, ChangedFiles>()
 
     fun resetCache(project: IProject) {
+        KotlinAnalysisFileCache.dependenciesChanged()
         synchronized(project) {
-            cachedAnalysisResults.remove(project)
+            cachedAnalysisStates.remove(project)
+            KotlinLookupStorage.getGraph(project).isComplete = false
         }
     }
 
     fun resetAllCaches() {
-        cachedAnalysisResults.keys.toList().forEach {
+        cachedAnalysisStates.keys.toList().forEach {
             resetCache(it)
         }
     }
 
-    fun getAnalysisResult(javaProject: IJavaProject): AnalysisResult {
+    /**
+     * Marks [file] to be analyzed again on the next request. Files that may depend on it are found
+     * during that analysis, results for all other files of the project are kept. Doesn't wait for
+     * a running analysis and works before the project is analyzed for the first time.
+     */
+    fun markChanged(file: IFile) {
+        getChangedFiles(file.project).mark(file)
+    }
+
+    fun getAnalysisResult(javaProject: IJavaProject): ProjectAnalysisResult {
         val project = javaProject.project
         return synchronized(project) {
-            val analysisResult = cachedAnalysisResults.get(project) ?: run {
-                EclipseAnalyzerFacadeForJVM.analyzeSources(
-                        KotlinEnvironment.getEnvironment(project),
-                        ProjectUtils.getSourceFiles(javaProject.project)).analysisResult
-            }
-
-            cachedAnalysisResults.putIfAbsent(project, analysisResult) ?: analysisResult
+            cachedAnalysisStates
+                .getOrPut(project) { ProjectAnalysisState(project, getChangedFiles(project)) }
+                .update(KotlinEnvironment.getEnvironment(project))
         }
     }
 
-    @Synchronized
-    public fun getAnalysisResultIfCached(project: IProject): AnalysisResult? {
-        return cachedAnalysisResults.get(project)
+    private fun getChangedFiles(project: IProject): ChangedFiles =
+        changedFiles.computeIfAbsent(project) { ChangedFiles() }
+
+    fun getDiagnosticsIfCached(project: IProject): Diagnostics? {
+        return cachedAnalysisStates[project]?.diagnostics
     }
 
     override fun resourceChanged(event: IResourceChangeEvent) {
         when (event.type) {
-            IResourceChangeEvent.PRE_DELETE,
-            IResourceChangeEvent.PRE_CLOSE,
+            IResourceChangeEvent.PRE_DELETE -> (event.resource as? IProject)?.let {
+                cachedAnalysisStates.remove(it)
+                changedFiles.remove(it)
+                KotlinLookupStorage.resetGraph(it)
+                KotlinProjectAbi.remove(it)
+            }
+
+            IResourceChangeEvent.PRE_CLOSE -> (event.resource as? IProject)?.let {
+                cachedAnalysisStates.remove(it)
+                changedFiles.remove(it)
+                KotlinLookupStorage.unloadGraph(it)
+                KotlinProjectAbi.remove(it)
+            }
+
             IResourceChangeEvent.PRE_BUILD -> event.delta?.accept { delta ->
                 val resource = delta.resource
                 if (resource is IFile) {
                     val javaProject = JavaCore.create(resource.getProject())
                     if (KotlinPsiManager.isKotlinSourceFile(resource, javaProject)) {
-                        cachedAnalysisResults.remove(resource.getProject())
+                        markChanged(resource)
                     }
 
                     return@accept false
@@ -0,0 +1,129 @@
+package org.jetbrains.kotlin.core.model
+
+import org.eclipse.core.resources.IProject
+import org.jetbrains.kotlin.config.Services
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.resolve.AnalysisResultWithProvider
+import org.jetbrains.kotlin.progress.CompilationCanceledException
+import org.jetbrains.kotlin.progress.CompilationCanceledStatus
+import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
+import org.jetbrains.kotlin.psi.KtFile
+import java.util.concurrent.ConcurrentHashMap
+
+enum class AnalysisPriority {
+    EDITOR,
+    BACKGROUND
+}
+
+/**
+ * Single entry point for analyses requested by editor features and by the background analysis of projects.
+ *
+ * Requests for the same version of a file share one result from [KotlinAnalysisFileCache]. A request for a file
+ * which was replaced by a newer version is canceled, and background analysis of a project is canceled
+ * as soon as an editor requests analysis of a file from the same project. Background analysis keeps results
+ * of files analyzed before it was canceled (see [ProjectAnalysisState]), so it continues from them when restarted.
+ *
+ * Cancellation is checked per thread, so canceling one request doesn't affect analyses running in other threads.
+ * The compiler installs the canceled status it gets from its [Services] globally, so in-process compilations
+ * get the same status from [compilerServices] and don't turn cancellation of analyses off.
+ */
+object KotlinAnalysisScheduler {
+    private class AnalysisRequest(
+        val project: IProject?,
+        val ktFile: KtFile?,
+        val priority: AnalysisPriority,
+        private val isCanceledExternally: () -> Boolean
+    ) {
+        val wasActual = ktFile != null && KotlinPsiManager.isActual(ktFile)
+
+        @Volatile
+        var isPreempted = false
+
+        val isCanceled: Boolean
+            get() = isPreempted || isCanceledExternally()
+    }
+
+    private val currentRequest = ThreadLocal<AnalysisRequest>()
+
+    private val runningRequests = ConcurrentHashMap.newKeySet<AnalysisRequest>()
+
+    private val canceledStatus = object : CompilationCanceledStatus {
+        override fun checkCanceled() {
+            if (currentRequest.get()?.isCanceled == true) throw CompilationCanceledException()
+        }
+    }
+
+    /**
+     * Services for in-process compilations. Compilations are not canceled by the status, it only keeps analyses
+     * running in other threads cancelable.
+     */
+    fun compilerServices(): Services =
+        Services.Builder().register(CompilationCanceledStatus::class.java, canceledStatus).build()
+
+    init {
+        installCanceledStatus()
+    }
+
+    /**
+     * Installs the status into the global slot of the compiler. A compilation without the status in its services,
+     * e.g. an incremental one, clears the slot, so it is installed again after every compilation.
+     */
+    fun installCanceledStatus() {
+        ProgressIndicatorAndCompilationCanceledStatus.setCompilationCanceledStatus(canceledStatus)
+    }
+
+    fun analyzeFile(ktFile: KtFile, priority: AnalysisPriority = AnalysisPriority.EDITOR): AnalysisResultWithProvider {
+        val project = KotlinPsiManager.getEclipseFile(ktFile)?.project
+        return runRequest(AnalysisRequest(project, ktFile, priority) { false }) {
+            KotlinAnalysisFileCache.getAnalysisResult(ktFile)
+        }
+    }
+
+    /**
+     * Runs background [analysis] of [project]. It throws [CompilationCanceledException] when [isCanceled] returns
+     * `true` or when an editor needs analysis of a file from this project.
+     */
+    fun <T> analyzeProject(project: IProject, isCanceled: () -> Boolean, analysis: () -> T): T {
+        return runRequest(AnalysisRequest(project, null, AnalysisPriority.BACKGROUND, isCanceled), analysis)
+    }
+
+    private fun <T> runRequest(request: AnalysisRequest, analysis: () -> T): T {
+        cancelOutdatedRequests(request)
+
+        val previousRequest = currentRequest.get()
+        currentRequest.set(request)
+        runningRequests.add(request)
+        try {
+            return analysis()
+        } finally {
+            runningRequests.remove(request)
+            if (previousRequest != null) {
+                currentRequest.set(previousRequest)
+            } else {
+                currentRequest.remove()
+            }
+        }
+    }
+
+    private fun cancelOutdatedRequests(newRequest: AnalysisRequest) {
+        if (newRequest.priority != AnalysisPriority.EDITOR || newRequest.project == null) return
+
+        val newKtFile = newRequest.ktFile ?: return
+        val newFilePath = newKtFile.virtualFile?.path
+        val needsAnalysis = !KotlinAnalysisFileCache.isCached(newKtFile)
+        for (request in runningRequests) {
+            if (request.project != newRequest.project) continue
+
+            val isOutdated = when (request.priority) {
+                AnalysisPriority.BACKGROUND -> needsAnalysis
+                AnalysisPriority.EDITOR -> request.wasActual &&
+                        request.ktFile?.virtualFile?.path == newFilePath &&
+                        !KotlinPsiManager.isActual(request.ktFile!!)
+            }
+
+            if (isOutdated) {
+                request.isPreempted = true
+            }
+        }
+    }
+}
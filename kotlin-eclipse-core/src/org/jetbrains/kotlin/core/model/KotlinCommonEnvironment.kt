@@ -37,8 +37,10 @@ import com.intellij.openapi.extensions.ExtensionPointName
 import com.intellij.openapi.extensions.Extensions
 import com.intellij.openapi.extensions.ExtensionsArea
 import com.intellij.openapi.fileTypes.PlainTextFileType
+import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.util.SystemInfo
 import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.impl.ZipHandler
 import com.intellij.psi.JavaModuleSystem
 import com.intellij.psi.PsiElementFinder
 import com.intellij.psi.PsiManager
@@ -103,7 +105,7 @@ private fun setIdeaIoUseFallback() {
     }
 }
 
-abstract class KotlinCommonEnvironment(disposable: Disposable) {
+abstract class KotlinCommonEnvironment(val disposable: Disposable) {
     val kotlinCoreApplicationEnvironment: KotlinCoreApplicationEnvironment
     val project: MockProject
 
@@ -115,7 +117,7 @@ abstract class KotlinCommonEnvironment(disposable: Disposable) {
     init {
         setIdeaIoUseFallback()
 
-        kotlinCoreApplicationEnvironment = createKotlinCoreApplicationEnvironment(disposable)
+        kotlinCoreApplicationEnvironment = SharedApplicationEnvironment.acquire(disposable)
 
         projectEnvironment = object : JavaCoreProjectEnvironment(disposable, kotlinCoreApplicationEnvironment) {
             override fun preregisterServices() {
@@ -191,7 +193,6 @@ abstract class KotlinCommonEnvironment(disposable: Disposable) {
         configuration.put(CommonConfigurationKeys.MODULE_NAME, project.name)
 
         ExpressionCodegenExtension.Companion.registerExtensionPoint(project)
-        registerApplicationExtensionPointsAndExtensionsFrom()
 
         ClassBuilderInterceptorExtension.registerExtensionPoint(project)
     }
@@ -238,6 +239,48 @@ abstract class KotlinCommonEnvironment(disposable: Disposable) {
     }
 }
 
+/**
+ * Application environment shared by all Kotlin environments. It is created for the first environment and disposed
+ * together with the last one, so application services and handlers of jar files are not duplicated per project.
+ *
+ * Open jar files are kept in the cache of [ZipHandler], which is shared by all jars and closes the least recently
+ * used ones itself. It can't be flushed per jar, so it is cleared only when the application environment is
+ * released, and removing one environment doesn't close jars other environments are reading.
+ */
+private object SharedApplicationEnvironment {
+    private val lock = Any()
+
+    private var applicationEnvironment: KotlinCoreApplicationEnvironment? = null
+    private var applicationDisposable: Disposable? = null
+    private var environmentsCount = 0
+
+    fun acquire(environmentDisposable: Disposable): KotlinCoreApplicationEnvironment = synchronized(lock) {
+        val environment = applicationEnvironment ?: run {
+            val disposable = Disposer.newDisposable("Kotlin application environment")
+            createKotlinCoreApplicationEnvironment(disposable).also {
+                applicationDisposable = disposable
+                applicationEnvironment = it
+                registerApplicationExtensionPointsAndExtensionsFrom()
+            }
+        }
+
+        environmentsCount++
+        Disposer.register(environmentDisposable, Disposable { release() })
+
+        environment
+    }
+
+    private fun release() = synchronized(lock) {
+        environmentsCount--
+        if (environmentsCount == 0) {
+            applicationDisposable?.let { Disposer.dispose(it) }
+            applicationDisposable = null
+            applicationEnvironment = null
+            ZipHandler.clearFileAccessorCache()
+        }
+    }
+}
+
 private fun createKotlinCoreApplicationEnvironment(disposable: Disposable): KotlinCoreApplicationEnvironment =
     KotlinCoreApplicationEnvironment.create(disposable, false).apply {
         registerAppExtensionPoints()
@@ -0,0 +1,85 @@
+package org.jetbrains.kotlin.core.model
+
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndex
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Index of classpath roots which knows the packages of every jar from [KotlinJarPackagesStorage].
+ * A lookup in a package visits only jars containing this package instead of probing every root,
+ * directory roots are always visited as their content can change.
+ */
+class KotlinDependenciesIndex(roots: List<JavaRoot>) : JvmDependenciesIndex {
+    private class IndexedRoot(val root: JavaRoot, val packages: Set<String>?) {
+        fun mayContain(packageName: String): Boolean = packages == null || packageName in packages
+    }
+
+    private val rootsWithPackages: List<IndexedRoot> = roots.map { IndexedRoot(it, jarPackages(it)) }
+
+    private val rootsByPackage = ConcurrentHashMap<String, List<IndexedRoot>>()
+
+    override val indexedRoots: Sequence<JavaRoot> = roots.asSequence()
+
+    override fun <T : Any> findClass(
+        classId: ClassId,
+        acceptedRootTypes: Set<JavaRoot.RootType>,
+        findClassGivenDirectory: (VirtualFile, JavaRoot.RootType) -> T?
+    ): T? {
+        var result: T? = null
+        traverseDirectoriesInPackage(classId.packageFqName, acceptedRootTypes) { directory, rootType ->
+            result = findClassGivenDirectory(directory, rootType)
+            result == null
+        }
+
+        return result
+    }
+
+    override fun traverseDirectoriesInPackage(
+        packageFqName: FqName,
+        acceptedRootTypes: Set<JavaRoot.RootType>,
+        continueSearch: (VirtualFile, JavaRoot.RootType) -> Boolean
+    ) {
+        val packageName = packageFqName.asString()
+        val relativePath = packageName.replace('.', '/')
+        for (indexedRoot in candidateRoots(packageName)) {
+            val root = indexedRoot.root
+            if (root.type !in acceptedRootTypes) continue
+
+            val directory = if (relativePath.isEmpty()) root.file else root.file.findFileByRelativePath(relativePath)
+            if (directory == null || !directory.isDirectory) continue
+
+            if (!continueSearch(directory, root.type)) return
+        }
+    }
+
+    private fun candidateRoots(packageName: String): List<IndexedRoot> =
+        rootsByPackage.computeIfAbsent(packageName) { name -> rootsWithPackages.filter { it.mayContain(name) } }
+
+    private fun jarPackages(root: JavaRoot): Set<String>? {
+        if (root.type != JavaRoot.RootType.BINARY) return null
+
+        val jarPath = root.file.path
+        if (!jarPath.endsWith(URLUtil.JAR_SEPARATOR)) return null
+
+        val jarFile = File(jarPath.removeSuffix(URLUtil.JAR_SEPARATOR))
+        return KotlinJarPackagesStorage.getPackages(jarFile) { collectPackages(root.file) }
+    }
+
+    private fun collectPackages(jarRoot: VirtualFile): Set<String> {
+        val packages = hashSetOf("")
+        VfsUtilCore.iterateChildrenRecursively(jarRoot, { it.isDirectory }) { file ->
+            if (file != jarRoot) {
+                VfsUtilCore.getRelativePath(file, jarRoot, '.')?.let { packages.add(it) }
+            }
+            true
+        }
+
+        return packages
+    }
+}
@@ -38,7 +38,6 @@ import org.eclipse.osgi.internal.loader.EquinoxClassLoader
 import org.jetbrains.kotlin.asJava.classes.FacadeCache
 import org.jetbrains.kotlin.cli.jvm.compiler.CliVirtualFileFinderFactory
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCliJavaFileManagerImpl
-import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndexImpl
 import org.jetbrains.kotlin.cli.jvm.index.SingleJavaFileRootsIndex
 import org.jetbrains.kotlin.compiler.plugin.CliOptionValue
 import org.jetbrains.kotlin.compiler.plugin.CommandLineProcessor
@@ -73,9 +72,7 @@ import org.jetbrains.kotlin.platform.jvm.JvmPlatform
 import org.jetbrains.kotlin.psi.KtModifierListOwner
 import org.jetbrains.kotlin.scripting.configuration.ScriptingConfigurationKeys
 import org.jetbrains.kotlin.scripting.definitions.ScriptDefinition
-import org.jetbrains.kotlin.scripting.definitions.ScriptDefinitionProvider
 import org.jetbrains.kotlin.scripting.definitions.annotationsForSamWithReceivers
-import org.jetbrains.kotlin.scripting.resolve.KtFileScriptSource
 import java.io.File
 import java.net.URL
 import java.net.URLClassLoader
@@ -94,32 +91,26 @@ fun getEnvironment(eclipseFile: IFile): KotlinCommonEnvironment {
 }
 
 fun getEnvironment(ideaProject: Project): KotlinCommonEnvironment? {
-    val eclipseResource = getEclipseResource(ideaProject) ?: return null
-    return when (eclipseResource) {
-        is IFile -> KotlinScriptEnvironment.getEnvironment(eclipseResource)
-        is IProject -> KotlinEnvironment.getEnvironment(eclipseResource)
-        else -> throw IllegalStateException("Could not get environment for resource: $eclipseResource")
-    }
-}
-
-fun getEclipseResource(ideaProject: Project): IResource? {
     val project = KotlinEnvironment.getJavaProject(ideaProject)
     if (project != null) {
-        return project
+        return KotlinEnvironment.getEnvironment(project)
     }
 
-    return KotlinScriptEnvironment.getEclipseFile(ideaProject)
+    return KotlinScriptEnvironment.getEnvironment(ideaProject)
+}
+
+fun getEclipseResource(ideaProject: Project): IResource? {
+    return KotlinEnvironment.getJavaProject(ideaProject)
+            ?: KotlinScriptEnvironment.getEnvironment(ideaProject)?.eclipseProject
 }
 
 class KotlinScriptEnvironment private constructor(
-        private val eclipseFile: IFile,
+        val eclipseProject: IProject,
+        val definition: ScriptDefinition?,
         val dependencies: ScriptDependencies?,
         disposable: Disposable
 ) : KotlinCommonEnvironment(disposable) {
 
-    val definition: ScriptDefinition? = ScriptDefinitionProvider.getInstance(project)
-            ?.findDefinition(KtFileScriptSource(KotlinPsiManager.getParsedFile(eclipseFile)))
-
     val definitionClasspath: Collection<File> = definition?.contextClassLoader?.let(::classpathFromClassloader).orEmpty()
 
     init {
@@ -132,7 +123,7 @@ class KotlinScriptEnvironment private constructor(
             ?.let { CliSamWithReceiverComponentContributor(it) }
             ?.also { StorageComponentContainerContributor.registerExtension(project, it) }
 
-        val index = JvmDependenciesIndexImpl(getRoots().toList())
+        val index = KotlinDependenciesIndex(getRoots().toList())
 
         val area = Extensions.getArea(project)
         with(area.getExtensionPoint(PsiElementFinder.EP_NAME)) {
@@ -164,25 +155,55 @@ class KotlinScriptEnvironment private constructor(
         private val KOTLIN_RUNTIME_PATH = KotlinClasspathContainer.LIB_RUNTIME_NAME.buildLibPath()
         private val KOTLIN_SCRIPT_RUNTIME_PATH = KotlinClasspathContainer.LIB_SCRIPT_RUNTIME_NAME.buildLibPath()
 
-        private val cachedEnvironment = CachedEnvironment<IFile, KotlinScriptEnvironment>()
+        private val environmentPool = ScriptEnvironmentPool(
+                { file -> ScriptEnvironmentKey(file.project, EclipseScriptDefinitionProvider.findDefinition(file.asFile), null) },
+                { key -> KotlinScriptEnvironment(key.project, key.definition, key.dependencies, Disposer.newDisposable()) })
 
         @JvmStatic
         fun getEnvironment(file: IFile): KotlinScriptEnvironment {
             checkIsScript(file)
 
-            return cachedEnvironment.getOrCreateEnvironment(file) {
-                KotlinScriptEnvironment(it, null, Disposer.newDisposable())
-            }
+            return environmentPool.getEnvironment(file)
         }
 
         @JvmStatic
         fun removeKotlinEnvironment(file: IFile) {
             checkIsScript(file)
-            cachedEnvironment.removeEnvironment(file)
+            environmentPool.removeFile(file)
         }
 
         @JvmStatic
-        fun getEclipseFile(project: Project): IFile? = cachedEnvironment.getEclipseResource(project)
+        fun getEnvironment(project: Project): KotlinScriptEnvironment? = environmentPool.getEnvironment(project)
+
+        /**
+         * Runs [action] with the script environment which owns [project], which is not evicted from the pool
+         * meanwhile. Returns `null` if [project] does not belong to a script environment.
+         */
+        fun <T> withEnvironment(project: Project, action: (KotlinScriptEnvironment) -> T): T? {
+            val environment = environmentPool.acquireEnvironment(project) ?: return null
+            return try {
+                action(environment)
+            } finally {
+                environmentPool.releaseEnvironment(environment)
+            }
+        }
+
+        /**
+         * Keeps the environment of [file] in the pool while the file is opened in an editor.
+         */
+        @JvmStatic
+        fun fileOpened(file: IFile) {
+            checkIsScript(file)
+            environmentPool.openFile(file)
+        }
+
+        @JvmStatic
+        fun fileClosed(file: IFile) {
+            checkIsScript(file)
+            environmentPool.closeFile(file)
+        }
+
+        fun getPoolStatistics(): ScriptEnvironmentPoolStatistics = environmentPool.getStatistics()
 
         fun isScript(file: IFile): Boolean = file.fileExtension == "kts"
 
@@ -193,11 +214,9 @@ class KotlinScriptEnvironment private constructor(
         }
 
         fun updateDependencies(file: IFile, newDependencies: ScriptDependencies?) {
-            cachedEnvironment.replaceEnvironment(file) {
-                KotlinScriptEnvironment(file, newDependencies, Disposer.newDisposable())
-                        .apply { addDependenciesToClasspath(newDependencies) }
+            if (environmentPool.updateDependencies(file, newDependencies)) {
+                KotlinPsiManager.removeFile(file)
             }
-            KotlinPsiManager.removeFile(file)
         }
     }
 
@@ -207,16 +226,11 @@ class KotlinScriptEnvironment private constructor(
         addJREToClasspath()
 
         definitionClasspath.forEach { addToClasspath(it) }
-    }
-
-    private fun addDependenciesToClasspath(dependencies: ScriptDependencies?) {
-        dependencies?.classpath?.forEach {
-            addToClasspath(it)
-        }
+        dependencies?.classpath?.forEach { addToClasspath(it) }
     }
 
     private fun addJREToClasspath() {
-        val project = eclipseFile.project
+        val project = eclipseProject
         if (JavaProject.hasJavaNature(project)) {
             val javaProject = JavaCore.create(project)
             javaProject.rawClasspath.mapNotNull { entry ->
@@ -310,7 +324,7 @@ class KotlinEnvironment private constructor(val eclipseProject: IProject, dispos
     val buildingProperties: KotlinBuildingProperties
         get() = projectBuildingProperties.takeIf { it.globalsOverridden } ?: KotlinBuildingProperties.workspaceInstance
 
-    val index by lazy { JvmDependenciesIndexImpl(getRoots().toList()) }
+    val index by lazy { KotlinDependenciesIndex(getRoots().toList()) }
 
     init {
         registerProjectDependenServices(javaProject)
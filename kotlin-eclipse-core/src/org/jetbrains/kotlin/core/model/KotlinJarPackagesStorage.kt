@@ -0,0 +1,175 @@
+package org.jetbrains.kotlin.core.model
+
+import org.jetbrains.kotlin.core.Activator
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Persistent packages of jar files. Packages are stored by the content hash of a jar, so a jar is scanned
+ * only once even if it is used from several locations. The hash is computed again only when the size
+ * or the modification time of a jar file changes.
+ *
+ * Before the storage is saved, jars which don't exist anymore, were changed or were not used for
+ * [UNUSED_JAR_LIFETIME] are removed together with packages which are not used by remaining jars.
+ */
+object KotlinJarPackagesStorage {
+    private const val STORAGE_VERSION = 2
+
+    private val UNUSED_JAR_LIFETIME = TimeUnit.DAYS.toMillis(30)
+
+    // The last use of a jar is stored at most once a day, so reading a jar doesn't modify the storage every time
+    private val LAST_USE_PRECISION = TimeUnit.DAYS.toMillis(1)
+
+    private class JarStamp(val length: Long, val lastModified: Long, val contentHash: String, @Volatile var lastUsed: Long)
+
+    private val jarStamps = ConcurrentHashMap<String, JarStamp>()
+    private val packagesByHash = ConcurrentHashMap<String, Set<String>>()
+
+    @Volatile
+    private var isModified = false
+
+    init {
+        load()
+    }
+
+    fun getPackages(jar: File, computePackages: () -> Set<String>): Set<String>? {
+        if (!jar.isFile) return null
+
+        val contentHash = getContentHash(jar) ?: return null
+        return packagesByHash.computeIfAbsent(contentHash) {
+            isModified = true
+            computePackages()
+        }
+    }
+
+    fun save() {
+        prune()
+        if (!isModified) return
+
+        val file = storageFile() ?: return
+        try {
+            file.parentFile.mkdirs()
+            DataOutputStream(file.outputStream().buffered()).use { output ->
+                output.writeInt(STORAGE_VERSION)
+
+                output.writeInt(jarStamps.size)
+                jarStamps.forEach { (path, stamp) ->
+                    output.writeString(path)
+                    output.writeLong(stamp.length)
+                    output.writeLong(stamp.lastModified)
+                    output.writeString(stamp.contentHash)
+                    output.writeLong(stamp.lastUsed)
+                }
+
+                output.writeInt(packagesByHash.size)
+                packagesByHash.forEach { (hash, packages) ->
+                    output.writeString(hash)
+                    output.writeInt(packages.size)
+                    packages.forEach { output.writeString(it) }
+                }
+            }
+            isModified = false
+        } catch (e: IOException) {
+            KotlinLogger.logError("Could not save packages of jar files", e)
+        }
+    }
+
+    private fun getContentHash(jar: File): String? {
+        val path = jar.absolutePath
+        val length = jar.length()
+        val lastModified = jar.lastModified()
+        val now = System.currentTimeMillis()
+
+        jarStamps[path]
+            ?.takeIf { it.length == length && it.lastModified == lastModified }
+            ?.let { stamp ->
+                if (now - stamp.lastUsed > LAST_USE_PRECISION) {
+                    stamp.lastUsed = now
+                    isModified = true
+                }
+                return stamp.contentHash
+            }
+
+        return try {
+            val digest = MessageDigest.getInstance("SHA-1")
+            jar.inputStream().buffered().use { input ->
+                val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+            }
+
+            val contentHash = digest.digest().joinToString("") { "%02x".format(it) }
+            jarStamps[path] = JarStamp(length, lastModified, contentHash, now)
+            isModified = true
+
+            contentHash
+        } catch (e: IOException) {
+            KotlinLogger.logError("Could not read jar file $path", e)
+            null
+        }
+    }
+
+    private fun prune() {
+        val now = System.currentTimeMillis()
+        val isPruned = jarStamps.entries.removeIf { (path, stamp) ->
+            val jar = File(path)
+            now - stamp.lastUsed > UNUSED_JAR_LIFETIME ||
+                    !jar.isFile || jar.length() != stamp.length || jar.lastModified() != stamp.lastModified
+        }
+
+        val usedHashes = jarStamps.values.mapTo(hashSetOf()) { it.contentHash }
+        if (packagesByHash.keys.retainAll(usedHashes) || isPruned) {
+            isModified = true
+        }
+    }
+
+    private fun load() {
+        val file = storageFile()?.takeIf { it.exists() } ?: return
+        try {
+            FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+                val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                if (buffer.int != STORAGE_VERSION) return
+
+                repeat(buffer.int) {
+                    val path = buffer.getString()
+                    jarStamps[path] = JarStamp(buffer.long, buffer.long, buffer.getString(), buffer.long)
+                }
+
+                repeat(buffer.int) {
+                    val hash = buffer.getString()
+                    packagesByHash[hash] = (1..buffer.int).mapTo(hashSetOf()) { buffer.getString() }
+                }
+            }
+        } catch (e: Exception) {
+            KotlinLogger.logError("Could not read packages of jar files", e)
+            jarStamps.clear()
+            packagesByHash.clear()
+        }
+    }
+
+    private fun storageFile(): File? =
+        Activator.getDefault()?.stateLocation?.append("jarPackages.bin")?.toFile()
+}
+
+private fun DataOutputStream.writeString(value: String) {
+    val bytes = value.toByteArray(Charsets.UTF_8)
+    writeInt(bytes.size)
+    write(bytes)
+}
+
+private fun ByteBuffer.getString(): String {
+    val bytes = ByteArray(int)
+    get(bytes)
+    return String(bytes, Charsets.UTF_8)
+}
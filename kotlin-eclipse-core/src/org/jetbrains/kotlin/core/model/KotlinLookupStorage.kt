@@ -0,0 +1,296 @@
+package org.jetbrains.kotlin.core.model
+
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.ISaveContext
+import org.eclipse.core.resources.ISaveParticipant
+import org.eclipse.core.resources.ResourcesPlugin
+import org.eclipse.core.runtime.Path
+import org.jetbrains.kotlin.core.Activator
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.incremental.components.Position
+import org.jetbrains.kotlin.incremental.components.ScopeKind
+import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedDeclaration
+import org.jetbrains.kotlin.psi.KtTreeVisitorVoid
+import org.jetbrains.kotlin.psi.psiUtil.containingClassOrObject
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+
+data class LookupSymbol(val scope: String, val name: String, val isClassMember: Boolean)
+
+/**
+ * State of a file when it was analyzed: a hash of its text and a hash of its resolved signatures, if known.
+ * Files restored from the storage are analyzed again when their text hash doesn't match.
+ */
+data class FileFingerprint(val textHash: Int, val signatureHash: Int?)
+
+/**
+ * Collects lookups made while analyzing Kotlin files, keyed by the path of the file which made a lookup.
+ */
+class KotlinLookupTracker : LookupTracker {
+    private val lookups = ConcurrentHashMap<String, MutableSet<LookupSymbol>>()
+
+    override val requiresPosition: Boolean = false
+
+    override fun record(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
+        lookups.computeIfAbsent(filePath) { ConcurrentHashMap.newKeySet() }
+            .add(LookupSymbol(scopeFqName, name, scopeKind == ScopeKind.CLASSIFIER))
+    }
+
+    fun getLookups(filePath: String): Set<LookupSymbol> = lookups[filePath].orEmpty()
+}
+
+/**
+ * Symbol usage graph of a project: which symbols every Kotlin file declares and which symbols it looked up
+ * during analysis. It answers which files may get other diagnostics when declarations in some files change.
+ */
+class ProjectLookupGraph {
+    private val declarations = hashMapOf<String, Set<LookupSymbol>>()
+    private val lookups = hashMapOf<String, Set<LookupSymbol>>()
+    private val fingerprints = hashMapOf<String, FileFingerprint>()
+    private val symbolUsages = hashMapOf<LookupSymbol, MutableSet<String>>()
+    private val memberNameUsages = hashMapOf<String, MutableSet<String>>()
+
+    /**
+     * Whether the graph describes all files of the project, i.e. it was built by analysis of the whole project
+     * and was updated incrementally since then.
+     */
+    @Volatile
+    var isComplete: Boolean = false
+        internal set
+
+    @Volatile
+    internal var isModified: Boolean = false
+
+    val files: Set<IFile>
+        @Synchronized get() = declarations.keys.mapTo(hashSetOf()) { it.toWorkspaceFile() }
+
+    @Synchronized
+    fun getDeclarations(file: IFile): Set<LookupSymbol> = declarations[file.graphKey].orEmpty()
+
+    @Synchronized
+    fun getFingerprint(file: IFile): FileFingerprint? = fingerprints[file.graphKey]
+
+    @Synchronized
+    fun update(
+        file: IFile,
+        fileDeclarations: Set<LookupSymbol>,
+        fileLookups: Set<LookupSymbol>,
+        fingerprint: FileFingerprint
+    ) {
+        val key = file.graphKey
+        removeLookups(key)
+
+        declarations[key] = fileDeclarations
+        lookups[key] = fileLookups
+        fingerprints[key] = fingerprint
+        for (symbol in fileLookups) {
+            symbolUsages.getOrPut(symbol) { hashSetOf() }.add(key)
+            if (symbol.isClassMember) {
+                memberNameUsages.getOrPut(symbol.name) { hashSetOf() }.add(key)
+            }
+        }
+
+        isModified = true
+    }
+
+    @Synchronized
+    fun remove(file: IFile) {
+        val key = file.graphKey
+        removeLookups(key)
+        declarations.remove(key)
+        fingerprints.remove(key)
+
+        isModified = true
+    }
+
+    /**
+     * Returns files which looked up any of [symbols]. Class members are matched by name in any class scope,
+     * as they can also be found through subclasses.
+     */
+    @Synchronized
+    fun getDependentFiles(symbols: Collection<LookupSymbol>): Set<IFile> {
+        val result = hashSetOf<String>()
+        for (symbol in symbols) {
+            symbolUsages[symbol]?.let { result.addAll(it) }
+            if (symbol.isClassMember) {
+                memberNameUsages[symbol.name]?.let { result.addAll(it) }
+            }
+        }
+
+        return result.mapTo(hashSetOf()) { it.toWorkspaceFile() }
+    }
+
+    private fun removeLookups(key: String) {
+        lookups.remove(key)?.forEach { symbol ->
+            symbolUsages[symbol]?.let { files ->
+                files.remove(key)
+                if (files.isEmpty()) symbolUsages.remove(symbol)
+            }
+
+            if (symbol.isClassMember) {
+                memberNameUsages[symbol.name]?.let { files ->
+                    files.remove(key)
+                    if (files.isEmpty()) memberNameUsages.remove(symbol.name)
+                }
+            }
+        }
+    }
+
+    // The graph is not modified since the written state, changes made during the save are saved next time
+    @Synchronized
+    internal fun write(output: DataOutputStream) {
+        isModified = false
+        output.writeBoolean(isComplete)
+        output.writeInt(declarations.size)
+        for ((file, fileDeclarations) in declarations) {
+            val fingerprint = fingerprints.getValue(file)
+            output.writeUTF(file)
+            output.writeInt(fingerprint.textHash)
+            output.writeBoolean(fingerprint.signatureHash != null)
+            output.writeInt(fingerprint.signatureHash ?: 0)
+            output.writeSymbols(fileDeclarations)
+            output.writeSymbols(lookups[file].orEmpty())
+        }
+    }
+
+    @Synchronized
+    internal fun read(input: DataInputStream) {
+        val complete = input.readBoolean()
+        repeat(input.readInt()) {
+            val file = input.readUTF().toWorkspaceFile()
+            val textHash = input.readInt()
+            val hasSignatureHash = input.readBoolean()
+            val signatureHash = input.readInt()
+            val fingerprint = FileFingerprint(textHash, if (hasSignatureHash) signatureHash else null)
+
+            update(file, input.readSymbols(), input.readSymbols(), fingerprint)
+        }
+
+        isComplete = complete
+        isModified = false
+    }
+}
+
+/**
+ * Stores lookup graphs in the plugin state location. Graphs are saved on workspace saves and snapshots,
+ * so they survive a crash up to the last snapshot, and when projects are closed.
+ */
+object KotlinLookupStorage : ISaveParticipant {
+    private const val STORAGE_VERSION = 2
+
+    private val graphs = ConcurrentHashMap<IProject, ProjectLookupGraph>()
+
+    fun getGraph(project: IProject): ProjectLookupGraph = graphs.computeIfAbsent(project) { load(it) }
+
+    fun resetGraph(project: IProject) {
+        graphs.remove(project)
+        storageFile(project)?.delete()
+    }
+
+    fun unloadGraph(project: IProject) {
+        graphs.remove(project)?.let { graph ->
+            if (graph.isModified) save(project, graph)
+        }
+    }
+
+    fun saveAll() {
+        graphs.forEach { (project, graph) ->
+            if (graph.isModified) save(project, graph)
+        }
+    }
+
+    override fun saving(context: ISaveContext) {
+        saveAll()
+    }
+
+    override fun prepareToSave(context: ISaveContext) {
+    }
+
+    override fun doneSaving(context: ISaveContext) {
+    }
+
+    override fun rollback(context: ISaveContext) {
+    }
+
+    fun collectDeclarations(ktFile: KtFile): Set<LookupSymbol> {
+        val packageName = ktFile.packageFqName.asString()
+        val result = hashSetOf<LookupSymbol>()
+
+        ktFile.accept(object : KtTreeVisitorVoid() {
+            override fun visitNamedDeclaration(declaration: KtNamedDeclaration) {
+                val name = declaration.name
+                if (name != null) {
+                    val containingClass = declaration.containingClassOrObject
+                    if (containingClass != null) {
+                        containingClass.fqName?.let { result.add(LookupSymbol(it.asString(), name, true)) }
+                    } else if (declaration.parent == ktFile || declaration is KtClassOrObject) {
+                        result.add(LookupSymbol(packageName, name, false))
+                    }
+                }
+
+                super.visitNamedDeclaration(declaration)
+            }
+        })
+
+        return result
+    }
+
+    private fun load(project: IProject): ProjectLookupGraph {
+        val graph = ProjectLookupGraph()
+        val file = storageFile(project)?.takeIf { it.exists() } ?: return graph
+
+        try {
+            DataInputStream(file.inputStream().buffered()).use { input ->
+                if (input.readInt() == STORAGE_VERSION) {
+                    graph.read(input)
+                }
+            }
+        } catch (e: IOException) {
+            KotlinLogger.logError("Could not read lookups of ${project.name}", e)
+            return ProjectLookupGraph()
+        }
+
+        return graph
+    }
+
+    private fun save(project: IProject, graph: ProjectLookupGraph) {
+        val file = storageFile(project) ?: return
+        try {
+            file.parentFile.mkdirs()
+            DataOutputStream(file.outputStream().buffered()).use { output ->
+                output.writeInt(STORAGE_VERSION)
+                graph.write(output)
+            }
+        } catch (e: IOException) {
+            graph.isModified = true
+            KotlinLogger.logError("Could not save lookups of ${project.name}", e)
+        }
+    }
+
+    private fun storageFile(project: IProject): File? =
+        Activator.getDefault()?.stateLocation?.append("lookups")?.append("${project.name}.bin")?.toFile()
+}
+
+private val IFile.graphKey: String
+    get() = fullPath.toPortableString()
+
+private fun String.toWorkspaceFile(): IFile = ResourcesPlugin.getWorkspace().root.getFile(Path.fromPortableString(this))
+
+private fun DataOutputStream.writeSymbols(symbols: Set<LookupSymbol>) {
+    writeInt(symbols.size)
+    for (symbol in symbols) {
+        writeUTF(symbol.scope)
+        writeUTF(symbol.name)
+        writeBoolean(symbol.isClassMember)
+    }
+}
+
+private fun DataInputStream.readSymbols(): Set<LookupSymbol> =
+    (1..readInt()).mapTo(hashSetOf()) { LookupSymbol(readUTF(), readUTF(), readBoolean()) }
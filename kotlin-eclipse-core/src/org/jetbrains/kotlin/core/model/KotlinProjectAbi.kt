@@ -0,0 +1,200 @@
+package org.jetbrains.kotlin.core.model
+
+import com.intellij.psi.PsiComment
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiRecursiveElementVisitor
+import com.intellij.psi.PsiWhiteSpace
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.log.KotlinLogger
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtDeclaration
+import org.jetbrains.kotlin.psi.KtDeclarationContainer
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedDeclaration
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.psi.KtProperty
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Public signatures of Kotlin declarations of every project, used to find out whether a change in a project
+ * may affect projects which depend on it. A signature is the text of a declaration without comments,
+ * formatting and bodies which don't change its type, so editing a function body keeps the ABI.
+ *
+ * When a project is compiled, the ABI is taken from its class files instead (see [ClassFileAbi]), which also
+ * covers declarations with inferred types.
+ *
+ * The ABI version of a project grows every time a signature is added, removed or changed, and analysis
+ * results of files depending on it become outdated, see [KotlinAnalysisFileCache.getDependenciesModificationCount].
+ */
+object KotlinProjectAbi {
+    private class ClassFileState(val length: Long, val lastModified: Long, val abi: ClassFileAbi?)
+
+    private class ProjectAbi {
+        val signatures = hashMapOf<IFile, Map<LookupSymbol, Int>>()
+
+        var classFiles: Map<File, ClassFileState>? = null
+
+        @Volatile
+        var version = 0L
+    }
+
+    private val projectAbis = ConcurrentHashMap<IProject, ProjectAbi>()
+
+    fun getVersion(project: IProject): Long = projectAbis[project]?.version ?: 0L
+
+    /**
+     * Computes signatures of [changedFiles] again and returns symbols whose signatures changed. When the project
+     * is seen for the first time, signatures of other files are computed as a baseline and all declarations
+     * of [changedFiles] are reported as changed.
+     */
+    fun update(project: IProject, changedFiles: Collection<IFile>): Set<LookupSymbol> {
+        val isNew = !projectAbis.containsKey(project)
+        val abi = projectAbis.computeIfAbsent(project) { ProjectAbi() }
+        return synchronized(abi) {
+            if (isNew) {
+                for (file in KotlinPsiManager.getFilesByProject(project) - changedFiles) {
+                    abi.signatures[file] = collectSignatures(file)
+                }
+            }
+
+            val changedSymbols = hashSetOf<LookupSymbol>()
+            for (file in changedFiles) {
+                val oldSignatures = abi.signatures[file].orEmpty()
+                val newSignatures = collectSignatures(file)
+
+                if (newSignatures.isEmpty()) abi.signatures.remove(file) else abi.signatures[file] = newSignatures
+
+                (oldSignatures.keys + newSignatures.keys)
+                    .filterTo(changedSymbols) { oldSignatures[it] != newSignatures[it] }
+            }
+
+            if (changedSymbols.isNotEmpty()) {
+                abi.version++
+                KotlinAnalysisFileCache.dependenciesChanged()
+            }
+
+            changedSymbols
+        }
+    }
+
+    /**
+     * Reads ABI of changed class files from [outputFolders] and returns symbols whose ABI changed. Returns `null`
+     * when class files of the project are read for the first time, so there is nothing to compare with.
+     */
+    fun updateFromClassFiles(project: IProject, outputFolders: List<File>): Set<LookupSymbol>? {
+        val abi = projectAbis.computeIfAbsent(project) { ProjectAbi() }
+        return synchronized(abi) {
+            val oldClassFiles = abi.classFiles
+            val newClassFiles = hashMapOf<File, ClassFileState>()
+            outputFolders.flatMap { folder -> folder.walkTopDown().filter { it.isFile && it.extension == "class" }.toList() }
+                .forEach { file ->
+                    val length = file.length()
+                    val lastModified = file.lastModified()
+                    val oldState = oldClassFiles?.get(file)
+                    newClassFiles[file] =
+                        if (oldState != null && oldState.length == length && oldState.lastModified == lastModified) oldState
+                        else ClassFileState(length, lastModified, readClassFileAbi(file))
+                }
+
+            abi.classFiles = newClassFiles
+            if (oldClassFiles == null) return null
+
+            val changedSymbols = (oldClassFiles.keys + newClassFiles.keys)
+                .filter { oldClassFiles[it] !== newClassFiles[it] }
+                .flatMapTo(hashSetOf()) { ClassFileAbi.changedSymbols(oldClassFiles[it]?.abi, newClassFiles[it]?.abi) }
+
+            if (changedSymbols.isNotEmpty()) {
+                abi.version++
+                KotlinAnalysisFileCache.dependenciesChanged()
+            }
+
+            changedSymbols
+        }
+    }
+
+    /**
+     * Hash of public signatures of all declarations of [ktFile], it changes only when the ABI of the file changes.
+     * With [includePrivate], signatures of private declarations are hashed as well.
+     */
+    fun signatureHash(ktFile: KtFile, includePrivate: Boolean = false): Int =
+        collectSignatures(ktFile, includePrivate).hashCode()
+
+    fun remove(project: IProject) {
+        projectAbis.remove(project)
+    }
+
+    private fun readClassFileAbi(file: File): ClassFileAbi? =
+        try {
+            ClassFileAbi.read(file.readBytes())
+        } catch (e: IOException) {
+            KotlinLogger.logError("Could not read class file ${file.path}", e)
+            null
+        }
+
+    private fun collectSignatures(file: IFile): Map<LookupSymbol, Int> =
+        if (file.exists()) collectSignatures(KotlinPsiManager.getParsedFile(file)) else emptyMap()
+
+    private fun collectSignatures(ktFile: KtFile, includePrivate: Boolean = false): Map<LookupSymbol, Int> {
+        val packageName = ktFile.packageFqName.asString()
+        val result = hashMapOf<LookupSymbol, Int>()
+
+        fun collect(container: KtDeclarationContainer, scope: String, isClassMember: Boolean) {
+            for (declaration in container.declarations) {
+                if (declaration !is KtNamedDeclaration) continue
+                if (!includePrivate && declaration.hasModifier(KtTokens.PRIVATE_KEYWORD)) continue
+
+                val name = declaration.name ?: continue
+                val symbol = LookupSymbol(scope, name, isClassMember)
+                result[symbol] = (result[symbol] ?: 0) * 31 + signatureText(declaration).hashCode()
+
+                if (declaration is KtClassOrObject) {
+                    declaration.fqName?.let { collect(declaration, it.asString(), true) }
+                }
+            }
+        }
+
+        collect(ktFile, packageName, false)
+        return result
+    }
+
+    private fun signatureText(declaration: KtNamedDeclaration): String {
+        val excludedElements = bodiesOutsideOfSignature(declaration)
+        val text = StringBuilder()
+        declaration.accept(object : PsiRecursiveElementVisitor() {
+            override fun visitElement(element: PsiElement) {
+                if (element in excludedElements || element is PsiComment) return
+
+                if (element.firstChild == null) {
+                    if (element !is PsiWhiteSpace) text.append(element.text).append(' ')
+                } else {
+                    super.visitElement(element)
+                }
+            }
+        })
+
+        return text.toString()
+    }
+
+    // Bodies which can't change the type of a declaration. Inline functions and constants are inlined into callers,
+    // members of classes have their own signatures
+    private fun bodiesOutsideOfSignature(declaration: KtDeclaration): Set<PsiElement> = when {
+        declaration.hasModifier(KtTokens.INLINE_KEYWORD) || declaration.hasModifier(KtTokens.CONST_KEYWORD) -> emptySet()
+        declaration is KtClassOrObject -> setOfNotNull(declaration.getBody())
+        declaration is KtNamedFunction ->
+            if (declaration.hasBlockBody() || declaration.typeReference != null) setOfNotNull(declaration.bodyExpression)
+            else emptySet()
+        declaration is KtProperty -> {
+            val accessorBodies = declaration.accessors
+                .filter { declaration.typeReference != null || it.isSetter || it.hasBlockBody() }
+                .mapNotNullTo(hashSetOf<PsiElement>()) { it.bodyExpression }
+            if (declaration.typeReference != null) accessorBodies + setOfNotNull(declaration.initializer, declaration.delegateExpression)
+            else accessorBodies
+        }
+        else -> emptySet()
+    }
+}
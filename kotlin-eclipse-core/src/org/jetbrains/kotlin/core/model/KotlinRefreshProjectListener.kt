@@ -29,7 +29,7 @@ public object KotlinRefreshProjectListener : IResourceChangeListener {
     
     private fun tryUpdateLightClassesFor(resource: IResource?) {
         if (resource is IProject && KotlinNature.hasKotlinNature(resource)) {
-            KotlinLightClassGeneration.updateLightClasses(resource, emptySet(), true)
+            KotlinLightClassGeneration.recreateLightClasses(resource, emptySet(), true)
         }
     }
 }
\ No newline at end of file
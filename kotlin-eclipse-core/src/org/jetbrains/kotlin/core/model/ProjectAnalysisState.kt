@@ -0,0 +1,195 @@
+package org.jetbrains.kotlin.core.model
+
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.resolve.EclipseAnalyzerFacadeForJVM
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.diagnostics.Diagnostic
+import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtDeclaration
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.renderer.DescriptorRenderer
+import org.jetbrains.kotlin.resolve.BindingContext
+import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
+import org.jetbrains.kotlin.resolve.diagnostics.SimpleDiagnostics
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Diagnostics of the project together with files whose diagnostics were computed again by the last update.
+ * Diagnostics of other files did not change.
+ */
+class ProjectAnalysisResult(val diagnostics: Diagnostics, val analyzedFiles: Set<IFile>)
+
+/**
+ * [ktFile] is `null` for files restored from the persisted lookup graph, their diagnostics are already shown
+ * as markers and are not known until the file is analyzed again. Such files are analyzed again when their text
+ * doesn't match [FileFingerprint.textHash].
+ */
+private class FileAnalysisState(val ktFile: KtFile?, val diagnostics: List<Diagnostic>, val fingerprint: FileFingerprint?) {
+    val signatureHash: Int?
+        get() = fingerprint?.signatureHash
+
+    fun isOutdated(parsedFile: KtFile): Boolean =
+        if (ktFile != null) ktFile !== parsedFile else fingerprint?.textHash != parsedFile.text.hashCode()
+}
+
+/**
+ * Files of a project changed since they were analyzed, with the number of their last change. Changes are added
+ * without waiting for a running analysis, which removes only the changes it has seen. Changes are collected
+ * before the project is analyzed for the first time as well.
+ */
+internal class ChangedFiles {
+    private val changes = ConcurrentHashMap<IFile, Long>()
+    private val changeCounter = AtomicLong()
+
+    fun mark(file: IFile) {
+        changes[file] = changeCounter.incrementAndGet()
+    }
+
+    fun snapshot(): Map<IFile, Long> = HashMap(changes)
+
+    fun removeSeen(seenChanges: Map<IFile, Long>) {
+        seenChanges.forEach { (file, change) -> changes.remove(file, change) }
+    }
+}
+
+/**
+ * Diagnostics of all Kotlin files of a project, kept per file. After a change only the changed files and
+ * the files which looked up declarations from them (see [ProjectLookupGraph]) are analyzed again,
+ * results for other files are reused. When resolved signatures of analyzed files change, e.g. an inferred
+ * type changes, files which looked up their declarations are analyzed as well, until signatures stop changing.
+ *
+ * Files are analyzed in chunks and results of every chunk are kept right away, so when analysis is canceled,
+ * e.g. in favor of an editor, the next update continues with the files which were not analyzed yet.
+ */
+internal class ProjectAnalysisState(private val project: IProject, private val changedFiles: ChangedFiles) {
+    companion object {
+        private const val FILES_PER_ANALYSIS = 50
+    }
+
+    private val fileStates = hashMapOf<IFile, FileAnalysisState>()
+
+    private val lookupGraph = KotlinLookupStorage.getGraph(project)
+
+    // Files to analyze which are not changed themselves, e.g. files depending on changed ones
+    private val pendingFiles = linkedSetOf<IFile>()
+
+    // Files analyzed since the last result was returned, including analyses which were canceled afterwards
+    private val unpublishedFiles = hashSetOf<IFile>()
+
+    @Volatile
+    var diagnostics: Diagnostics = Diagnostics.EMPTY
+        private set
+
+    init {
+        if (lookupGraph.isComplete) {
+            lookupGraph.files.forEach { fileStates[it] = FileAnalysisState(null, emptyList(), lookupGraph.getFingerprint(it)) }
+        }
+    }
+
+    @Synchronized
+    fun update(environment: KotlinEnvironment): ProjectAnalysisResult {
+        val seenChanges = changedFiles.snapshot()
+        val projectFiles = KotlinPsiManager.getFilesByProject(project).filter { it.exists() }
+        val parsedFiles = projectFiles.associateWith { KotlinPsiManager.getParsedFile(it) }
+
+        val removedFiles = fileStates.keys - parsedFiles.keys
+        val dirtyFiles = parsedFiles.filter { (file, ktFile) ->
+            val state = fileStates[file]
+            file in seenChanges || state == null || state.isOutdated(ktFile)
+        }.keys
+
+        pendingFiles.retainAll(parsedFiles.keys)
+        if (dirtyFiles.isEmpty() && removedFiles.isEmpty() && pendingFiles.isEmpty() && unpublishedFiles.isEmpty()) {
+            return ProjectAnalysisResult(diagnostics, emptySet())
+        }
+
+        pendingFiles.addAll(dirtyFiles)
+        pendingFiles.addAll(findDependentFiles(dirtyFiles + removedFiles, parsedFiles))
+        for (file in removedFiles) {
+            fileStates.remove(file)
+            lookupGraph.remove(file)
+        }
+
+        while (pendingFiles.isNotEmpty()) {
+            val chunk = pendingFiles.take(FILES_PER_ANALYSIS)
+            val analyzedFiles = analyze(environment, chunk.associateWith { parsedFiles.getValue(it) })
+
+            val filesWithChangedSignatures = analyzedFiles.filter { (file, analyzed) ->
+                fileStates[file]?.signatureHash != analyzed.state.signatureHash
+            }.keys
+
+            for ((file, analyzed) in analyzedFiles) {
+                fileStates[file] = analyzed.state
+                lookupGraph.update(file, analyzed.declarations, analyzed.lookups, analyzed.fingerprint)
+            }
+            pendingFiles.removeAll(chunk)
+            unpublishedFiles.addAll(chunk)
+            changedFiles.removeSeen(seenChanges.filterKeys { it in analyzedFiles })
+
+            // Files analyzed before already saw the new signatures
+            pendingFiles.addAll(findDependentFiles(filesWithChangedSignatures, parsedFiles) - unpublishedFiles)
+        }
+
+        changedFiles.removeSeen(seenChanges)
+        lookupGraph.isComplete = true
+
+        diagnostics = SimpleDiagnostics(fileStates.values.flatMap { it.diagnostics })
+        return ProjectAnalysisResult(diagnostics, unpublishedFiles.toSet()).also { unpublishedFiles.clear() }
+    }
+
+    private fun findDependentFiles(changed: Set<IFile>, parsedFiles: Map<IFile, KtFile>): Set<IFile> {
+        val changedDeclarations = changed.flatMap { lookupGraph.getDeclarations(it) } +
+                changed.mapNotNull { parsedFiles[it] }.flatMap { KotlinLookupStorage.collectDeclarations(it) }
+
+        return lookupGraph.getDependentFiles(changedDeclarations)
+            .filter { it !in changed && it in parsedFiles }
+            .toSet()
+    }
+
+    private fun analyze(environment: KotlinEnvironment, files: Map<IFile, KtFile>): Map<IFile, AnalyzedFile> {
+        val lookupTracker = KotlinLookupTracker()
+        val bindingContext = EclipseAnalyzerFacadeForJVM.analyzeSources(environment, files.values, lookupTracker)
+            .analysisResult.bindingContext
+
+        val diagnosticsByFile = bindingContext.diagnostics.all().groupBy { it.psiFile }
+        return files.mapValues { (_, ktFile) ->
+            val fingerprint = FileFingerprint(ktFile.text.hashCode(), resolvedSignatureHash(ktFile, bindingContext))
+            val state = FileAnalysisState(ktFile, diagnosticsByFile[ktFile].orEmpty(), fingerprint)
+            val lookups = ktFile.virtualFile?.path?.let { lookupTracker.getLookups(it) }.orEmpty()
+
+            AnalyzedFile(state, fingerprint, KotlinLookupStorage.collectDeclarations(ktFile), lookups)
+        }
+    }
+
+    private class AnalyzedFile(
+        val state: FileAnalysisState,
+        val fingerprint: FileFingerprint,
+        val declarations: Set<LookupSymbol>,
+        val lookups: Set<LookupSymbol>)
+}
+
+// Signatures with inferred types, bodies of declarations are not visited
+private fun resolvedSignatureHash(ktFile: KtFile, bindingContext: BindingContext): Int {
+    var hash = 0
+
+    fun collect(declarations: List<KtDeclaration>) {
+        for (declaration in declarations) {
+            val descriptor = bindingContext[BindingContext.DECLARATION_TO_DESCRIPTOR, declaration] ?: continue
+            hash = 31 * hash + DescriptorRenderer.FQ_NAMES_IN_TYPES.render(descriptor).hashCode()
+
+            if (descriptor is ClassDescriptor) {
+                descriptor.constructors.forEach {
+                    hash = 31 * hash + DescriptorRenderer.FQ_NAMES_IN_TYPES.render(it).hashCode()
+                }
+            }
+
+            if (declaration is KtClassOrObject) collect(declaration.declarations)
+        }
+    }
+
+    collect(ktFile.declarations)
+    return hash
+}
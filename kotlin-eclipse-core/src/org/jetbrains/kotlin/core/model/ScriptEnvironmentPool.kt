@@ -0,0 +1,187 @@
+package org.jetbrains.kotlin.core.model
+
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Disposer
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.preferences.KotlinBuildingProperties
+import org.jetbrains.kotlin.core.resolve.KotlinDependencyModuleCache
+import org.jetbrains.kotlin.scripting.definitions.ScriptDefinition
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.script.experimental.dependencies.ScriptDependencies
+
+data class ScriptEnvironmentPoolStatistics(val hits: Long, val misses: Long, val evictions: Long, val size: Int)
+
+/**
+ * Everything the classpath of a script environment depends on. Scripts with equal keys are analyzed
+ * in one environment.
+ */
+internal data class ScriptEnvironmentKey(
+    val project: IProject,
+    val definition: ScriptDefinition?,
+    val dependencies: ScriptDependencies?
+)
+
+/**
+ * Environments of Kotlin scripts shared between scripts with the same [ScriptEnvironmentKey], so a script
+ * next to an already opened one gets an existing environment. The number of environments is bounded:
+ * the least recently used environment which is not in use is disposed when the pool is full. An environment
+ * is in use while a script of it is opened in an editor (see [openFile]) or while it is acquired for analysis
+ * (see [acquireEnvironment]), so the pool can temporarily be larger than its limit. Keys of scripts are kept
+ * after eviction, so a script accessed again gets an environment with the same dependencies.
+ */
+internal class ScriptEnvironmentPool(
+    private val keyForFile: (IFile) -> ScriptEnvironmentKey,
+    private val createEnvironment: (ScriptEnvironmentKey) -> KotlinScriptEnvironment
+) {
+    private val poolLock = Any()
+
+    private val environments = LinkedHashMap<ScriptEnvironmentKey, KotlinScriptEnvironment>(16, 0.75f, true)
+    private val fileKeys = hashMapOf<IFile, ScriptEnvironmentKey>()
+
+    private val openFiles = hashMapOf<IFile, Int>()
+    private val acquisitions = hashMapOf<ScriptEnvironmentKey, Int>()
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+
+    fun getEnvironment(file: IFile): KotlinScriptEnvironment = synchronized(poolLock) {
+        val key = fileKeys.getOrPut(file) { keyForFile(file) }
+        environments[key]?.let {
+            hits.incrementAndGet()
+            return it
+        }
+
+        misses.incrementAndGet()
+        val environment = createEnvironment(key)
+        environments[key] = environment
+
+        evictUnused(except = key)
+
+        environment
+    }
+
+    /**
+     * Environment which owns [project], or `null` if [project] does not belong to a script environment.
+     */
+    fun getEnvironment(project: Project): KotlinScriptEnvironment? = synchronized(poolLock) {
+        findKey(project)?.let { environments[it] }
+    }
+
+    /**
+     * Marks the environment of [project] as used until [releaseEnvironment] is called, so it is not evicted
+     * during an analysis.
+     */
+    fun acquireEnvironment(project: Project): KotlinScriptEnvironment? = synchronized(poolLock) {
+        val key = findKey(project) ?: return null
+        acquisitions[key] = (acquisitions[key] ?: 0) + 1
+        environments[key]
+    }
+
+    fun releaseEnvironment(environment: KotlinScriptEnvironment) {
+        synchronized(poolLock) {
+            val key = findKey(environment.project) ?: return
+            val count = acquisitions[key] ?: return
+            if (count > 1) {
+                acquisitions[key] = count - 1
+                return
+            }
+
+            acquisitions.remove(key)
+            disposeIfUnused(key)
+            evictUnused()
+        }
+    }
+
+    /**
+     * Marks the environment of [file] as used until [closeFile] is called for [file].
+     */
+    fun openFile(file: IFile) {
+        synchronized(poolLock) {
+            openFiles[file] = (openFiles[file] ?: 0) + 1
+        }
+    }
+
+    fun closeFile(file: IFile) {
+        synchronized(poolLock) {
+            val count = openFiles[file] ?: return
+            if (count > 1) {
+                openFiles[file] = count - 1
+            } else {
+                openFiles.remove(file)
+                evictUnused()
+            }
+        }
+    }
+
+    /**
+     * Moves [file] to the environment for [dependencies]. Returns `false` if the dependencies of the file
+     * did not change.
+     */
+    fun updateDependencies(file: IFile, dependencies: ScriptDependencies?): Boolean = synchronized(poolLock) {
+        val key = fileKeys[file] ?: keyForFile(file)
+        val newKey = key.copy(dependencies = dependencies)
+        if (fileKeys[file] == newKey) return false
+
+        fileKeys[file] = newKey
+        disposeIfUnused(key)
+
+        true
+    }
+
+    fun removeFile(file: IFile) {
+        synchronized(poolLock) {
+            fileKeys.remove(file)
+        }
+    }
+
+    fun getStatistics(): ScriptEnvironmentPoolStatistics = synchronized(poolLock) {
+        ScriptEnvironmentPoolStatistics(hits.get(), misses.get(), evictions.get(), environments.size)
+    }
+
+    private fun findKey(project: Project): ScriptEnvironmentKey? =
+        environments.entries.find { it.value.project == project }?.key
+
+    private fun isInUse(key: ScriptEnvironmentKey): Boolean =
+        key in acquisitions || fileKeys.any { (file, fileKey) -> fileKey == key && file in openFiles }
+
+    /**
+     * Disposes the environment for [key] if no script has this key anymore.
+     */
+    private fun disposeIfUnused(key: ScriptEnvironmentKey) {
+        if (key in fileKeys.values || key in acquisitions) return
+
+        environments[key]?.let { disposeEnvironment(key, it) }
+    }
+
+    /**
+     * Disposes least recently used environments which are not in use until the pool fits its limit.
+     */
+    private fun evictUnused(except: ScriptEnvironmentKey? = null) {
+        val excess = environments.size - maxPoolSize()
+        if (excess <= 0) return
+
+        environments.keys
+            .filter { it != except && !isInUse(it) }
+            .take(excess)
+            .forEach { key ->
+                disposeEnvironment(key, environments.getValue(key))
+                evictions.incrementAndGet()
+            }
+    }
+
+    private fun disposeEnvironment(key: ScriptEnvironmentKey, environment: KotlinScriptEnvironment) {
+        environments.remove(key)
+
+        // Parsed scripts belong to the project of the disposed environment
+        fileKeys.filterValues { it == key }.keys.forEach { KotlinPsiManager.removeFile(it) }
+
+        KotlinDependencyModuleCache.resetCache(environment)
+        Disposer.dispose(environment.disposable)
+    }
+
+    private fun maxPoolSize(): Int =
+        KotlinBuildingProperties.workspaceInstance.scriptEnvironmentPoolSize.coerceAtLeast(1)
+}
@@ -11,7 +11,28 @@ class KotlinBuildingProperties(scope: IScopeContext = InstanceScope.INSTANCE) :
 
     var useIncremental by BooleanPreference()
 
+    var analysisCacheSize by IntPreference(DEFAULT_ANALYSIS_CACHE_SIZE)
+
+    var scriptEnvironmentPoolSize by IntPreference(DEFAULT_SCRIPT_ENVIRONMENT_POOL_SIZE)
+
+    var compilerParallelism by IntPreference(DEFAULT_COMPILER_PARALLELISM)
+
+    var lightClassCacheSize by IntPreference(DEFAULT_LIGHT_CLASS_CACHE_SIZE)
+
+    var spillLightClassesToDisk by BooleanPreference()
+
+    var pregenerateLightClasses by BooleanPreference()
+
     companion object {
+        const val DEFAULT_ANALYSIS_CACHE_SIZE = 8
+
+        const val DEFAULT_SCRIPT_ENVIRONMENT_POOL_SIZE = 16
+
+        const val DEFAULT_COMPILER_PARALLELISM = 2
+
+        // In megabytes
+        const val DEFAULT_LIGHT_CLASS_CACHE_SIZE = 64
+
         val workspaceInstance by lazy { KotlinBuildingProperties() }
     }
 }
\ No newline at end of file
@@ -183,6 +183,11 @@ abstract class Preferences(private val scope: IScopeContext, private val path: S
         override fun writer(value: Boolean) = value.toString()
     }
 
+    protected class IntPreference(val defaultValue: Int = 0) : Preference<Int> {
+        override fun reader(text: String?) = text?.toIntOrNull() ?: defaultValue
+        override fun writer(value: Int) = value.toString()
+    }
+
     protected class ListPreference(val separator: String = "|") : Preference<List<String>> {
         override fun reader(text: String?) = text?.split(separator)?.filter(String::isNotEmpty) ?: listOf()
         override fun writer(value: List<String>) = value.joinToString(separator)
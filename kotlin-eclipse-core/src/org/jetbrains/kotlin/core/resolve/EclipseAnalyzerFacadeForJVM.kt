@@ -17,14 +17,12 @@
 package org.jetbrains.kotlin.core.resolve
 
 import com.intellij.openapi.project.Project
-import com.intellij.psi.search.GlobalSearchScope
 import org.eclipse.core.runtime.Path
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
 import org.eclipse.jdt.launching.JavaRuntime
 import org.jetbrains.kotlin.analyzer.AnalysisResult
-import org.jetbrains.kotlin.builtins.jvm.JvmBuiltIns
-import org.jetbrains.kotlin.builtins.jvm.JvmBuiltInsPackageFragmentProvider
+import org.jetbrains.kotlin.builtins.KotlinBuiltIns
 import org.jetbrains.kotlin.cli.jvm.compiler.CliBindingTrace
 import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM
 import org.jetbrains.kotlin.config.CommonConfigurationKeys
@@ -45,7 +43,6 @@ import org.jetbrains.kotlin.core.utils.ProjectUtils
 import org.jetbrains.kotlin.core.utils.asResource
 import org.jetbrains.kotlin.descriptors.PackageFragmentProvider
 import org.jetbrains.kotlin.descriptors.impl.CompositePackageFragmentProvider
-import org.jetbrains.kotlin.frontend.java.di.initJvmBuiltInsForTopDownAnalysis
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.psi.KtFile
@@ -54,7 +51,6 @@ import org.jetbrains.kotlin.resolve.TopDownAnalysisMode
 import org.jetbrains.kotlin.resolve.jvm.JavaDescriptorResolver
 import org.jetbrains.kotlin.resolve.jvm.extensions.PackageFragmentProviderExtension
 import org.jetbrains.kotlin.resolve.lazy.KotlinCodeAnalyzer
-import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactory
 import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory
 import org.jetbrains.kotlin.util.KotlinFrontEndException
 import java.util.*
@@ -66,9 +62,11 @@ data class AnalysisResultWithProvider(val analysisResult: AnalysisResult, val co
 }
 
 object EclipseAnalyzerFacadeForJVM {
+    @JvmOverloads
     fun analyzeSources(
             environment: KotlinEnvironment,
-            filesToAnalyze: Collection<KtFile>
+            filesToAnalyze: Collection<KtFile>,
+            lookupTracker: LookupTracker = LookupTracker.DO_NOTHING
     ): AnalysisResultWithProvider {
         val filesSet = filesToAnalyze.toSet()
         if (filesSet.size != filesToAnalyze.size) {
@@ -86,7 +84,8 @@ object EclipseAnalyzerFacadeForJVM {
             allFiles = allFiles,
             environment = environment,
             javaProject = environment.javaProject,
-            jvmTarget = environment.compilerProperties.jvmTarget
+            jvmTarget = environment.compilerProperties.jvmTarget,
+            lookupTracker = lookupTracker
         )
     }
 
@@ -134,10 +133,20 @@ object EclipseAnalyzerFacadeForJVM {
         allFiles: Collection<KtFile>,
         environment: KotlinCommonEnvironment,
         javaProject: IJavaProject?,
-        jvmTarget: JvmTarget = JvmTarget.DEFAULT
+        jvmTarget: JvmTarget = JvmTarget.DEFAULT,
+        lookupTracker: LookupTracker = LookupTracker.DO_NOTHING
     ): AnalysisResultWithProvider {
         val project = environment.project
-        val moduleContext = createModuleContext(project, environment.configuration, true)
+        val languageVersionSettings = LanguageVersionSettingsImpl(
+                LanguageVersionSettingsImpl.DEFAULT.languageVersion,
+                LanguageVersionSettingsImpl.DEFAULT.apiVersion)
+
+        val dependencies = KotlinDependencyModuleCache.getDependencyModule(
+                environment, javaProject, jvmTarget, languageVersionSettings)
+        val dependencyModule = dependencies.module
+        val optionalBuiltInsModule = dependencies.optionalBuiltInsModule
+
+        val moduleContext = createModuleContext(project, environment.configuration, dependencies.builtIns)
         val storageManager = moduleContext.storageManager
         val module = moduleContext.module
 
@@ -146,60 +155,19 @@ object EclipseAnalyzerFacadeForJVM {
 
         val sourceScope = TopDownAnalyzerFacadeForJVM.newModuleSearchScope(project, filesToAnalyze)
         val moduleClassResolver = TopDownAnalyzerFacadeForJVM.SourceOrBinaryModuleClassResolver(sourceScope)
-
-        val languageVersionSettings = LanguageVersionSettingsImpl(
-                LanguageVersionSettingsImpl.DEFAULT.languageVersion,
-                LanguageVersionSettingsImpl.DEFAULT.apiVersion)
-
-        val optionalBuiltInsModule = JvmBuiltIns(storageManager, JvmBuiltIns.Kind.FROM_CLASS_LOADER)
-            .apply { initialize(module, true) }
-            .builtInsModule
-
-        val dependencyModule = run {
-            val dependenciesContext = ContextForNewModule(
-                    moduleContext, Name.special("<dependencies of ${environment.configuration.getNotNull(
-                    CommonConfigurationKeys.MODULE_NAME)}>"),
-                    module.builtIns, null
-            )
-
-            val dependencyScope = GlobalSearchScope.notScope(sourceScope)
-            val dependenciesContainer = createContainerForTopDownAnalyzerForJvm(
-                    dependenciesContext,
-                    trace,
-                    DeclarationProviderFactory.EMPTY,
-                    dependencyScope,
-                    LookupTracker.DO_NOTHING,
-                    KotlinPackagePartProvider(environment),
-                    jvmTarget,
-                    languageVersionSettings,
-                    moduleClassResolver,
-                    javaProject)
-
-            moduleClassResolver.compiledCodeResolver = dependenciesContainer.get<JavaDescriptorResolver>()
-
-            dependenciesContext.setDependencies(listOfNotNull(dependenciesContext.module, optionalBuiltInsModule))
-            dependenciesContext.initializeModuleContents(
-                CompositePackageFragmentProvider(listOf(
-                    moduleClassResolver.compiledCodeResolver.packageFragmentProvider,
-                    dependenciesContainer.get<JvmBuiltInsPackageFragmentProvider>()
-            ))
-            )
-            dependenciesContext.module
-        }
+        moduleClassResolver.compiledCodeResolver = dependencies.compiledCodeResolver
 
         val container = createContainerForTopDownAnalyzerForJvm(
                 moduleContext,
                 trace,
                 providerFactory,
                 sourceScope,
-                LookupTracker.DO_NOTHING,
-                KotlinPackagePartProvider(environment),
+                lookupTracker,
+                dependencies.packagePartProvider,
                 jvmTarget,
                 languageVersionSettings,
                 moduleClassResolver,
-                javaProject).apply {
-            initJvmBuiltInsForTopDownAnalysis()
-        }
+                javaProject)
 
         moduleClassResolver.sourceCodeResolver = container.get<JavaDescriptorResolver>()
 
@@ -207,7 +175,7 @@ object EclipseAnalyzerFacadeForJVM {
         additionalProviders.add(container.get<JavaDescriptorResolver>().packageFragmentProvider)
 
         PackageFragmentProviderExtension.getInstances(project).mapNotNullTo(additionalProviders) { extension ->
-            extension.getPackageFragmentProvider(project, module, storageManager, trace, null, LookupTracker.DO_NOTHING)
+            extension.getPackageFragmentProvider(project, module, storageManager, trace, null, lookupTracker)
         }
 
         module.setDependencies(
@@ -238,17 +206,11 @@ object EclipseAnalyzerFacadeForJVM {
     private fun createModuleContext(
         project: Project,
         configuration: CompilerConfiguration,
-        createBuiltInsFromModule: Boolean
+        builtIns: KotlinBuiltIns
     ): MutableModuleContext {
         val projectContext = ProjectContext(project, "context for project ${project.name}")
-        val builtIns = JvmBuiltIns(projectContext.storageManager,
-            if (createBuiltInsFromModule) JvmBuiltIns.Kind.FROM_DEPENDENCIES else JvmBuiltIns.Kind.FROM_CLASS_LOADER)
         return ContextForNewModule(
                 projectContext, Name.special("<${configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)}>"), builtIns, null
-        ).apply {
-            if (createBuiltInsFromModule) {
-                builtIns.builtInsModule = module
-            }
-        }
+        )
     }
 }
\ No newline at end of file
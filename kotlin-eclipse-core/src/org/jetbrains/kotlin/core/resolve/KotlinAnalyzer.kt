@@ -17,14 +17,14 @@
 package org.jetbrains.kotlin.core.resolve
 
 import org.eclipse.core.resources.IProject
-import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
+import org.jetbrains.kotlin.core.model.KotlinAnalysisScheduler
 import org.jetbrains.kotlin.core.model.KotlinEnvironment
 import org.jetbrains.kotlin.core.model.getEnvironment
 import org.jetbrains.kotlin.psi.KtFile
 
 object KotlinAnalyzer {
     fun analyzeFile(jetFile: KtFile): AnalysisResultWithProvider {
-        return KotlinAnalysisFileCache.getAnalysisResult(jetFile)
+        return KotlinAnalysisScheduler.analyzeFile(jetFile)
     }
     
     fun analyzeFiles(files: Collection<KtFile>): AnalysisResultWithProvider {
@@ -0,0 +1,200 @@
+package org.jetbrains.kotlin.core.resolve
+
+import com.intellij.psi.search.GlobalSearchScope
+import org.eclipse.core.resources.IProject
+import org.eclipse.jdt.core.IJavaProject
+import org.jetbrains.kotlin.builtins.jvm.JvmBuiltIns
+import org.jetbrains.kotlin.builtins.jvm.JvmBuiltInsPackageFragmentProvider
+import org.jetbrains.kotlin.cli.jvm.compiler.CliBindingTrace
+import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM
+import org.jetbrains.kotlin.config.ApiVersion
+import org.jetbrains.kotlin.config.CommonConfigurationKeys
+import org.jetbrains.kotlin.config.JvmTarget
+import org.jetbrains.kotlin.config.LanguageFeature
+import org.jetbrains.kotlin.config.LanguageVersion
+import org.jetbrains.kotlin.config.LanguageVersionSettings
+import org.jetbrains.kotlin.context.ContextForNewModule
+import org.jetbrains.kotlin.context.ProjectContext
+import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
+import org.jetbrains.kotlin.core.model.KotlinCommonEnvironment
+import org.jetbrains.kotlin.core.model.KotlinEnvironment
+import org.jetbrains.kotlin.core.model.KotlinProjectAbi
+import org.jetbrains.kotlin.core.utils.ProjectUtils
+import org.jetbrains.kotlin.descriptors.ModuleDescriptor
+import org.jetbrains.kotlin.descriptors.impl.CompositePackageFragmentProvider
+import org.jetbrains.kotlin.descriptors.impl.ModuleDescriptorImpl
+import org.jetbrains.kotlin.idea.KotlinFileType
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.resolve.jvm.JavaDescriptorResolver
+import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+
+/**
+ * Module with binary (and Java) dependencies of a [KotlinCommonEnvironment] together with the built-ins
+ * loaded from it. Deserialized descriptors are kept between analyses, so only the source module has to be
+ * recreated when Kotlin files change.
+ */
+class KotlinDependencyModule(
+    val builtIns: JvmBuiltIns,
+    val module: ModuleDescriptorImpl,
+    val optionalBuiltInsModule: ModuleDescriptor,
+    val compiledCodeResolver: JavaDescriptorResolver,
+    val packagePartProvider: KotlinPackagePartProvider
+)
+
+/**
+ * Dependency modules by environments and the settings they were created with. A module is created by the first
+ * thread which requests it, other threads wait for the same module; the map itself is not locked while a module
+ * is created.
+ *
+ * Java classes of the project may refer to Kotlin classes of it or of projects it depends on, and such references
+ * are resolved in the dependency module. So a module is recreated when the ABI of these projects changes
+ * (see [KotlinProjectAbi]), and Kotlin sources are excluded from its scope.
+ *
+ * Analyses of an environment share the storage manager of its dependency module, and its lock guards every
+ * lazy value and memoized function of the module. Values which are already computed are read without the lock,
+ * so concurrent analyses wait for each other only while they load declarations of dependencies which were not
+ * requested before, e.g. right after the module is created.
+ */
+object KotlinDependencyModuleCache {
+    private data class ModuleKey(
+        val environment: KotlinCommonEnvironment,
+        val javaProject: IJavaProject?,
+        val jvmTarget: JvmTarget,
+        val languageVersion: LanguageVersion,
+        val apiVersion: ApiVersion,
+        val abiVersions: List<Long>
+    )
+
+    private val cachedModules = ConcurrentHashMap<ModuleKey, FutureTask<KotlinDependencyModule>>()
+
+    fun getDependencyModule(
+        environment: KotlinCommonEnvironment,
+        javaProject: IJavaProject?,
+        jvmTarget: JvmTarget,
+        languageVersionSettings: LanguageVersionSettings
+    ): KotlinDependencyModule {
+        val key = ModuleKey(
+            environment,
+            javaProject,
+            jvmTarget,
+            languageVersionSettings.languageVersion,
+            languageVersionSettings.apiVersion,
+            getAbiVersions(javaProject)
+        )
+
+        val task = cachedModules.computeIfAbsent(key) {
+            FutureTask { createDependencyModule(environment, javaProject, jvmTarget, languageVersionSettings) }
+        }
+        task.run()
+
+        // Modules of the environment created with other settings or ABI versions are outdated
+        cachedModules.keys.removeIf { it.environment == environment && it != key }
+
+        try {
+            return task.get()
+        } catch (e: ExecutionException) {
+            cachedModules.remove(key, task)
+            throw e.cause ?: e
+        }
+    }
+
+    fun resetCache(environment: KotlinCommonEnvironment) {
+        cachedModules.keys.removeIf { it.environment == environment }
+        KotlinAnalysisFileCache.dependenciesChanged()
+    }
+
+    /**
+     * Java sources of [eclipseProject] are resolved from the dependency module, so it has to be recreated
+     * for the project itself and for every project that depends on it.
+     */
+    fun resetCache(eclipseProject: IProject) {
+        cachedModules.keys
+            .map { it.environment }
+            .filter { it is KotlinEnvironment && dependsOn(it.javaProject, eclipseProject) }
+            .distinct()
+            .forEach { resetCache(it) }
+    }
+
+    fun resetAllCaches() {
+        cachedModules.clear()
+        KotlinAnalysisFileCache.dependenciesChanged()
+    }
+
+    private fun getAbiVersions(javaProject: IJavaProject?): List<Long> {
+        if (javaProject == null || !javaProject.exists()) return emptyList()
+
+        return (listOf(javaProject.project) + ProjectUtils.getDependencyProjects(javaProject))
+            .map { KotlinProjectAbi.getVersion(it) }
+    }
+
+    private fun dependsOn(javaProject: IJavaProject, eclipseProject: IProject): Boolean =
+        javaProject.project == eclipseProject ||
+                (javaProject.exists() && eclipseProject in ProjectUtils.getDependencyProjects(javaProject))
+
+    private fun createDependencyModule(
+        environment: KotlinCommonEnvironment,
+        javaProject: IJavaProject?,
+        jvmTarget: JvmTarget,
+        languageVersionSettings: LanguageVersionSettings
+    ): KotlinDependencyModule {
+        val project = environment.project
+        val projectContext = ProjectContext(project, "dependencies context for project ${project.name}")
+        val builtIns = JvmBuiltIns(projectContext.storageManager, JvmBuiltIns.Kind.FROM_DEPENDENCIES)
+
+        val dependenciesContext = ContextForNewModule(
+            projectContext,
+            Name.special("<dependencies of ${environment.configuration.getNotNull(CommonConfigurationKeys.MODULE_NAME)}>"),
+            builtIns,
+            null
+        )
+
+        val isAdditionalBuiltInsFeatureSupported =
+            languageVersionSettings.supportsFeature(LanguageFeature.AdditionalBuiltInsMembers)
+
+        builtIns.builtInsModule = dependenciesContext.module
+        builtIns.initialize(dependenciesContext.module, isAdditionalBuiltInsFeatureSupported)
+
+        val optionalBuiltInsModule = JvmBuiltIns(projectContext.storageManager, JvmBuiltIns.Kind.FROM_CLASS_LOADER)
+            .apply { initialize(dependenciesContext.module, true) }
+            .builtInsModule
+
+        val packagePartProvider = KotlinPackagePartProvider(environment)
+        val dependencyScope = GlobalSearchScope.notScope(
+            GlobalSearchScope.getScopeRestrictedByFileTypes(GlobalSearchScope.allScope(project), KotlinFileType.INSTANCE))
+        val moduleClassResolver = TopDownAnalyzerFacadeForJVM.SourceOrBinaryModuleClassResolver(GlobalSearchScope.EMPTY_SCOPE)
+        val dependenciesContainer = createContainerForTopDownAnalyzerForJvm(
+            dependenciesContext,
+            CliBindingTrace(),
+            DeclarationProviderFactory.EMPTY,
+            dependencyScope,
+            LookupTracker.DO_NOTHING,
+            packagePartProvider,
+            jvmTarget,
+            languageVersionSettings,
+            moduleClassResolver,
+            javaProject
+        )
+
+        moduleClassResolver.compiledCodeResolver = dependenciesContainer.get<JavaDescriptorResolver>()
+
+        dependenciesContext.setDependencies(listOf(dependenciesContext.module, optionalBuiltInsModule))
+        dependenciesContext.initializeModuleContents(
+            CompositePackageFragmentProvider(listOf(
+                moduleClassResolver.compiledCodeResolver.packageFragmentProvider,
+                dependenciesContainer.get<JvmBuiltInsPackageFragmentProvider>()
+            ))
+        )
+
+        return KotlinDependencyModule(
+            builtIns,
+            dependenciesContext.module,
+            optionalBuiltInsModule,
+            moduleClassResolver.compiledCodeResolver,
+            packagePartProvider
+        )
+    }
+}
@@ -214,6 +214,13 @@ object ProjectUtils {
             }
     }
 
+    fun getTestSourceDirectories(javaProject: IJavaProject): Set<File> {
+        val root = ResourcesPlugin.getWorkspace().root
+        return javaProject.getResolvedClasspath(true)
+            .filter { it.entryKind == IClasspathEntry.CPE_SOURCE && it.isTest }
+            .mapNotNullTo(hashSetOf()) { root.findMember(it.path)?.location?.toFile() }
+    }
+
     fun addToClasspath(javaProject: IJavaProject, vararg newEntries: IClasspathEntry) {
         javaProject.setRawClasspath(javaProject.rawClasspath + newEntries, null)
     }
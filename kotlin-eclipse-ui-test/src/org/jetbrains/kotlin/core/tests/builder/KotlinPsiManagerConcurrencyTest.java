@@ -0,0 +1,94 @@
+package org.jetbrains.kotlin.core.tests.builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IFile;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KotlinPsiManagerConcurrencyTest extends KotlinProjectTestCase {
+    private static final int FILE_COUNT = 50;
+    private static final int THREAD_COUNT = 8;
+
+    private final List<IFile> files = new ArrayList<>();
+
+    @Before
+    public void before() {
+        configureProject();
+
+        for (int i = 0; i < FILE_COUNT; i++) {
+            files.add(createSourceFile("concurrency", "File" + i + ".kt", "package concurrency\n\nclass Class" + i + "\n"));
+        }
+        KotlinPsiManager.INSTANCE.invalidateCachedProjectSourceFiles();
+    }
+
+    @Test
+    public void fileIsParsedOnceForConcurrentReaders() throws Exception {
+        List<List<KtFile>> results = readFromThreads();
+
+        for (int i = 0; i < FILE_COUNT; i++) {
+            KtFile expected = results.get(0).get(i);
+            Assert.assertEquals("Class" + i, expected.getDeclarations().get(0).getName());
+            for (List<KtFile> threadResult : results) {
+                Assert.assertSame(files.get(i).getName(), expected, threadResult.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void invalidatedFilesAreParsedAgain() throws Exception {
+        KtFile parsedFile = KotlinPsiManager.INSTANCE.getParsedFile(files.get(0));
+
+        KotlinPsiManager.INSTANCE.invalidateCachedProjectSourceFiles();
+        List<List<KtFile>> results = readFromThreads();
+
+        KtFile reparsedFile = results.get(0).get(0);
+        Assert.assertNotSame(parsedFile, reparsedFile);
+        for (List<KtFile> threadResult : results) {
+            Assert.assertSame(reparsedFile, threadResult.get(0));
+        }
+    }
+
+    // Every thread reads all files starting from its own file, so threads both share and split the parsing
+    private List<List<KtFile>> readFromThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<KtFile>>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREAD_COUNT; thread++) {
+                int firstFile = thread * FILE_COUNT / THREAD_COUNT;
+                futures.add(executor.submit(() -> {
+                    start.await();
+
+                    KtFile[] parsedFiles = new KtFile[FILE_COUNT];
+                    for (int i = 0; i < FILE_COUNT; i++) {
+                        int index = (firstFile + i) % FILE_COUNT;
+                        parsedFiles[index] = KotlinPsiManager.INSTANCE.getParsedFile(files.get(index));
+                    }
+                    return Arrays.asList(parsedFiles);
+                }));
+            }
+
+            start.countDown();
+
+            List<List<KtFile>> results = new ArrayList<>();
+            for (Future<List<KtFile>> future : futures) {
+                results.add(future.get(1, TimeUnit.MINUTES));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.jetbrains.kotlin.core.tests.compiler;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.eclipse.core.resources.IFile;
+import org.jetbrains.kotlin.core.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.core.compiler.KotlinCompiler;
+import org.jetbrains.kotlin.core.compiler.KotlinCompilerResult;
+import org.jetbrains.kotlin.core.model.KotlinEnvironment;
+import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.diagnostics.Severity;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+
+public class KotlinCompilerServiceTest extends KotlinProjectTestCase {
+    private static final String TEXT = "package test\n\nclass A {\n    fun foo(): List<String> = listOf(\"a\")\n}\n";
+
+    @Before
+    public void before() {
+        configureProjectWithStdLib();
+    }
+
+    @Test
+    public void analysisAfterCompilationUsesSharedApplication() {
+        IFile file = createSourceFile("test", "A.kt", TEXT);
+        Application sharedApplication = KotlinEnvironment.getEnvironment(file.getProject())
+                .getKotlinCoreApplicationEnvironment().getApplication();
+        Assert.assertTrue(getErrors(KotlinPsiManager.INSTANCE.getParsedFile(file)).isEmpty());
+        Assert.assertSame(sharedApplication, ApplicationManager.getApplication());
+
+        KotlinCompilerResult result = KotlinCompiler.compileKotlinFiles(getTestProject().getJavaProject());
+
+        Assert.assertTrue(result.compiledCorrectly());
+        Assert.assertSame(sharedApplication, ApplicationManager.getApplication());
+
+        KtFile changedFile = KotlinPsiManager.getKotlinFileIfExist(file, TEXT.replace("\"a\"", "\"b\""));
+        Assert.assertTrue(getErrors(changedFile).isEmpty());
+        Assert.assertSame(sharedApplication, ApplicationManager.getApplication());
+    }
+
+    private static List<Diagnostic> getErrors(KtFile ktFile) {
+        return KotlinAnalyzer.INSTANCE.analyzeFile(ktFile).getAnalysisResult().getBindingContext().getDiagnostics()
+                .all().stream()
+                .filter(diagnostic -> diagnostic.getSeverity() == Severity.ERROR)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,162 @@
+package org.jetbrains.kotlin.core.tests.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.jetbrains.kotlin.core.filesystem.LightClassCache;
+import org.jetbrains.kotlin.core.filesystem.LightClassCacheStatistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import kotlin.io.FilesKt;
+
+public class LightClassCacheTest {
+    private static final long MAX_WEIGHT = 100;
+
+    private final File a = new File("/project/test/A.class");
+    private final File b = new File("/project/test/B.class");
+    private final File c = new File("/project/test/C.class");
+
+    private File diskFolder;
+
+    @Before
+    public void before() throws IOException {
+        diskFolder = Files.createTempDirectory("lightClasses").toFile();
+    }
+
+    @After
+    public void after() {
+        FilesKt.deleteRecursively(diskFolder);
+    }
+
+    @Test
+    public void storedClassIsReturned() {
+        LightClassCache cache = new LightClassCache(() -> MAX_WEIGHT, null);
+        cache.put(a, bytes(10, 1));
+
+        Assert.assertArrayEquals(bytes(10, 1), cache.get(a));
+        Assert.assertNull(cache.get(b));
+        Assert.assertTrue(cache.contains(a));
+        Assert.assertFalse(cache.contains(b));
+
+        LightClassCacheStatistics statistics = cache.getStatistics();
+        Assert.assertEquals(1, statistics.getHits());
+        Assert.assertEquals(1, statistics.getMisses());
+        Assert.assertEquals(1, statistics.getSize());
+        Assert.assertEquals(10, statistics.getWeight());
+    }
+
+    @Test
+    public void replacedClassChangesWeight() {
+        LightClassCache cache = new LightClassCache(() -> MAX_WEIGHT, null);
+        cache.put(a, bytes(10, 1));
+        cache.put(a, bytes(30, 2));
+
+        Assert.assertArrayEquals(bytes(30, 2), cache.get(a));
+        Assert.assertEquals(30, cache.getStatistics().getWeight());
+
+        cache.remove(a);
+
+        Assert.assertNull(cache.get(a));
+        Assert.assertEquals(0, cache.getStatistics().getWeight());
+    }
+
+    @Test
+    public void leastRecentlyUsedClassIsEvicted() {
+        LightClassCache cache = new LightClassCache(() -> MAX_WEIGHT, null);
+        cache.put(a, bytes(40, 1));
+        cache.put(b, bytes(40, 2));
+        cache.get(a);
+        cache.put(c, bytes(40, 3));
+
+        LightClassCacheStatistics statistics = cache.getStatistics();
+        Assert.assertEquals(1, statistics.getEvictions());
+        Assert.assertEquals(80, statistics.getWeight());
+        Assert.assertTrue(cache.contains(a));
+        Assert.assertFalse(cache.contains(b));
+        Assert.assertTrue(cache.contains(c));
+        Assert.assertNull(cache.get(b));
+    }
+
+    @Test
+    public void cacheIsEvictedBelowLimit() {
+        LightClassCache cache = new LightClassCache(() -> MAX_WEIGHT, null);
+        cache.put(a, bytes(5, 1));
+        cache.put(b, bytes(91, 2));
+        cache.put(c, bytes(8, 3));
+
+        // Evicting only the oldest class would be enough for the limit, but not for 90% of it
+        Assert.assertEquals(2, cache.getStatistics().getEvictions());
+        Assert.assertEquals(8, cache.getStatistics().getWeight());
+        Assert.assertTrue(cache.contains(c));
+    }
+
+    @Test
+    public void evictedClassIsReadFromDisk() {
+        LightClassCache cache = new LightClassCache(() -> MAX_WEIGHT, diskFolder);
+        cache.put(a, bytes(40, 1));
+        cache.put(b, bytes(40, 2));
+        cache.put(c, bytes(40, 3));
+
+        Assert.assertEquals(1, cache.getStatistics().getEvictions());
+        Assert.assertTrue(cache.contains(a));
+        Assert.assertArrayEquals(bytes(40, 1), cache.get(a));
+        Assert.assertEquals(1, cache.getStatistics().getDiskHits());
+        Assert.assertEquals(0, cache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void removedClassIsDeletedFromDisk() {
+        LightClassCache cache = new LightClassCache(() -> MAX_WEIGHT, diskFolder);
+        cache.put(a, bytes(40, 1));
+        cache.put(b, bytes(40, 2));
+        cache.put(c, bytes(40, 3));
+
+        cache.remove(a);
+
+        Assert.assertFalse(cache.contains(a));
+        Assert.assertNull(cache.get(a));
+        Assert.assertEquals(1, cache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void diskFolderIsClearedOnCreation() {
+        LightClassCache cache = new LightClassCache(() -> MAX_WEIGHT, diskFolder);
+        cache.put(a, bytes(40, 1));
+        cache.put(b, bytes(40, 2));
+        cache.put(c, bytes(40, 3));
+
+        LightClassCache newCache = new LightClassCache(() -> MAX_WEIGHT, diskFolder);
+
+        Assert.assertFalse(newCache.contains(a));
+        Assert.assertNull(newCache.get(a));
+    }
+
+    @Test
+    public void cacheIsFullOnlyWithoutDisk() {
+        LightClassCache memoryCache = new LightClassCache(() -> MAX_WEIGHT, null);
+        LightClassCache diskCache = new LightClassCache(() -> MAX_WEIGHT, diskFolder);
+        for (LightClassCache cache : new LightClassCache[] { memoryCache, diskCache }) {
+            cache.put(a, bytes(40, 1));
+            cache.put(b, bytes(60, 2));
+        }
+
+        Assert.assertTrue(memoryCache.isFull());
+        Assert.assertFalse(diskCache.isFull());
+
+        memoryCache.remove(b);
+
+        Assert.assertFalse(memoryCache.isFull());
+    }
+
+    private static byte[] bytes(int size, int value) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (value + i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,159 @@
+package org.jetbrains.kotlin.core.tests.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jetbrains.kotlin.cli.common.ExitCode;
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler;
+import org.jetbrains.kotlin.core.launch.KotlinCLICompiler;
+import org.jetbrains.kotlin.core.model.ClassFileAbi;
+import org.jetbrains.kotlin.core.model.LookupSymbol;
+import org.jetbrains.kotlin.core.utils.ProjectUtils;
+import org.jetbrains.kotlin.utils.PathUtil;
+import org.jetbrains.org.objectweb.asm.ClassWriter;
+import org.jetbrains.org.objectweb.asm.Opcodes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import kotlin.io.FilesKt;
+
+public class ClassFileAbiTest {
+    private static final LookupSymbol CLASS_A = new LookupSymbol("test", "A", false);
+    private static final LookupSymbol MEMBER_FOO = new LookupSymbol("test.A", "foo", true);
+
+    private File tempFolder;
+
+    @Before
+    public void before() throws IOException {
+        tempFolder = Files.createTempDirectory("classFileAbi").toFile();
+    }
+
+    @After
+    public void after() {
+        FilesKt.deleteRecursively(tempFolder);
+    }
+
+    @Test
+    public void bodyOfFunctionIsNotAbi() throws IOException {
+        Set<LookupSymbol> changed = changedSymbols("test/A.class",
+                "package test\nclass A { fun foo(): Int = 1 }",
+                "package test\nclass A { fun foo(): Int = 2 }");
+
+        Assert.assertEquals(symbols(), changed);
+    }
+
+    @Test
+    public void bodyOfInlineFunctionIsAbi() throws IOException {
+        Set<LookupSymbol> changed = changedSymbols("test/A.class",
+                "package test\nclass A { inline fun foo(): Int = 1 }",
+                "package test\nclass A { inline fun foo(): Int = 2 }");
+
+        Assert.assertEquals(symbols(MEMBER_FOO), changed);
+    }
+
+    @Test
+    public void bodyOfTopLevelInlineFunctionIsAbi() throws IOException {
+        Set<LookupSymbol> changed = changedSymbols("test/UtilsKt.class",
+                "package test\ninline fun bar(): Int = 1\nfun baz(): Int = 1",
+                "package test\ninline fun bar(): Int = 2\nfun baz(): Int = 2");
+
+        Assert.assertEquals(symbols(new LookupSymbol("test", "bar", false)), changed);
+    }
+
+    @Test
+    public void privateMembersAreNotAbi() throws IOException {
+        Set<LookupSymbol> changed = changedSymbols("test/A.class",
+                "package test\nclass A { private fun foo(): Int = 1 }",
+                "package test\nclass A { private fun foo(): String = \"\"\n private val x = 1 }");
+
+        Assert.assertEquals(symbols(), changed);
+    }
+
+    @Test
+    public void changedSignatureIsAbi() throws IOException {
+        Set<LookupSymbol> changed = changedSymbols("test/A.class",
+                "package test\nclass A { fun foo(): Int = 1\n fun bar() {} }",
+                "package test\nclass A { fun foo(): Long = 1\n fun bar() {} }");
+
+        Assert.assertEquals(symbols(MEMBER_FOO), changed);
+    }
+
+    @Test
+    public void propertyIsReferredByItsName() throws IOException {
+        Set<LookupSymbol> changed = changedSymbols("test/A.class",
+                "package test\nclass A { val x: Int = 1 }",
+                "package test\nclass A { val x: Long = 1 }");
+
+        Assert.assertTrue(changed.contains(new LookupSymbol("test.A", "x", true)));
+        Assert.assertTrue(changed.contains(new LookupSymbol("test.A", "getX", true)));
+    }
+
+    @Test
+    public void changedHeaderChangesAllSymbols() throws IOException {
+        Set<LookupSymbol> changed = changedSymbols("test/A.class",
+                "package test\nopen class B\nclass A { fun foo() {} }",
+                "package test\nopen class B\nclass A : B() { fun foo() {} }");
+
+        Assert.assertTrue(changed.contains(CLASS_A));
+        Assert.assertTrue(changed.contains(MEMBER_FOO));
+    }
+
+    @Test
+    public void removedClassChangesAllSymbols() throws IOException {
+        ClassFileAbi abi = ClassFileAbi.Companion.read(compile("package test\nclass A { fun foo() {} }", "test/A.class"));
+
+        Set<LookupSymbol> changed = ClassFileAbi.Companion.changedSymbols(abi, null);
+
+        Assert.assertTrue(changed.contains(CLASS_A));
+        Assert.assertTrue(changed.contains(MEMBER_FOO));
+    }
+
+    @Test
+    public void javaClassIsNotRead() {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "test/J", null, "java/lang/Object", null);
+        writer.visitEnd();
+
+        Assert.assertNull(ClassFileAbi.Companion.read(writer.toByteArray()));
+    }
+
+    private Set<LookupSymbol> changedSymbols(String classFile, String oldSource, String newSource) throws IOException {
+        ClassFileAbi oldAbi = ClassFileAbi.Companion.read(compile(oldSource, classFile));
+        ClassFileAbi newAbi = ClassFileAbi.Companion.read(compile(newSource, classFile));
+        Assert.assertNotNull(oldAbi);
+        Assert.assertNotNull(newAbi);
+
+        return ClassFileAbi.Companion.changedSymbols(oldAbi, newAbi);
+    }
+
+    private byte[] compile(String source, String classFile) throws IOException {
+        File folder = Files.createTempDirectory(tempFolder.toPath(), "compilation").toFile();
+        File sourceFile = new File(folder, "Utils.kt");
+        Files.write(sourceFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        File outputFolder = new File(folder, "out");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ExitCode exitCode = KotlinCLICompiler.doMain(new K2JVMCompiler(), new PrintStream(outputStream),
+                new String[] { "-d", outputFolder.getAbsolutePath(),
+                        "-kotlin-home", ProjectUtils.getKtHome(),
+                        "-Xplugin=" + ProjectUtils.buildLibPath(PathUtil.KOTLIN_SCRIPTING_COMPILER_PLUGIN_NAME),
+                        sourceFile.getAbsolutePath() });
+        Assert.assertEquals(outputStream.toString(), ExitCode.OK, exitCode);
+
+        return Files.readAllBytes(new File(outputFolder, classFile).toPath());
+    }
+
+    private static Set<LookupSymbol> symbols(LookupSymbol... symbols) {
+        return symbols.length == 0 ? Collections.emptySet() : new HashSet<>(Arrays.asList(symbols));
+    }
+}
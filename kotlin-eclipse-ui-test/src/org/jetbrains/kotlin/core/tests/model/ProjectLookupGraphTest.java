@@ -0,0 +1,106 @@
+package org.jetbrains.kotlin.core.tests.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.Path;
+import org.jetbrains.kotlin.core.model.FileFingerprint;
+import org.jetbrains.kotlin.core.model.LookupSymbol;
+import org.jetbrains.kotlin.core.model.ProjectLookupGraph;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProjectLookupGraphTest {
+    private static final LookupSymbol CLASS_A = new LookupSymbol("test", "A", false);
+    private static final LookupSymbol FUNCTION_FOO = new LookupSymbol("test", "foo", false);
+    private static final LookupSymbol MEMBER_BAR = new LookupSymbol("test.A", "bar", true);
+
+    private static final FileFingerprint FINGERPRINT = new FileFingerprint(1, 2);
+
+    private final IFile declaringFile = file("A.kt");
+    private final IFile usingFile = file("B.kt");
+    private final IFile otherFile = file("C.kt");
+
+    @Test
+    public void fileLookingUpSymbolIsDependent() {
+        ProjectLookupGraph graph = new ProjectLookupGraph();
+        graph.update(declaringFile, symbols(CLASS_A, FUNCTION_FOO), symbols(), FINGERPRINT);
+        graph.update(usingFile, symbols(), symbols(CLASS_A), FINGERPRINT);
+        graph.update(otherFile, symbols(), symbols(FUNCTION_FOO), FINGERPRINT);
+
+        Assert.assertEquals(files(usingFile), graph.getDependentFiles(symbols(CLASS_A)));
+        Assert.assertEquals(files(usingFile, otherFile), graph.getDependentFiles(symbols(CLASS_A, FUNCTION_FOO)));
+        Assert.assertEquals(files(), graph.getDependentFiles(symbols(new LookupSymbol("test", "B", false))));
+    }
+
+    @Test
+    public void topLevelSymbolIsMatchedInItsScopeOnly() {
+        ProjectLookupGraph graph = new ProjectLookupGraph();
+        graph.update(usingFile, symbols(), symbols(new LookupSymbol("other", "foo", false)), FINGERPRINT);
+
+        Assert.assertEquals(files(), graph.getDependentFiles(symbols(FUNCTION_FOO)));
+    }
+
+    @Test
+    public void classMemberIsMatchedByNameInAnyClass() {
+        ProjectLookupGraph graph = new ProjectLookupGraph();
+        // A member of A looked up through its subclass
+        graph.update(usingFile, symbols(), symbols(new LookupSymbol("test.SubA", "bar", true)), FINGERPRINT);
+        // A top-level function with the same name is not a member
+        graph.update(otherFile, symbols(), symbols(new LookupSymbol("test", "bar", false)), FINGERPRINT);
+
+        Assert.assertEquals(files(usingFile), graph.getDependentFiles(symbols(MEMBER_BAR)));
+    }
+
+    @Test
+    public void updateReplacesLookups() {
+        ProjectLookupGraph graph = new ProjectLookupGraph();
+        graph.update(usingFile, symbols(), symbols(CLASS_A, MEMBER_BAR), FINGERPRINT);
+        graph.update(usingFile, symbols(), symbols(FUNCTION_FOO), FINGERPRINT);
+
+        Assert.assertEquals(files(), graph.getDependentFiles(symbols(CLASS_A)));
+        Assert.assertEquals(files(), graph.getDependentFiles(symbols(MEMBER_BAR)));
+        Assert.assertEquals(files(usingFile), graph.getDependentFiles(symbols(FUNCTION_FOO)));
+    }
+
+    @Test
+    public void removedFileIsNotDependent() {
+        ProjectLookupGraph graph = new ProjectLookupGraph();
+        graph.update(usingFile, symbols(CLASS_A), symbols(FUNCTION_FOO, MEMBER_BAR), FINGERPRINT);
+        graph.update(otherFile, symbols(), symbols(FUNCTION_FOO), FINGERPRINT);
+
+        graph.remove(usingFile);
+
+        Assert.assertEquals(files(otherFile), graph.getDependentFiles(symbols(FUNCTION_FOO, MEMBER_BAR)));
+        Assert.assertEquals(files(otherFile), graph.getFiles());
+        Assert.assertEquals(symbols(), graph.getDeclarations(usingFile));
+        Assert.assertNull(graph.getFingerprint(usingFile));
+    }
+
+    @Test
+    public void declarationsAndFingerprintAreStored() {
+        ProjectLookupGraph graph = new ProjectLookupGraph();
+        graph.update(declaringFile, symbols(CLASS_A, MEMBER_BAR), symbols(FUNCTION_FOO), FINGERPRINT);
+        graph.update(declaringFile, symbols(CLASS_A), symbols(FUNCTION_FOO), new FileFingerprint(3, null));
+
+        Assert.assertEquals(symbols(CLASS_A), graph.getDeclarations(declaringFile));
+        Assert.assertEquals(new FileFingerprint(3, null), graph.getFingerprint(declaringFile));
+        Assert.assertEquals(files(declaringFile), graph.getFiles());
+    }
+
+    private static IFile file(String name) {
+        return ResourcesPlugin.getWorkspace().getRoot().getFile(new Path("/lookupGraphTest/src/test/" + name));
+    }
+
+    private static Set<LookupSymbol> symbols(LookupSymbol... symbols) {
+        return new HashSet<>(Arrays.asList(symbols));
+    }
+
+    private static Set<IFile> files(IFile... files) {
+        return files.length == 0 ? Collections.emptySet() : new HashSet<>(Arrays.asList(files));
+    }
+}
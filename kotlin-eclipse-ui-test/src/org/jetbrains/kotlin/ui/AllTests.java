@@ -33,6 +33,12 @@ import org.junit.runners.Suite;
 	org.jetbrains.kotlin.ui.tests.editors.navigation.AllTests.class,
 	org.jetbrains.kotlin.core.tests.diagnostics.AllDiagnosticsTests.class,
 	org.jetbrains.kotlin.ui.tests.editors.completion.handlers.KotlinCompletionHandlerInsertTest.class,
-	org.jetbrains.kotlin.ui.tests.search.KotlinFindReferencesTest.class} )
+	org.jetbrains.kotlin.ui.tests.search.KotlinFindReferencesTest.class,
+	org.jetbrains.kotlin.ui.tests.utils.LineEndUtilTest.class,
+	org.jetbrains.kotlin.core.tests.filesystem.LightClassCacheTest.class,
+	org.jetbrains.kotlin.core.tests.model.ClassFileAbiTest.class,
+	org.jetbrains.kotlin.core.tests.model.ProjectLookupGraphTest.class,
+	org.jetbrains.kotlin.core.tests.builder.KotlinPsiManagerConcurrencyTest.class,
+	org.jetbrains.kotlin.core.tests.compiler.KotlinCompilerServiceTest.class} )
 public class AllTests {
 }
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.ui.tests.editors;
 
 import org.jetbrains.kotlin.ui.tests.editors.formatter.KotlinFormatActionTest;
 import org.jetbrains.kotlin.ui.tests.editors.highlighting.KotlinHighlightingTest;
+import org.jetbrains.kotlin.ui.tests.editors.highlighting.KotlinLexedDocumentTest;
 import org.jetbrains.kotlin.ui.tests.editors.selection.KotlinSelectEnclosingTest;
 import org.jetbrains.kotlin.ui.tests.editors.selection.KotlinSelectNextTest;
 import org.jetbrains.kotlin.ui.tests.editors.selection.KotlinSelectPreviousTest;
@@ -30,6 +31,7 @@ import org.junit.runners.Suite;
     KotlinBasicAutoIndentTest.class,
     KotlinAnalyzerInIDETest.class,
     KotlinHighlightingTest.class,
+    KotlinLexedDocumentTest.class,
     KotlinBracketInserterTest.class,
     KotlinFormatActionTest.class,
     KotlinCustomLocationBugTest.class,
@@ -130,6 +130,16 @@ public class KotlinHighlightingTest extends KotlinHighlightingTestCase {
 		doAutoTest();
 	}
 	
+	@Test
+	public void softKeywordsAsNames() {
+		doAutoTest();
+	}
+	
+	@Test
+	public void softKeywordsInDeclarations() {
+		doAutoTest();
+	}
+	
 	@Test
 	public void stringInterpolation() {
 		doAutoTest();
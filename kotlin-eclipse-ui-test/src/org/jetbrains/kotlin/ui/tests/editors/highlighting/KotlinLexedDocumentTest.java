@@ -0,0 +1,154 @@
+package org.jetbrains.kotlin.ui.tests.editors.highlighting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.jetbrains.kotlin.ui.editors.highlighting.KotlinLexedDocument;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that tokens which are lexed again after every change are the same as tokens of the whole changed text.
+ */
+public class KotlinLexedDocumentTest {
+    private static final String TEXT =
+            "package test\n" +
+            "\n" +
+            "/* comment */\n" +
+            "fun foo(x: Int): String {\n" +
+            "    val s = \"value ${x + 1} and $x\"\n" +
+            "    return s // end\n" +
+            "}\n";
+
+    private IDocument document;
+    private KotlinLexedDocument lexedDocument;
+
+    @After
+    public void after() {
+        if (lexedDocument != null) {
+            lexedDocument.dispose();
+        }
+    }
+
+    @Test
+    public void letterTypedAfterIdentifier() throws BadLocationException {
+        configure(TEXT);
+        replace(TEXT.indexOf("foo") + 3, 0, "o");
+    }
+
+    @Test
+    public void identifierSplitBySpace() throws BadLocationException {
+        configure(TEXT);
+        replace(TEXT.indexOf("foo") + 1, 0, " ");
+    }
+
+    @Test
+    public void quoteOpensStringUntilEndOfLine() throws BadLocationException {
+        configure(TEXT);
+        int offset = TEXT.indexOf("return");
+        replace(offset, 0, "\"");
+        replace(offset, 1, "");
+    }
+
+    @Test
+    public void commentStartChangesRestOfText() throws BadLocationException {
+        configure(TEXT);
+        int offset = TEXT.indexOf("fun");
+        replace(offset, 0, "/*");
+        replace(offset, 2, "");
+    }
+
+    @Test
+    public void commentEndIsRemoved() throws BadLocationException {
+        configure(TEXT);
+        replace(TEXT.indexOf("*/"), 2, "");
+    }
+
+    @Test
+    public void editInsideStringTemplate() throws BadLocationException {
+        configure(TEXT);
+        int offset = TEXT.indexOf("x + 1");
+        replace(offset, 5, "}\"");
+        replace(offset, 2, "x * 2");
+    }
+
+    @Test
+    public void changeAcrossSeveralTokens() throws BadLocationException {
+        configure(TEXT);
+        int start = TEXT.indexOf("(x");
+        replace(start, TEXT.indexOf("{") - start, "() = \"");
+    }
+
+    @Test
+    public void changesAtStartAndEnd() throws BadLocationException {
+        configure(TEXT);
+        replace(0, 0, "@file:JvmName(\"A\")\n");
+        replace(0, 1, "");
+        replace(document.getLength(), 0, "fun bar() = 1");
+        replace(document.getLength() - 1, 1, "");
+    }
+
+    @Test
+    public void wholeTextIsReplaced() throws BadLocationException {
+        configure(TEXT);
+        replace(0, document.getLength(), "val x = 1");
+        replace(0, document.getLength(), "");
+        replace(0, 0, TEXT);
+    }
+
+    @Test
+    public void carriageReturnsAreTokensOfDocument() throws BadLocationException {
+        configure(TEXT.replace("\n", "\r\n"));
+        replace(document.get().indexOf("foo") + 3, 0, "o");
+        replace(document.get().indexOf("\r\n"), 2, "");
+
+        for (int i = 0; i < lexedDocument.getTokenCount(); i++) {
+            Assert.assertTrue(lexedDocument.getTokenStart(i) < lexedDocument.getTokenEnd(i));
+        }
+        Assert.assertEquals(document.getLength(), lexedDocument.getTokenEnd(lexedDocument.getTokenCount() - 1));
+    }
+
+    @Test
+    public void tokenIndexIsFoundByOffset() {
+        configure(TEXT);
+
+        for (int i = 0; i < lexedDocument.getTokenCount(); i++) {
+            Assert.assertEquals(i, lexedDocument.getTokenIndex(lexedDocument.getTokenStart(i)));
+            Assert.assertEquals(i, lexedDocument.getTokenIndex(lexedDocument.getTokenEnd(i) - 1));
+        }
+    }
+
+    private void configure(String text) {
+        document = new Document(text);
+        lexedDocument = new KotlinLexedDocument(document);
+        assertSameTokens();
+    }
+
+    private void replace(int offset, int length, String text) throws BadLocationException {
+        document.replace(offset, length, text);
+        assertSameTokens();
+    }
+
+    private void assertSameTokens() {
+        KotlinLexedDocument expected = new KotlinLexedDocument(new Document(document.get()));
+        try {
+            Assert.assertEquals(document.get(), tokens(expected), tokens(lexedDocument));
+        } finally {
+            expected.dispose();
+        }
+    }
+
+    private static List<String> tokens(KotlinLexedDocument lexedDocument) {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < lexedDocument.getTokenCount(); i++) {
+            tokens.add(lexedDocument.getTokenStart(i) + "-" + lexedDocument.getTokenEnd(i) + " " +
+                    lexedDocument.getTokenType(i));
+        }
+
+        return tokens;
+    }
+}
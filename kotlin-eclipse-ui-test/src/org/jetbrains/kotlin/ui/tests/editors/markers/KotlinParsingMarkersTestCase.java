@@ -16,6 +16,9 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.ui.tests.editors.markers;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
@@ -61,9 +64,8 @@ public abstract class KotlinParsingMarkersTestCase extends KotlinEditorWithAfter
         }
         
         KotlinPsiManager.getKotlinFileIfExist(file, EditorUtil.getSourceCode(getTestEditor().getEditor())); // We should update file because problem markers are adding manually
-        for (DiagnosticAnnotation annotation : DiagnosticAnnotationUtil.INSTANCE.createParsingDiagnosticAnnotations(file)) {
-            AnnotationManager.INSTANCE.addProblemMarker(annotation, file);
-        }
+        List<DiagnosticAnnotation> annotations = DiagnosticAnnotationUtil.INSTANCE.createParsingDiagnosticAnnotations(file);
+        AnnotationManager.INSTANCE.updateProblemMarkers(Collections.singletonMap(file, annotations));
         
         return getTestEditor().getEditingFile().findMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE);   
     }
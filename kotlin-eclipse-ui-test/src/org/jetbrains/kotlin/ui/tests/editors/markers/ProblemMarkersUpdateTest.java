@@ -0,0 +1,100 @@
+package org.jetbrains.kotlin.ui.tests.editors.markers;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.jetbrains.kotlin.testframework.editor.KotlinProjectTestCase;
+import org.jetbrains.kotlin.ui.editors.annotations.AnnotationManager;
+import org.jetbrains.kotlin.ui.editors.annotations.DiagnosticAnnotation;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProblemMarkersUpdateTest extends KotlinProjectTestCase {
+    // Not a Kotlin file, so builders don't change its markers during the test
+    private static final String FILE_NAME = "markers.txt";
+    private static final String FILE_TEXT = "fun foo() {}\nfun bar() {}\n";
+
+    private IFile file;
+
+    @Before
+    public void before() throws CoreException {
+        configureProject();
+
+        file = getTestProject().getProject().getFile(FILE_NAME);
+        if (!file.exists()) {
+            file.create(new ByteArrayInputStream(FILE_TEXT.getBytes()), true, null);
+        }
+        file.deleteMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE);
+    }
+
+    @Test
+    public void markerWithUnchangedAttributesIsKept() throws CoreException {
+        updateMarkers(createAnnotation(4, 3, "Error in foo"));
+        IMarker marker = getSingleMarker();
+
+        updateMarkers(createAnnotation(4, 3, "Error in foo"));
+
+        Assert.assertEquals(marker.getId(), getSingleMarker().getId());
+    }
+
+    @Test
+    public void changedMarkerIsReplaced() throws CoreException {
+        updateMarkers(createAnnotation(4, 3, "Error in foo"));
+        IMarker marker = getSingleMarker();
+
+        updateMarkers(createAnnotation(4, 3, "Another error in foo"));
+
+        IMarker newMarker = getSingleMarker();
+        Assert.assertNotEquals(marker.getId(), newMarker.getId());
+        Assert.assertFalse(marker.exists());
+        Assert.assertEquals("Another error in foo", newMarker.getAttribute(IMarker.MESSAGE));
+    }
+
+    @Test
+    public void leftoverMarkerIsDeleted() throws CoreException {
+        updateMarkers(createAnnotation(4, 3, "Error in foo"), createAnnotation(17, 3, "Error in bar"));
+        IMarker[] markers = getMarkers();
+        Assert.assertEquals(2, markers.length);
+
+        updateMarkers(createAnnotation(4, 3, "Error in foo"));
+
+        IMarker marker = getSingleMarker();
+        Assert.assertEquals("Error in foo", marker.getAttribute(IMarker.MESSAGE));
+        Assert.assertTrue(Arrays.stream(markers).anyMatch(it -> it.getId() == marker.getId()));
+    }
+
+    @Test
+    public void allMarkersAreDeletedWithoutAnnotations() throws CoreException {
+        updateMarkers(createAnnotation(4, 3, "Error in foo"), createAnnotation(17, 3, "Error in bar"));
+
+        updateMarkers();
+
+        Assert.assertEquals(0, getMarkers().length);
+    }
+
+    private void updateMarkers(DiagnosticAnnotation... annotations) {
+        AnnotationManager.INSTANCE.updateProblemMarkers(Collections.singletonMap(file, Arrays.asList(annotations)));
+    }
+
+    private DiagnosticAnnotation createAnnotation(int offset, int length, String message) {
+        String markedText = FILE_TEXT.substring(offset, offset + length);
+        return new DiagnosticAnnotation(1, offset, length, AnnotationManager.ANNOTATION_ERROR_TYPE, message, markedText,
+                file, null);
+    }
+
+    private IMarker[] getMarkers() throws CoreException {
+        return file.findMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE);
+    }
+
+    private IMarker getSingleMarker() throws CoreException {
+        IMarker[] markers = getMarkers();
+        Assert.assertEquals(1, markers.length);
+        return markers[0];
+    }
+}
@@ -0,0 +1,94 @@
+package org.jetbrains.kotlin.ui.tests.utils;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.jetbrains.kotlin.eclipse.ui.utils.LineEndUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineEndUtilTest {
+    // a \r \n b c \r \n \r \n d
+    private static final String CRLF_TEXT = "a\r\nbc\r\n\r\nd";
+    // a \n b c \n \n d
+    private static final String LF_TEXT = "a\nbc\n\nd";
+
+    @Test
+    public void lfOffsetsAreConvertedToCrLfDocument() {
+        IDocument document = new Document(CRLF_TEXT);
+
+        int[] expected = { 0, 1, 3, 4, 5, 7, 9, 10 };
+        for (int lfOffset = 0; lfOffset <= LF_TEXT.length(); lfOffset++) {
+            Assert.assertEquals("LF offset " + lfOffset, expected[lfOffset],
+                    LineEndUtil.convertLfToDocumentOffset(LF_TEXT, lfOffset, document));
+        }
+    }
+
+    @Test
+    public void crLfDocumentOffsetsAreConvertedToLf() {
+        IDocument document = new Document(CRLF_TEXT);
+
+        // Offsets at a carriage return and just past it point to the same line break
+        int[] expected = { 0, 1, 1, 2, 3, 4, 4, 5, 5, 6, 7 };
+        for (int crOffset = 0; crOffset <= CRLF_TEXT.length(); crOffset++) {
+            Assert.assertEquals("CRLF offset " + crOffset, expected[crOffset],
+                    LineEndUtil.convertCrToDocumentOffset(document, crOffset));
+            Assert.assertEquals("CRLF offset " + crOffset, expected[crOffset],
+                    LineEndUtil.convertCrToDocumentOffset(CRLF_TEXT, crOffset, document));
+        }
+    }
+
+    @Test
+    public void lfOffsetsSurviveRoundTrip() {
+        IDocument document = new Document(CRLF_TEXT);
+
+        for (int lfOffset = 0; lfOffset <= LF_TEXT.length(); lfOffset++) {
+            int crOffset = LineEndUtil.convertLfToDocumentOffset(LF_TEXT, lfOffset, document);
+            Assert.assertEquals(lfOffset, LineEndUtil.convertCrToDocumentOffset(document, crOffset));
+        }
+    }
+
+    @Test
+    public void offsetsAreNotChangedForLfDocument() {
+        IDocument document = new Document(LF_TEXT);
+
+        for (int offset = 0; offset <= LF_TEXT.length(); offset++) {
+            Assert.assertEquals(offset, LineEndUtil.convertLfToDocumentOffset(LF_TEXT, offset, document));
+            Assert.assertEquals(offset, LineEndUtil.convertCrToDocumentOffset(document, offset));
+        }
+    }
+
+    @Test
+    public void offsetsAreNotChangedForCrDocument() {
+        String crText = "a\rbc\r\rd";
+        IDocument document = new Document(crText);
+
+        for (int offset = 0; offset <= crText.length(); offset++) {
+            Assert.assertEquals(offset, LineEndUtil.convertLfToDocumentOffset(LF_TEXT, offset, document));
+            Assert.assertEquals(offset, LineEndUtil.convertCrToDocumentOffset(document, offset));
+        }
+    }
+
+    @Test
+    public void conversionFollowsDocumentChanges() throws BadLocationException {
+        IDocument document = new Document(CRLF_TEXT);
+        Assert.assertEquals(6, LineEndUtil.convertCrToDocumentOffset(document, 9));
+
+        document.replace(0, 0, "x\r\n");
+
+        Assert.assertEquals(8, LineEndUtil.convertCrToDocumentOffset(document, 12));
+        Assert.assertEquals(12, LineEndUtil.convertLfToDocumentOffset("x\n" + LF_TEXT, 8, document));
+    }
+
+    @Test
+    public void lfOffsetsAreConvertedForMixedDocument() {
+        // a \r \n b \n c
+        IDocument document = new Document("a\r\nb\nc");
+
+        Assert.assertEquals(0, LineEndUtil.convertLfOffsetForMixedDocument(document, 0));
+        Assert.assertEquals(1, LineEndUtil.convertLfOffsetForMixedDocument(document, 1));
+        Assert.assertEquals(3, LineEndUtil.convertLfOffsetForMixedDocument(document, 2));
+        Assert.assertEquals(4, LineEndUtil.convertLfOffsetForMixedDocument(document, 3));
+        Assert.assertEquals(5, LineEndUtil.convertLfOffsetForMixedDocument(document, 4));
+    }
+}
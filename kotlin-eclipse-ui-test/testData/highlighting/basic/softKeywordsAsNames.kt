@@ -0,0 +1,7 @@
+<keyword>fun</keyword> test(files: List<String>, list: List<Int>) {
+	<keyword>for</keyword> (file <keyword>in</keyword> files) {}
+	<keyword>for</keyword> (value <keyword>in</keyword> list) {}
+	get(1)
+	init(2)
+	<keyword>val</keyword> data = open(files)
+}
\ No newline at end of file
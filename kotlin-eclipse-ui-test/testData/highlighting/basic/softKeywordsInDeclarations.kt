@@ -0,0 +1,20 @@
+@<keyword>file</keyword>:JvmName(<string>"Utils"</string>)
+
+<keyword>abstract</keyword> <keyword>class</keyword> Base <keyword>private</keyword> <keyword>constructor</keyword>(<keyword>vararg</keyword> names: String) {
+	<keyword>init</keyword> {
+	}
+	
+	<keyword>var</keyword> size: Int = 0
+		<keyword>private</keyword> <keyword>set</keyword>
+	
+	<keyword>val</keyword> lazyValue <keyword>by</keyword> lazy { 1 }
+	
+	<keyword>val</keyword> block: <keyword>suspend</keyword> () -> Unit = {}
+	
+	<keyword>fun</keyword> <T> foo() <keyword>where</keyword> T : Any {
+		<keyword>try</keyword> {
+		} <keyword>catch</keyword> (e: Exception) {
+		} <keyword>finally</keyword> {
+		}
+	}
+}
\ No newline at end of file
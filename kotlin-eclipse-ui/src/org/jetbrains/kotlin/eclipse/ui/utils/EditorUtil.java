@@ -111,6 +111,6 @@ public class EditorUtil {
     @Nullable
     public static KtFile updatePsiFile(@NotNull KotlinEditor editor) {
         IFile file = editor.getEclipseFile();
-        return file != null ? KotlinPsiManager.getKotlinFileIfExist(file, editor.getDocument().get()) : null;
+        return file != null ? KotlinPsiManager.getKotlinFileIfExist(file, editor.getDocument()) : null;
     }
 }
\ No newline at end of file
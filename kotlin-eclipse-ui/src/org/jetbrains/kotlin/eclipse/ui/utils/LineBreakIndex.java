@@ -0,0 +1,129 @@
+package org.jetbrains.kotlin.eclipse.ui.utils;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sorted positions of one line break char in a text, so the number of line breaks before an offset is found
+ * by a binary search instead of a scan from the text start.
+ * <p>
+ * Indices of documents are cached until the document is modified, indices of strings are cached for the last
+ * few string instances: callers convert many offsets of the same PSI text in a row.
+ */
+class LineBreakIndex {
+    private static final int CACHED_TEXTS_COUNT = 8;
+
+    private static final Map<IDocument, LineBreakIndex> documentIndices = new WeakHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private static final WeakReference<String>[] cachedTexts = new WeakReference[CACHED_TEXTS_COUNT];
+    private static final LineBreakIndex[] cachedTextIndices = new LineBreakIndex[CACHED_TEXTS_COUNT];
+    private static int nextCachedText = 0;
+
+    private final char lineBreak;
+    private final int[] positions;
+    private final long modificationStamp;
+    private final int firstCarriageReturn;
+
+    private LineBreakIndex(@NotNull CharSequence text, char lineBreak, long modificationStamp) {
+        this.lineBreak = lineBreak;
+        this.modificationStamp = modificationStamp;
+
+        int count = 0;
+        int[] found = new int[16];
+        int carriageReturn = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == LineEndUtil.CARRIAGE_RETURN_CHAR && carriageReturn == -1) {
+                carriageReturn = i;
+            }
+            
+            if (c == lineBreak) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = i;
+            }
+        }
+
+        positions = Arrays.copyOf(found, count);
+        firstCarriageReturn = carriageReturn;
+    }
+
+    @NotNull
+    static LineBreakIndex forText(@NotNull String text, char lineBreak) {
+        synchronized (cachedTexts) {
+            for (int i = 0; i < CACHED_TEXTS_COUNT; i++) {
+                WeakReference<String> cachedText = cachedTexts[i];
+                LineBreakIndex index = cachedTextIndices[i];
+                if (cachedText != null && cachedText.get() == text && index.lineBreak == lineBreak) {
+                    return index;
+                }
+            }
+
+            LineBreakIndex index = new LineBreakIndex(text, lineBreak, IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP);
+            cachedTexts[nextCachedText] = new WeakReference<>(text);
+            cachedTextIndices[nextCachedText] = index;
+            nextCachedText = (nextCachedText + 1) % CACHED_TEXTS_COUNT;
+
+            return index;
+        }
+    }
+
+    // Only indices of carriage returns are cached for documents, as document text contains them
+    @NotNull
+    static LineBreakIndex forDocument(@NotNull IDocument document) {
+        if (!(document instanceof IDocumentExtension4)) {
+            return new LineBreakIndex(document.get(), LineEndUtil.CARRIAGE_RETURN_CHAR, IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP);
+        }
+
+        long stamp = ((IDocumentExtension4) document).getModificationStamp();
+        synchronized (documentIndices) {
+            LineBreakIndex index = documentIndices.get(document);
+            if (index == null || index.modificationStamp != stamp || stamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+                index = new LineBreakIndex(document.get(), LineEndUtil.CARRIAGE_RETURN_CHAR, stamp);
+                documentIndices.put(document, index);
+            }
+
+            return index;
+        }
+    }
+
+    boolean hasCarriageReturnBefore(int offset) {
+        return firstCarriageReturn != -1 && firstCarriageReturn < offset;
+    }
+
+    /**
+     * Number of line breaks at positions less than {@code offset}.
+     */
+    int countBefore(int offset) {
+        int index = Arrays.binarySearch(positions, offset);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Offset in the text of the {@code offset}-th char which is not a line break.
+     */
+    int offsetSkippingLineBreaks(int offset) {
+        // The i-th line break is preceded by (positions[i] - i) other chars, and it is skipped if they are
+        // fewer than offset. These counts don't decrease, so the number of skipped line breaks is binary searched
+        int low = 0;
+        int high = positions.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (positions[middle] - middle < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return offset + low;
+    }
+}
@@ -37,37 +37,16 @@ public class LineEndUtil {
         
         assertLineSeparator(documentLineDelimiter);
         
-        // In CrLf move to new line takes 2 char instead of 1 in Lf
-        return lfOffset + offsetToLineNumber(lfText, lfOffset);
-    }
-
-    private static int offsetToLineNumber(String lfText, int offset) {
-        int line = 0;
-        int curOffset = 0;
-        
-        while (curOffset < offset) {
-            if (curOffset == lfText.length()) {
-                break;
-            }
-            
-            char c = lfText.charAt(curOffset);
-            if (c == NEW_LINE_CHAR) {
-                line++;
-            } else if (c == CARRIAGE_RETURN_CHAR) {
-                throw new IllegalArgumentException("Given text shouldn't contain \\r char");
-            }
-            
-            curOffset++;
+        LineBreakIndex index = LineBreakIndex.forText(lfText, NEW_LINE_CHAR);
+        if (index.hasCarriageReturnBefore(lfOffset)) {
+            throw new IllegalArgumentException("Given text shouldn't contain \\r char");
         }
         
-        return line;
+        // In CrLf move to new line takes 2 char instead of 1 in Lf
+        return lfOffset + index.countBefore(lfOffset);
     }
     
     public static int convertCrToDocumentOffset(@NotNull IDocument document, int crOffset) {
-        return convertCrToDocumentOffset(document.get(), crOffset, document);
-    }
-    
-    public static int convertCrToDocumentOffset(@NotNull String crText, int crOffset, @NotNull IDocument document) {
         String defaultLineDelimiter = TextUtilities.getDefaultLineDelimiter(document);
         if (defaultLineDelimiter.length() == 1) {
             return crOffset;
@@ -75,27 +54,18 @@ public class LineEndUtil {
         
         assertLineSeparator(defaultLineDelimiter);
         
-        return crOffset - countCrToLineNumber(crText, crOffset);
+        return crOffset - LineBreakIndex.forDocument(document).countBefore(crOffset);
     }
     
-    private static int countCrToLineNumber(String lfText, int offset) {
-        int countCR = 0;
-        int curOffset = 0;
-        
-        while (curOffset < offset) {
-            if (curOffset == lfText.length()) {
-                break;
-            }
-            
-            char c = lfText.charAt(curOffset);
-            if (c == CARRIAGE_RETURN_CHAR) {
-                countCR++;
-            } 
-            
-            curOffset++;
+    public static int convertCrToDocumentOffset(@NotNull String crText, int crOffset, @NotNull IDocument document) {
+        String defaultLineDelimiter = TextUtilities.getDefaultLineDelimiter(document);
+        if (defaultLineDelimiter.length() == 1) {
+            return crOffset;
         }
         
-        return countCR;  
+        assertLineSeparator(defaultLineDelimiter);
+        
+        return crOffset - LineBreakIndex.forText(crText, CARRIAGE_RETURN_CHAR).countBefore(crOffset);
     }
     
     private static void assertLineSeparator(String osLineSeparator) {
@@ -122,18 +92,6 @@ public class LineEndUtil {
     }
 
     public static int convertLfOffsetForMixedDocument(@NotNull IDocument document, int lfOffset) {
-        int countCRs = 0;
-        int current = 0;
-        String text = document.get();
-
-
-        while (current - countCRs < lfOffset) {
-            if (text.charAt(current) == CARRIAGE_RETURN_CHAR) {
-                countCRs++;
-            }
-            current++;
-        }
-
-        return current;
+        return LineBreakIndex.forDocument(document).offsetSkippingLineBreaks(lfOffset);
     }
 }
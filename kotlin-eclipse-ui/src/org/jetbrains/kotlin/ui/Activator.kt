@@ -19,11 +19,13 @@ package org.jetbrains.kotlin.ui
 import org.eclipse.core.resources.IResourceChangeEvent
 import org.eclipse.core.resources.IResourceChangeListener
 import org.eclipse.core.resources.ResourcesPlugin
+import org.eclipse.debug.core.DebugPlugin
 import org.eclipse.jdt.core.IElementChangedListener
 import org.eclipse.jdt.core.JavaCore
 import org.eclipse.ui.plugin.AbstractUIPlugin
 import org.jetbrains.kotlin.ui.builder.KotlinClassPathListener
 import org.jetbrains.kotlin.ui.builder.KotlinJavaDeclarationsListener
+import org.jetbrains.kotlin.ui.builder.KotlinLaunchBuild
 import org.jetbrains.kotlin.ui.builder.ResourceChangeListener
 import org.osgi.framework.BundleContext
 
@@ -47,6 +49,7 @@ class Activator : AbstractUIPlugin() {
 		ResourcesPlugin.getWorkspace().addResourceChangeListener(scriptClasspathUpdater, IResourceChangeEvent.POST_CHANGE)
 		JavaCore.addElementChangedListener(kotlinClassPathChangedListener)
 		JavaCore.addElementChangedListener(kotlinJavaDeclarationsListener)
+		DebugPlugin.getDefault().launchManager.addLaunchListener(KotlinLaunchBuild)
 	}
 
 	@Override
@@ -55,6 +58,7 @@ class Activator : AbstractUIPlugin() {
 		ResourcesPlugin.getWorkspace().removeResourceChangeListener(scriptClasspathUpdater)
 		JavaCore.removeElementChangedListener(kotlinClassPathChangedListener)
 		JavaCore.removeElementChangedListener(kotlinJavaDeclarationsListener)
+		DebugPlugin.getDefault()?.launchManager?.removeLaunchListener(KotlinLaunchBuild)
 
 		plugin = null
 		super.stop(context)
@@ -7,14 +7,17 @@ import org.eclipse.core.resources.ResourcesPlugin
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.ui.PlatformUI
 import org.jetbrains.kotlin.core.asJava.KotlinLightClassGeneration
+import org.jetbrains.kotlin.core.asJava.KotlinLightClassPregeneration
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
+import org.jetbrains.kotlin.core.compiler.KotlinCompilerResult
+import org.jetbrains.kotlin.core.compiler.KotlinCompilerUtils
+import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
 import org.jetbrains.kotlin.core.model.KotlinScriptEnvironment
 import org.jetbrains.kotlin.core.resolve.lang.java.structure.EclipseJavaElementUtil
 import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil
 import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
 import org.jetbrains.kotlin.ui.editors.KotlinFileEditor
 import org.jetbrains.kotlin.ui.editors.annotations.AnnotationManager
-import org.jetbrains.kotlin.ui.editors.annotations.DiagnosticAnnotation
 import org.jetbrains.kotlin.ui.editors.annotations.DiagnosticAnnotationUtil
 import org.jetbrains.kotlin.ui.editors.quickfix.removeMarkers
 
@@ -41,9 +44,26 @@ abstract class BaseKotlinBuilderElement {
         clearProblemAnnotationsFromOpenEditorsExcept(emptyList())
         clearMarkersFromFiles(existingFiles)
 
+        KotlinBuildCoordinator.updateAbi(javaProject.project, kotlinFiles)
+
+        KotlinAnalysisProjectCache.resetCache(javaProject.project)
         runCancellableAnalysisFor(javaProject) { analysisResult ->
-            updateLineMarkers(analysisResult.bindingContext.diagnostics, existingFiles)
-            KotlinLightClassGeneration.updateLightClasses(javaProject.project, kotlinFiles)
+            updateLineMarkers(analysisResult.diagnostics, existingFiles)
+            KotlinLightClassGeneration.recreateLightClasses(javaProject.project, kotlinFiles)
+            KotlinLightClassPregeneration.schedule(javaProject.project)
+        }
+    }
+
+    /**
+     * A build triggered only by changes in upstream projects is skipped if their ABI didn't change.
+     */
+    protected fun canSkipBuild(project: IProject, delta: IResourceDelta?, allAffectedFiles: Set<IFile>): Boolean =
+        delta != null && allAffectedFiles.isEmpty() && !KotlinBuildCoordinator.isUpstreamAbiChanged(project)
+
+    protected fun compileKotlinFilesIncrementally(javaProject: IJavaProject) {
+        val compilerResult: KotlinCompilerResult = KotlinCompilerUtils.compileProjectIncrementally(javaProject)
+        if (!compilerResult.compiledCorrectly()) {
+            KotlinCompilerUtils.handleCompilerOutput(compilerResult.compilerOutput)
         }
     }
 
@@ -70,8 +90,10 @@ abstract class BaseKotlinBuilderElement {
     }
 
     protected fun updateLineMarkers(diagnostics: Diagnostics, affectedFiles: List<IFile>) {
-        clearMarkersFromFiles(affectedFiles)
-        addMarkersToProject(DiagnosticAnnotationUtil.INSTANCE.handleDiagnostics(diagnostics), affectedFiles)
+        val annotations = DiagnosticAnnotationUtil.INSTANCE.handleDiagnostics(diagnostics)
+        affectedFiles.forEach { DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(it, annotations) }
+
+        AnnotationManager.updateProblemMarkers(affectedFiles.associateWith { annotations[it].orEmpty() })
     }
 }
 
@@ -94,13 +116,6 @@ fun clearProblemAnnotationsFromOpenEditorsExcept(affectedFiles: List<IFile>) {
     }
 }
 
-private fun addMarkersToProject(annotations: Map<IFile, List<DiagnosticAnnotation>>, affectedFiles: List<IFile>) {
-    for (file in affectedFiles) {
-        DiagnosticAnnotationUtil.INSTANCE.addParsingDiagnosticAnnotations(file, annotations)
-        annotations[file]?.forEach { AnnotationManager.addProblemMarker(it, file) }
-    }
-}
-
 interface KotlinFileFilterForBuild {
     fun isApplicable(file: IFile, javaProject: IJavaProject): Boolean
 }
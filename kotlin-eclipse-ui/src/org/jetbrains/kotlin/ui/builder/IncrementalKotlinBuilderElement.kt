@@ -5,12 +5,9 @@ import org.eclipse.core.resources.IResourceDelta
 import org.eclipse.core.resources.IncrementalProjectBuilder
 import org.eclipse.core.runtime.Status
 import org.eclipse.core.runtime.jobs.Job
-import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
 import org.jetbrains.kotlin.core.asJava.KotlinLightClassGeneration
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
-import org.jetbrains.kotlin.core.compiler.KotlinCompilerResult
-import org.jetbrains.kotlin.core.compiler.KotlinCompilerUtils
 import org.jetbrains.kotlin.core.model.runJob
 import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
 import org.jetbrains.kotlin.ui.KotlinPluginUpdater
@@ -25,9 +22,12 @@ class IncrementalKotlinBuilderElement : BaseKotlinBuilderElement() {
             return null
         }
 
-        compileKotlinFilesIncrementally(javaProject)
-
         val allAffectedFiles = if (delta != null) getAllAffectedFiles(delta) else emptySet()
+        if (canSkipBuild(project, delta, allAffectedFiles)) {
+            return null
+        }
+
+        compileKotlinFilesIncrementally(javaProject)
 
         if (allAffectedFiles.isNotEmpty()) {
             if (isAllFilesApplicableForFilters(allAffectedFiles, javaProject)) {
@@ -43,6 +43,7 @@ class IncrementalKotlinBuilderElement : BaseKotlinBuilderElement() {
         val existingAffectedFiles = kotlinAffectedFiles.filter { it.exists() }
 
         commitFiles(existingAffectedFiles)
+        KotlinBuildCoordinator.updateAbiFromOutput(project, kotlinAffectedFiles)
 
         KotlinLightClassGeneration.updateLightClasses(javaProject.project, kotlinAffectedFiles)
         if (kotlinAffectedFiles.isNotEmpty()) {
@@ -55,29 +56,21 @@ class IncrementalKotlinBuilderElement : BaseKotlinBuilderElement() {
 
         val ktFiles = existingAffectedFiles.map { KotlinPsiManager.getParsedFile(it) }
 
-        val analysisResultWithProvider = if (ktFiles.isEmpty())
-            KotlinAnalyzer.analyzeProject(project)
-        else
-            KotlinAnalyzer.analyzeFiles(ktFiles)
+        // Without own changes, files affected by upstream projects are analyzed by the background analysis
+        if (ktFiles.isNotEmpty()) {
+            val analysisResultWithProvider = KotlinAnalyzer.analyzeFiles(ktFiles)
 
-        clearProblemAnnotationsFromOpenEditorsExcept(existingAffectedFiles)
-        updateLineMarkers(analysisResultWithProvider.analysisResult.bindingContext.diagnostics, existingAffectedFiles)
+            clearProblemAnnotationsFromOpenEditorsExcept(existingAffectedFiles)
+            updateLineMarkers(analysisResultWithProvider.analysisResult.bindingContext.diagnostics, existingAffectedFiles)
+        }
 
         runCancellableAnalysisFor(javaProject) { analysisResult ->
-            val projectFiles = KotlinPsiManager.getFilesByProject(javaProject.project)
             updateLineMarkers(
-                analysisResult.bindingContext.diagnostics,
-                (projectFiles - existingAffectedFiles).toList()
+                analysisResult.diagnostics,
+                (analysisResult.analyzedFiles - existingAffectedFiles).toList()
             )
         }
 
         return null
     }
-
-    private fun compileKotlinFilesIncrementally(javaProject: IJavaProject) {
-        val compilerResult: KotlinCompilerResult = KotlinCompilerUtils.compileProjectIncrementally(javaProject)
-        if (!compilerResult.compiledCorrectly()) {
-            KotlinCompilerUtils.handleCompilerOutput(compilerResult.compilerOutput)
-        }
-    }
-}
\ No newline at end of file
+}
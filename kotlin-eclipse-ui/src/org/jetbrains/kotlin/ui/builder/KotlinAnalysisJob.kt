@@ -24,13 +24,17 @@ import org.eclipse.core.runtime.jobs.IJobChangeEvent
 import org.eclipse.core.runtime.jobs.Job
 import org.eclipse.core.runtime.jobs.JobChangeAdapter
 import org.eclipse.jdt.core.IJavaProject
-import org.jetbrains.kotlin.analyzer.AnalysisResult
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
+import org.jetbrains.kotlin.core.model.KotlinAnalysisScheduler
+import org.jetbrains.kotlin.core.model.ProjectAnalysisResult
 import org.jetbrains.kotlin.progress.CompilationCanceledException
-import org.jetbrains.kotlin.progress.CompilationCanceledStatus
-import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
+import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
 
 public class KotlinAnalysisJob(private val javaProject: IJavaProject) : Job("Kotlin Analysis") {
+    companion object {
+        private const val RESCHEDULE_DELAY = 1000L
+    }
+    
     init {
         setPriority(DECORATE)
         setSystem(true)
@@ -44,23 +48,22 @@ public class KotlinAnalysisJob(private val javaProject: IJavaProject) : Job("Kot
         try {
             canceled = false
             
-            ProgressIndicatorAndCompilationCanceledStatus.setCompilationCanceledStatus(object : CompilationCanceledStatus {
-                override fun checkCanceled() {
-                    if (canceled) throw CompilationCanceledException()
-                }
-            })
-            
             if (!javaProject.isOpen) {
                 return Status.OK_STATUS
             }
             
-            val analysisResult = KotlinAnalysisProjectCache.getAnalysisResult(javaProject)
+            val analysisResult = KotlinAnalysisScheduler.analyzeProject(javaProject.project, { canceled }) {
+                KotlinAnalysisProjectCache.getAnalysisResult(javaProject)
+            }
             
             return AnalysisResultStatus(Status.OK_STATUS, analysisResult)
         } catch (e: CompilationCanceledException) {
-            return AnalysisResultStatus(Status.CANCEL_STATUS, AnalysisResult.EMPTY)
-        } finally {
-            ProgressIndicatorAndCompilationCanceledStatus.setCompilationCanceledStatus(null)
+            if (!canceled) {
+                // Analysis was interrupted in favor of an editor, it continues from the files analyzed so far
+                schedule(RESCHEDULE_DELAY)
+            }
+            
+            return AnalysisResultStatus(Status.CANCEL_STATUS, ProjectAnalysisResult(Diagnostics.EMPTY, emptySet()))
         }
     }
     
@@ -71,20 +74,18 @@ public class KotlinAnalysisJob(private val javaProject: IJavaProject) : Job("Kot
         canceled = true
     }
     
-    class AnalysisResultStatus(val status: IStatus, val analysisResult: AnalysisResult): IStatus by status
+    class AnalysisResultStatus(val status: IStatus, val analysisResult: ProjectAnalysisResult): IStatus by status
 }
 
 private fun constructFamilyIndicator(javaProject: IJavaProject): String {
     return javaProject.getProject().getName() + "_kotlinAnalysisFamily"
 }
 
-fun runCancellableAnalysisFor(javaProject: IJavaProject, postAnalysisTask: (AnalysisResult) -> Unit = {}) {
+fun runCancellableAnalysisFor(javaProject: IJavaProject, postAnalysisTask: (ProjectAnalysisResult) -> Unit = {}) {
     val family = constructFamilyIndicator(javaProject)
     Job.getJobManager().cancel(family)
     Job.getJobManager().join(family, NullProgressMonitor()) // It should be fast enough
     
-    KotlinAnalysisProjectCache.resetCache(javaProject.project)
-    
     val analysisJob = KotlinAnalysisJob(javaProject)
     
     analysisJob.addJobChangeListener(object : JobChangeAdapter() {
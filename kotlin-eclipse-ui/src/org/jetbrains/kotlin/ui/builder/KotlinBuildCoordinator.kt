@@ -0,0 +1,111 @@
+package org.jetbrains.kotlin.ui.builder
+
+import org.eclipse.core.resources.IFile
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.ResourcesPlugin
+import org.eclipse.jdt.core.JavaCore
+import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
+import org.jetbrains.kotlin.core.model.KotlinLookupStorage
+import org.jetbrains.kotlin.core.model.KotlinNature
+import org.jetbrains.kotlin.core.model.KotlinProjectAbi
+import org.jetbrains.kotlin.core.model.LookupSymbol
+import org.jetbrains.kotlin.core.utils.ProjectUtils
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Coordinates builds of Kotlin projects which depend on each other. Eclipse builds projects in the order
+ * of their references, so the ABI of upstream projects is known before a dependent project is built.
+ *
+ * A project is built again when its own files change or when the ABI of a Kotlin project it depends on
+ * changes (see [KotlinProjectAbi]). Only files of dependent projects which looked up changed declarations
+ * are analyzed again.
+ *
+ * Dependent projects are looked up in a reverse graph of project references, which is computed once and dropped
+ * when the classpath of a project changes or a project is opened, closed, added or removed.
+ */
+object KotlinBuildCoordinator {
+    private val builtAgainstAbi = ConcurrentHashMap<IProject, Map<IProject, Long>>()
+
+    // Maps a project to the Kotlin projects which depend on it, directly or through other projects
+    private var downstreamGraph: Map<IProject, List<IProject>>? = null
+
+    private var downstreamGraphVersion = 0L
+
+    fun getUpstreamProjects(project: IProject): List<IProject> =
+        ProjectUtils.getDependencyProjects(JavaCore.create(project))
+            .filter { it.isAccessible && KotlinNature.hasKotlinNature(it) }
+            .distinct()
+
+    fun isUpstreamAbiChanged(project: IProject): Boolean {
+        val builtAgainst = builtAgainstAbi[project] ?: return true
+        return getUpstreamProjects(project).any { builtAgainst[it] != KotlinProjectAbi.getVersion(it) }
+    }
+
+    /**
+     * Updates the ABI of [project] after [changedFiles] were changed and marks files of dependent projects
+     * which used changed declarations to be analyzed again.
+     */
+    fun updateAbi(project: IProject, changedFiles: Collection<IFile>) {
+        invalidateDownstream(project, KotlinProjectAbi.update(project, changedFiles))
+    }
+
+    /**
+     * Same as [updateAbi] for a project which was just compiled, its ABI is taken from the output class files.
+     */
+    fun updateAbiFromOutput(project: IProject, changedFiles: Collection<IFile>) {
+        val outputFolders = ProjectUtils.getAllOutputFolders(JavaCore.create(project)).map { it.location.toFile() }
+        val changedSymbols = KotlinProjectAbi.updateFromClassFiles(project, outputFolders)
+            ?: KotlinProjectAbi.update(project, changedFiles)
+
+        invalidateDownstream(project, changedSymbols)
+    }
+
+    @Synchronized
+    fun projectDependenciesChanged() {
+        downstreamGraphVersion++
+        downstreamGraph = null
+    }
+
+    fun projectBuilt(project: IProject) {
+        builtAgainstAbi[project] = getUpstreamProjects(project).associateWith { KotlinProjectAbi.getVersion(it) }
+    }
+
+    private fun invalidateDownstream(project: IProject, changedSymbols: Set<LookupSymbol>) {
+        if (changedSymbols.isEmpty()) return
+
+        for (downstream in getDownstreamProjects(project)) {
+            KotlinLookupStorage.getGraph(downstream)
+                .getDependentFiles(changedSymbols)
+                .forEach { KotlinAnalysisProjectCache.markChanged(it) }
+        }
+    }
+
+    private fun getDownstreamProjects(project: IProject): List<IProject> {
+        val graph = synchronized(this) { downstreamGraph } ?: computeDownstreamGraph()
+        return graph[project].orEmpty().filter { it.isAccessible && KotlinNature.hasKotlinNature(it) }
+    }
+
+    private fun computeDownstreamGraph(): Map<IProject, List<IProject>> {
+        val version = synchronized(this) { downstreamGraphVersion }
+
+        val graph = hashMapOf<IProject, MutableList<IProject>>()
+        for (downstream in ResourcesPlugin.getWorkspace().root.projects) {
+            // Natures are checked on lookup, as adding a nature doesn't always change the classpath
+            val javaProject = JavaCore.create(downstream)
+            if (!downstream.isAccessible || !javaProject.exists()) continue
+
+            ProjectUtils.getDependencyProjects(javaProject)
+                .distinct()
+                .forEach { graph.getOrPut(it) { arrayListOf() }.add(downstream) }
+        }
+
+        synchronized(this) {
+            // A graph computed while project dependencies were changing is used once but not kept
+            if (version == downstreamGraphVersion) {
+                downstreamGraph = graph
+            }
+        }
+
+        return graph
+    }
+}
@@ -38,11 +38,17 @@ class KotlinBuilder : IncrementalProjectBuilder() {
     override fun build(kind: Int, args: Map<String, String>?, monitor: IProgressMonitor?): Array<IProject>? {
         val javaProject = JavaCore.create(project)
         val delta = getDelta(project)
-        return if (KotlinEnvironment.getEnvironment(javaProject.project).buildingProperties.useIncremental) {
+        val builderElement = if (KotlinEnvironment.getEnvironment(javaProject.project).buildingProperties.useIncremental) {
             incrementalBuilder
         } else {
             oldBuilderElement
-        }.build(project, delta, kind)
+        }
+
+        builderElement.build(project, delta, kind)
+        KotlinBuildCoordinator.projectBuilt(project)
+
+        // Changes in upstream Kotlin projects trigger a build of this project, see KotlinBuildCoordinator
+        return KotlinBuildCoordinator.getUpstreamProjects(project).toTypedArray()
     }
 
     override fun startupOnInitialize() {
@@ -5,13 +5,9 @@ import org.eclipse.core.resources.IResourceDelta
 import org.eclipse.core.resources.IncrementalProjectBuilder.FULL_BUILD
 import org.eclipse.core.runtime.Status
 import org.eclipse.core.runtime.jobs.Job
-import org.eclipse.debug.core.model.LaunchConfigurationDelegate
-import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
 import org.jetbrains.kotlin.core.asJava.KotlinLightClassGeneration
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
-import org.jetbrains.kotlin.core.compiler.KotlinCompilerResult
-import org.jetbrains.kotlin.core.compiler.KotlinCompilerUtils
 import org.jetbrains.kotlin.core.model.runJob
 import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
 import org.jetbrains.kotlin.ui.KotlinPluginUpdater
@@ -20,8 +16,10 @@ class KotlinBuilderElement : BaseKotlinBuilderElement() {
 
     override fun build(project: IProject, delta: IResourceDelta?, kind: Int): Array<IProject>? {
         val javaProject = JavaCore.create(project)
-        if (isBuildingForLaunch()) {
-            compileKotlinFiles(javaProject)
+        // Launched programs need class files, only the incremental builder produces them on every build.
+        // It runs in KotlinCompilerService, so all source groups of the project share one compiler environment
+        if (KotlinLaunchBuild.isActive(project)) {
+            compileKotlinFilesIncrementally(javaProject)
             return null
         }
 
@@ -31,6 +29,9 @@ class KotlinBuilderElement : BaseKotlinBuilderElement() {
         }
 
         val allAffectedFiles = if (delta != null) getAllAffectedFiles(delta) else emptySet()
+        if (canSkipBuild(project, delta, allAffectedFiles)) {
+            return null
+        }
 
         if (allAffectedFiles.isNotEmpty()) {
             if (isAllFilesApplicableForFilters(allAffectedFiles, javaProject)) {
@@ -46,6 +47,7 @@ class KotlinBuilderElement : BaseKotlinBuilderElement() {
         val existingAffectedFiles = kotlinAffectedFiles.filter { it.exists() }
 
         commitFiles(existingAffectedFiles)
+        KotlinBuildCoordinator.updateAbi(project, kotlinAffectedFiles)
 
         KotlinLightClassGeneration.updateLightClasses(javaProject.project, kotlinAffectedFiles)
         if (kotlinAffectedFiles.isNotEmpty()) {
@@ -58,36 +60,21 @@ class KotlinBuilderElement : BaseKotlinBuilderElement() {
 
         val ktFiles = existingAffectedFiles.map { KotlinPsiManager.getParsedFile(it) }
 
-        val analysisResultWithProvider = if (ktFiles.isEmpty())
-            KotlinAnalyzer.analyzeProject(project)
-        else
-            KotlinAnalyzer.analyzeFiles(ktFiles)
+        // Without own changes, files affected by upstream projects are analyzed by the background analysis
+        if (ktFiles.isNotEmpty()) {
+            val analysisResultWithProvider = KotlinAnalyzer.analyzeFiles(ktFiles)
 
-        clearProblemAnnotationsFromOpenEditorsExcept(existingAffectedFiles)
-        updateLineMarkers(analysisResultWithProvider.analysisResult.bindingContext.diagnostics, existingAffectedFiles)
+            clearProblemAnnotationsFromOpenEditorsExcept(existingAffectedFiles)
+            updateLineMarkers(analysisResultWithProvider.analysisResult.bindingContext.diagnostics, existingAffectedFiles)
+        }
 
         runCancellableAnalysisFor(javaProject) { analysisResult ->
-            val projectFiles = KotlinPsiManager.getFilesByProject(javaProject.project)
             updateLineMarkers(
-                analysisResult.bindingContext.diagnostics,
-                (projectFiles - existingAffectedFiles).toList()
+                analysisResult.diagnostics,
+                (analysisResult.analyzedFiles - existingAffectedFiles).toList()
             )
         }
 
         return null
     }
-
-    private fun isBuildingForLaunch(): Boolean {
-        val launchDelegateFQName = LaunchConfigurationDelegate::class.java.canonicalName
-        return Thread.currentThread().stackTrace.find {
-            it.className == launchDelegateFQName
-        } != null
-    }
-
-    private fun compileKotlinFiles(javaProject: IJavaProject) {
-        val compilerResult: KotlinCompilerResult = KotlinCompilerUtils.compileWholeProject(javaProject)
-        if (!compilerResult.compiledCorrectly()) {
-            KotlinCompilerUtils.handleCompilerOutput(compilerResult.compilerOutput)
-        }
-    }
-}
\ No newline at end of file
+}
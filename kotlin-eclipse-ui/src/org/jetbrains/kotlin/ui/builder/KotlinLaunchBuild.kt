@@ -0,0 +1,52 @@
+package org.jetbrains.kotlin.ui.builder
+
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.runtime.CoreException
+import org.eclipse.debug.core.ILaunch
+import org.eclipse.debug.core.ILaunchListener
+import org.eclipse.jdt.core.JavaCore
+import org.eclipse.jdt.launching.IJavaLaunchConfigurationConstants
+import org.jetbrains.kotlin.core.utils.ProjectUtils
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Tells builders whether they run as a part of a launch. A launch is registered before the workspace is built
+ * for it and stays pending until it gets processes, terminates or is removed. A project is built for a pending
+ * launch when the launched project is the project itself or depends on it; launches without a project
+ * apply to every project.
+ */
+object KotlinLaunchBuild : ILaunchListener {
+    private val pendingLaunches = ConcurrentHashMap.newKeySet<ILaunch>()
+
+    fun isActive(project: IProject): Boolean {
+        // Launches which failed before they were removed are dropped here
+        pendingLaunches.removeIf { it.hasChildren() || it.isTerminated }
+
+        return pendingLaunches.any { isLaunchedWith(it, project) }
+    }
+
+    override fun launchAdded(launch: ILaunch) {
+        pendingLaunches.add(launch)
+    }
+
+    override fun launchChanged(launch: ILaunch) {
+        if (launch.hasChildren()) pendingLaunches.remove(launch)
+    }
+
+    override fun launchRemoved(launch: ILaunch) {
+        pendingLaunches.remove(launch)
+    }
+
+    private fun isLaunchedWith(launch: ILaunch, project: IProject): Boolean {
+        val projectName = try {
+            launch.launchConfiguration?.getAttribute(IJavaLaunchConfigurationConstants.ATTR_PROJECT_NAME, null as String?)
+        } catch (e: CoreException) {
+            null
+        }
+        if (projectName.isNullOrEmpty()) return true
+        if (projectName == project.name) return true
+
+        val launchedProject = JavaCore.create(project.workspace.root.getProject(projectName))
+        return launchedProject.exists() && project in ProjectUtils.getDependencyProjects(launchedProject)
+    }
+}
@@ -34,6 +34,7 @@ import org.eclipse.jdt.internal.core.ImportContainer
 import org.eclipse.jdt.core.IPackageFragment
 import org.eclipse.jdt.core.IPackageDeclaration
 import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
+import org.jetbrains.kotlin.core.resolve.KotlinDependencyModuleCache
 
 public class KotlinClassPathListener : IElementChangedListener {
     override public fun elementChanged(event: ElementChangedEvent) {
@@ -44,12 +45,19 @@ public class KotlinClassPathListener : IElementChangedListener {
         delta.getAffectedChildren().forEach { updateEnvironmentIfClasspathChanged(it) }
         
         val element = delta.getElement()
-        if (element is IJavaProject && element.exists() && KotlinNature.hasKotlinNature(element.getProject())) {
-            val flags = delta.getFlags()
-            if ((flags and IJavaElementDelta.F_CLASSPATH_CHANGED) != 0 || 
-                (flags and IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED) != 0) {
-                KotlinEnvironment.removeEnvironment(element.project)
-            }
+        if (element !is IJavaProject) return
+        
+        val flags = delta.getFlags()
+        val classpathChanged = (flags and IJavaElementDelta.F_CLASSPATH_CHANGED) != 0 || 
+                (flags and IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED) != 0
+        
+        if (classpathChanged || delta.getKind() != IJavaElementDelta.CHANGED ||
+                (flags and (IJavaElementDelta.F_OPENED or IJavaElementDelta.F_CLOSED)) != 0) {
+            KotlinBuildCoordinator.projectDependenciesChanged()
+        }
+        
+        if (classpathChanged && element.exists() && KotlinNature.hasKotlinNature(element.getProject())) {
+            KotlinEnvironment.removeEnvironment(element.project)
         }
     }
 }
@@ -72,6 +80,7 @@ public class KotlinJavaDeclarationsListener : IElementChangedListener {
                 val javaProject = element.getJavaProject()
                 if (javaProject != null) {
                     KotlinAnalysisProjectCache.resetCache(javaProject.project)
+                    KotlinDependencyModuleCache.resetCache(javaProject.project)
                 }
             }
         }
@@ -146,7 +146,7 @@ public class Configuration extends JavaSourceViewerConfiguration {
     @Nullable
     public KotlinTokenScanner getScanner() {
         if (scanner == null) {
-            scanner = KotlinTokenScanner.createScanner(fPreferenceStore, getColorManager(), editor);
+            scanner = KotlinTokenScanner.createScanner(fPreferenceStore, getColorManager());
         }
 
         return scanner;
@@ -221,7 +221,7 @@ public class Configuration extends JavaSourceViewerConfiguration {
     public static KotlinPresentationReconciler getKotlinPresentaionReconciler(@NotNull KotlinTokenScanner scanner) {
         DefaultDamagerRepairer kotlinDamagerRepairer = new DefaultDamagerRepairer(scanner);
         
-        KotlinPresentationReconciler reconciler = new KotlinPresentationReconciler();
+        KotlinPresentationReconciler reconciler = new KotlinPresentationReconciler(scanner);
         reconciler.setDamager(kotlinDamagerRepairer, IDocument.DEFAULT_CONTENT_TYPE);
         reconciler.setRepairer(kotlinDamagerRepairer, IDocument.DEFAULT_CONTENT_TYPE);
         
@@ -229,8 +229,20 @@ public class Configuration extends JavaSourceViewerConfiguration {
     }
     
     public static class KotlinPresentationReconciler extends PresentationReconciler {
+        private final KotlinTokenScanner scanner;
         private volatile IDocument lastDocument = null;
         
+        public KotlinPresentationReconciler(@NotNull KotlinTokenScanner scanner) {
+            this.scanner = scanner;
+        }
+        
+        @Override
+        public void uninstall() {
+            super.uninstall();
+            scanner.dispose();
+            lastDocument = null;
+        }
+        
         public TextPresentation createRepairDescription(IRegion damage, IDocument document) {
             if (document != lastDocument) {
                 setDocumentToDamagers(document);
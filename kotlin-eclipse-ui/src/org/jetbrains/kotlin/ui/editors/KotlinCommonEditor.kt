@@ -200,6 +200,8 @@ abstract class KotlinCommonEditor : CompilationUnitEditor(), KotlinEditor {
             kotlinSemanticHighlighter!!.uninstall()
         }
 
+        (sourceViewerConfiguration as? FileEditorConfiguration)?.scanner?.dispose()
+
         kotlinReconcilingStrategy.removeListener(KotlinLineAnnotationsReconciler)
         kotlinReconcilingStrategy.removeListener(kotlinOutlinePage)
         kotlinReconcilingStrategy.removeListener(KotlinLineAnnotationsReconciler)
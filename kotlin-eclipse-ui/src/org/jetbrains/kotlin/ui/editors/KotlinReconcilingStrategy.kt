@@ -27,6 +27,7 @@ import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.log.KotlinLogger
 import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
 import org.jetbrains.kotlin.core.model.KotlinAnalysisProjectCache
+import org.jetbrains.kotlin.progress.CompilationCanceledException
 
 interface KotlinReconcilingListener {
     fun reconcile(file: IFile, editor: KotlinEditor)
@@ -55,8 +56,9 @@ class KotlinReconcilingStrategy(val editor: KotlinEditor) : IReconcilingStrategy
         		override fun run() {
         			val file = editor.eclipseFile
 					if (file != null) {
-						resetCache(file)
+						KotlinAnalysisProjectCache.markChanged(file)
 						KotlinPsiManager.commitFile(file, editor.document)
+						editor.parsedFile?.let { KotlinAnalysisFileCache.fileChanged(file, it) }
 						
 						reconcilingListeners.forEach { it.reconcile(file, editor) }
 					} else {
@@ -65,6 +67,9 @@ class KotlinReconcilingStrategy(val editor: KotlinEditor) : IReconcilingStrategy
         		}
         		
         		override fun handleException(exception: Throwable) {
+        			// Analysis of an outdated version of the file was canceled, the next reconcile will update listeners
+        			if (exception is CompilationCanceledException) return
+        			
         			KotlinLogger.logError(exception)
         		}
         	})
@@ -77,9 +82,4 @@ class KotlinReconcilingStrategy(val editor: KotlinEditor) : IReconcilingStrategy
             reconcile(null)
         }
     }
-    
-    private fun resetCache(file: IFile) {
-        KotlinAnalysisProjectCache.resetCache(file.project)
-        KotlinAnalysisFileCache.resetCache()
-    }
 }
\ No newline at end of file
@@ -16,9 +16,11 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.ui.editors
 
+import org.eclipse.core.resources.IFile
 import org.eclipse.jdt.core.IJavaProject
 import org.eclipse.jdt.core.JavaCore
 import org.eclipse.jface.text.IDocument
+import org.eclipse.ui.IEditorInput
 import org.eclipse.ui.PlatformUI
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.model.KotlinScriptEnvironment
@@ -29,7 +31,7 @@ class KotlinScriptEditor : KotlinCommonEditor() {
     override val parsedFile: KtFile?
         get() {
             val file = eclipseFile ?: return null
-            return KotlinPsiManager.getKotlinFileIfExist(file, document.get())
+            return KotlinPsiManager.getKotlinFileIfExist(file, document)
         }
 
     override val javaProject: IJavaProject? by lazy {
@@ -42,7 +44,21 @@ class KotlinScriptEditor : KotlinCommonEditor() {
     override val isScript: Boolean
         get() = true
 
+    private var openedFile: IFile? = null
+
+    override fun doSetInput(input: IEditorInput?) {
+        super.doSetInput(input)
+
+        openedFile?.let { KotlinScriptEnvironment.fileClosed(it) }
+        openedFile = eclipseFile
+                ?.takeIf { KotlinScriptEnvironment.isScript(it) }
+                ?.also { KotlinScriptEnvironment.fileOpened(it) }
+    }
+
     override fun dispose() {
+        openedFile?.let { KotlinScriptEnvironment.fileClosed(it) }
+        openedFile = null
+
         eclipseFile?.let {
             KotlinScriptEnvironment.removeKotlinEnvironment(it)
             KotlinPsiManager.removeFile(it)
@@ -19,6 +19,10 @@ package org.jetbrains.kotlin.ui.editors.annotations
 import org.eclipse.core.resources.IFile
 import org.eclipse.core.resources.IMarker
 import org.eclipse.core.resources.IProject
+import org.eclipse.core.resources.IResource
+import org.eclipse.core.resources.IWorkspace
+import org.eclipse.core.resources.IWorkspaceRunnable
+import org.eclipse.core.resources.ResourcesPlugin
 import org.eclipse.core.runtime.CoreException
 import org.eclipse.jdt.core.IJavaModelMarker
 import org.eclipse.jface.text.ISynchronizable
@@ -35,9 +39,11 @@ import org.jetbrains.kotlin.core.resolve.KotlinAnalyzer
 import org.jetbrains.kotlin.ui.editors.KotlinEditor
 import org.jetbrains.kotlin.ui.editors.KotlinFileEditor
 import org.jetbrains.kotlin.ui.editors.KotlinReconcilingListener
-import org.jetbrains.kotlin.ui.editors.quickfix.addDiagnostics
+import org.jetbrains.kotlin.ui.editors.quickfix.createProblemMarker
 import org.jetbrains.kotlin.ui.editors.quickfix.kotlinQuickFixes
+import org.jetbrains.kotlin.ui.editors.quickfix.problemAttributes
 import org.jetbrains.kotlin.ui.editors.quickfix.removeMarkers
+import org.jetbrains.kotlin.ui.editors.quickfix.replaceDiagnostic
 
 object AnnotationManager {
 
@@ -69,29 +75,56 @@ object AnnotationManager {
         }
     }
 
-    fun addProblemMarker(annotation: DiagnosticAnnotation, file: IFile) =
-        with(file.createMarker(MARKER_PROBLEM_TYPE)) {
-            setAttribute(IMarker.MESSAGE, annotation.text)
-            setAttribute(IMarker.SEVERITY, annotation.markerSeverity)
-            setAttribute(IMarker.CHAR_START, annotation.offset)
-            setAttribute(IMarker.CHAR_END, annotation.endOffset)
-            setAttribute(IMarker.LOCATION, "line ${annotation.line}")
-            setAttribute(IMarker.LINE_NUMBER, annotation.line)
-            setAttribute(MARKED_TEXT, annotation.markedText)
-            annotation.diagnostic?.let {
-                addDiagnostics(it)
+    /**
+     * Makes problem markers of every file in [annotations] match its annotations. Markers of unchanged problems
+     * are kept, so files without changes are not touched. All changes are made in one workspace operation.
+     */
+    fun updateProblemMarkers(annotations: Map<IFile, List<DiagnosticAnnotation>>) {
+        if (annotations.isEmpty()) return
+
+        val workspace = ResourcesPlugin.getWorkspace()
+        workspace.run(IWorkspaceRunnable {
+            for ((file, fileAnnotations) in annotations) {
+                updateProblemMarkers(file, fileAnnotations)
             }
+        }, null, IWorkspace.AVOID_UPDATE, null)
+    }
+
+    private fun updateProblemMarkers(file: IFile, annotations: List<DiagnosticAnnotation>) {
+        if (!file.exists()) return
 
-            val diagnostic = annotation.diagnostic
-            val isUnresolvedReference = if (diagnostic != null) {
-                DiagnosticAnnotationUtil.isUnresolvedReference(diagnostic.factory)
-            } else false
-            setAttribute(IS_UNRESOLVED_REFERENCE, isUnresolvedReference)
+        val oldMarkers = file.findMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE)
+            .groupByTo(hashMapOf()) { it.type to it.problemAttributes }
 
-            val canBeFixed = diagnostic?.let { kotlinQuickFixes.containsKey(it.factory) } ?: false
-            setAttribute(CAN_FIX_PROBLEM, canBeFixed)
+        for (annotation in annotations) {
+            val attributes = problemMarkerAttributes(annotation)
+            val oldMarker = oldMarkers[MARKER_PROBLEM_TYPE to attributes]?.let { if (it.isNotEmpty()) it.removeAt(it.lastIndex) else null }
+            if (oldMarker != null) {
+                oldMarker.replaceDiagnostic(annotation.diagnostic)
+            } else {
+                file.createProblemMarker(MARKER_PROBLEM_TYPE, attributes, annotation.diagnostic)
+            }
         }
 
+        file.removeMarkers(oldMarkers.values.flatten())
+    }
+
+    private fun problemMarkerAttributes(annotation: DiagnosticAnnotation): Map<String, Any?> {
+        val diagnostic = annotation.diagnostic
+        return mapOf(
+            IMarker.MESSAGE to annotation.text,
+            IMarker.SEVERITY to annotation.markerSeverity,
+            IMarker.CHAR_START to annotation.offset,
+            IMarker.CHAR_END to annotation.endOffset,
+            IMarker.LOCATION to "line ${annotation.line}",
+            IMarker.LINE_NUMBER to annotation.line,
+            MARKED_TEXT to annotation.markedText,
+            IS_UNRESOLVED_REFERENCE to
+                    (diagnostic != null && DiagnosticAnnotationUtil.isUnresolvedReference(diagnostic.factory)),
+            CAN_FIX_PROBLEM to (diagnostic != null && kotlinQuickFixes.containsKey(diagnostic.factory))
+        )
+    }
+
     fun removeAnnotations(editor: KotlinFileEditor, annotationType: String) {
         updateAnnotations(editor, emptyMap(), annotationType)
     }
@@ -146,7 +179,7 @@ object AnnotationManager {
 object KotlinLineAnnotationsReconciler : KotlinReconcilingListener {
     override fun reconcile(file: IFile, editor: KotlinEditor) {
         val jetFile =
-            if (editor.isScript) editor.parsedFile else KotlinPsiManager.getKotlinFileIfExist(file, editor.document.get())
+            if (editor.isScript) editor.parsedFile else KotlinPsiManager.getKotlinFileIfExist(file, editor.document)
 
         jetFile?.let {
             val diagnostics = KotlinAnalyzer.analyzeFile(it).analysisResult.bindingContext.diagnostics
@@ -20,6 +20,8 @@ import com.intellij.openapi.util.text.StringUtilRt
 import com.intellij.psi.PsiElement
 import org.eclipse.core.resources.IFile
 import org.eclipse.jdt.core.search.SearchPattern
+import org.eclipse.jface.text.IDocument
+import org.eclipse.jface.text.IDocumentExtension4
 import org.eclipse.jdt.internal.ui.JavaPlugin
 import org.eclipse.jdt.ui.PreferenceConstants
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
@@ -30,10 +32,13 @@ import org.jetbrains.kotlin.core.resolve.KotlinResolutionFacade
 import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
 import org.jetbrains.kotlin.descriptors.DeclarationDescriptorWithVisibility
 import org.jetbrains.kotlin.descriptors.TypeParameterDescriptor
-import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil
 import org.jetbrains.kotlin.eclipse.ui.utils.LineEndUtil
 import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.psi.KtBlockExpression
+import org.jetbrains.kotlin.psi.KtDeclarationWithBody
 import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtFunctionLiteral
+import org.jetbrains.kotlin.psi.KtPsiFactory
 import org.jetbrains.kotlin.psi.KtSimpleNameExpression
 import org.jetbrains.kotlin.resolve.scopes.DescriptorKindFilter
 import org.jetbrains.kotlin.ui.editors.KotlinEditor
@@ -43,6 +48,9 @@ import org.jetbrains.kotlin.ui.editors.codeassist.isVisible
 object KotlinCompletionUtils {
     private const val KOTLIN_DUMMY_IDENTIFIER = "KotlinRulezzz"
     
+    @Volatile
+    private var lastCompletionFile: CompletionFile? = null
+    
     fun applicableNameFor(prefix: String, name: Name): Boolean {
         return !name.isSpecial && applicableNameFor(prefix, name.identifier)
     }
@@ -94,20 +102,88 @@ object KotlinCompletionUtils {
     }
     
     fun getPsiElement(editor: KotlinEditor, identOffset: Int): PsiElement? {
-        val sourceCode = EditorUtil.getSourceCode(editor)
-        val sourceCodeWithMarker = StringBuilder(sourceCode).insert(identOffset, KOTLIN_DUMMY_IDENTIFIER).toString()
-        val jetFile: KtFile?
         val file = editor.eclipseFile
-        if (file != null) {
-            jetFile = KotlinPsiManager.parseText(StringUtilRt.convertLineSeparators(sourceCodeWithMarker), file)
-        } else {
+        if (file == null) {
             KotlinLogger.logError("Failed to retrieve IFile from editor $editor", null)
             return null
         }
         
-        if (jetFile == null) return null
+        val document = editor.document
+        val modificationStamp = (document as? IDocumentExtension4)?.modificationStamp
+            ?: IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+        
+        val completionFile = lastCompletionFile
+            ?.takeIf { it.isFor(file, modificationStamp, identOffset) }
+            ?: parseWithDummyIdentifier(file, document, identOffset, modificationStamp).also { lastCompletionFile = it }
+        
+        return completionFile.ktFile?.findElementAt(completionFile.offsetWithoutCR)
+    }
+    
+    private fun parseWithDummyIdentifier(file: IFile, document: IDocument, identOffset: Int, modificationStamp: Long): CompletionFile {
+        val offsetWithoutCR = LineEndUtil.convertCrToDocumentOffset(document, identOffset)
+        val jetFile = KotlinPsiManager.getKotlinFileIfExist(file, document)
+            ?.let { parseWithDummyIdentifierInBody(it, file, offsetWithoutCR) }
+            ?: parseTextWithDummyIdentifier(file, document, identOffset)
+        
+        return CompletionFile(file, modificationStamp, identOffset, jetFile, offsetWithoutCR)
+    }
+    
+    /**
+     * Parses a separate file from the text of [ktFile] with the dummy identifier inserted at [offset] into the body
+     * of the enclosing function. Only this body is parsed upfront, to check that the identifier doesn't change
+     * the structure of the file, other function bodies are parsed lazily. [ktFile] itself is not modified as it is
+     * shared with other editor features. Returns `null` when [offset] is not inside a function body.
+     */
+    private fun parseWithDummyIdentifierInBody(ktFile: KtFile, file: IFile, offset: Int): KtFile? {
+        val body = findEnclosingBody(ktFile, offset) ?: return null
+        val bodyRange = body.textRange
+        
+        val bodyText = StringBuilder(body.text).insert(offset - bodyRange.startOffset, KOTLIN_DUMMY_IDENTIFIER).toString()
+        // The identifier may end the body early or join it with the following code, e.g. after an unclosed comment
+        val newBody = KtPsiFactory(ktFile.project).createFunction("fun foo() $bodyText").bodyBlockExpression
+        if (newBody == null || newBody.text != bodyText) return null
+        
+        val text = StringBuilder(ktFile.text).replace(bodyRange.startOffset, bodyRange.endOffset, bodyText).toString()
+        return KotlinPsiManager.parseText(text, file)
+    }
+    
+    // Bodies of lambdas are not blocks in braces, so the body of the function containing the lambda is taken
+    private fun findEnclosingBody(ktFile: KtFile, offset: Int): KtBlockExpression? {
+        var element = ktFile.findElementAt(offset)
+        while (element != null && element !is KtFile) {
+            val declaration = element.parent as? KtDeclarationWithBody
+            if (element is KtBlockExpression && declaration !is KtFunctionLiteral &&
+                    declaration?.bodyExpression == element &&
+                    offset > element.textRange.startOffset && offset < element.textRange.endOffset) {
+                return element
+            }
+            element = element.parent
+        }
+        
+        return null
+    }
+    
+    private fun parseTextWithDummyIdentifier(file: IFile, document: IDocument, identOffset: Int): KtFile? {
+        val sourceCodeWithMarker = StringBuilder(document.get()).insert(identOffset, KOTLIN_DUMMY_IDENTIFIER).toString()
+        return KotlinPsiManager.parseText(StringUtilRt.convertLineSeparators(sourceCodeWithMarker), file)
+    }
+    
+    /**
+     * Copy of the file with the dummy identifier inserted at [identOffset]. It is shared by all completion
+     * processors which are invoked for the same document modification and offset.
+     */
+    private class CompletionFile(
+            val file: IFile,
+            val modificationStamp: Long,
+            val identOffset: Int,
+            val ktFile: KtFile?,
+            val offsetWithoutCR: Int) {
         
-        val offsetWithoutCR = LineEndUtil.convertCrToDocumentOffset(sourceCodeWithMarker, identOffset, editor.document)
-        return jetFile.findElementAt(offsetWithoutCR)
+        fun isFor(file: IFile, modificationStamp: Long, identOffset: Int): Boolean {
+            return modificationStamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP &&
+                    this.modificationStamp == modificationStamp &&
+                    this.identOffset == identOffset &&
+                    this.file == file
+        }
     }
 }
\ No newline at end of file
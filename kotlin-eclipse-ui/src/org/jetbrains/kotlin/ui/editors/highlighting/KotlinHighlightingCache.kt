@@ -0,0 +1,124 @@
+package org.jetbrains.kotlin.ui.editors.highlighting
+
+import com.intellij.psi.PsiElement
+import org.eclipse.core.resources.IProject
+import org.eclipse.core.runtime.IProgressMonitor
+import org.eclipse.core.runtime.OperationCanceledException
+import org.eclipse.jface.text.IDocument
+import org.eclipse.jface.text.IRegion
+import org.jetbrains.kotlin.core.model.KotlinAnalysisFileCache
+import org.jetbrains.kotlin.core.model.KotlinProjectAbi
+import org.jetbrains.kotlin.eclipse.ui.utils.LineEndUtil
+import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtElement
+import org.jetbrains.kotlin.psi.KtFile
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Highlighting positions of members of a file (top-level elements, declarations of classes and the rest of classes
+ * without their declarations), keyed by a hash of their text in the document. Offsets of cached positions are
+ * relative to the member start, so a member whose text didn't change is not visited again, even if it was moved
+ * by an edit.
+ *
+ * Highlighting of a member also depends on declarations it refers to, so the whole cache is dropped when
+ * signatures of the file (private ones included) or its imports change, and when anything else the analysis
+ * of the file depends on changes: other Kotlin files, Java classes, the classpath or upstream projects.
+ *
+ * Highlighting can be computed for members intersecting a region only, e.g. the visible part of an editor.
+ * The cache is locked only to read and store entries, so a new computation doesn't wait for the previous one.
+ */
+internal class KotlinHighlightingCache {
+    private data class ElementKey(val textHash: Int, val textLength: Int, val withoutMembers: Boolean)
+
+    // A member of a file to highlight, a class is highlighted without its declarations as they are members too
+    private class HighlightingUnit(val element: KtElement, val excludedElements: Set<PsiElement>)
+
+    private var bindingKey: Int? = null
+
+    private var elementPositions = ConcurrentHashMap<ElementKey, List<HighlightPosition>>()
+
+    @Synchronized
+    fun clear() {
+        bindingKey = null
+        elementPositions = ConcurrentHashMap()
+    }
+
+    /**
+     * Computes highlighting of members intersecting [region], or of the whole file when [region] is `null`.
+     * Throws [OperationCanceledException] when [monitor] is canceled.
+     */
+    fun computeHighlightingRanges(
+            ktFile: KtFile,
+            document: IDocument,
+            project: IProject,
+            region: IRegion? = null,
+            monitor: IProgressMonitor? = null): List<HighlightPosition> {
+        val newBindingKey = computeBindingKey(ktFile, project)
+        val cachedPositions = synchronized(this) {
+            if (newBindingKey != bindingKey) {
+                bindingKey = newBindingKey
+                elementPositions = ConcurrentHashMap()
+            }
+            elementPositions
+        }
+
+        val fileText = ktFile.text
+        val visitor = KotlinSemanticHighlightingVisitor(ktFile, document)
+        val newElementPositions = hashMapOf<ElementKey, List<HighlightPosition>>()
+        val positions = arrayListOf<HighlightPosition>()
+        for (unit in collectUnits(ktFile)) {
+            if (monitor != null && monitor.isCanceled) throw OperationCanceledException()
+            
+            val element = unit.element
+            val start = LineEndUtil.convertLfToDocumentOffset(fileText, element.textRange.startOffset, document)
+            val end = LineEndUtil.convertLfToDocumentOffset(fileText, element.textRange.endOffset, document)
+            if (region != null && (end <= region.offset || start >= region.offset + region.length)) continue
+            
+            val elementText = document.get(start, end - start)
+            val key = ElementKey(elementText.hashCode(), elementText.length, unit.excludedElements.isNotEmpty())
+
+            val relativePositions = newElementPositions[key]
+                    ?: cachedPositions[key]
+                    ?: visitor.computeHighlightingRanges(element, unit.excludedElements)
+                        .map { it.withOffset(it.offset - start) }
+
+            newElementPositions[key] = relativePositions
+            relativePositions.mapTo(positions) { it.withOffset(it.offset + start) }
+        }
+
+        synchronized(this) {
+            // Positions computed for outdated declarations are not stored
+            if (bindingKey != newBindingKey) return positions
+
+            if (region == null) {
+                // Entries of removed or changed members are not needed anymore
+                elementPositions = ConcurrentHashMap(newElementPositions)
+            } else {
+                elementPositions.putAll(newElementPositions)
+            }
+        }
+
+        return positions
+    }
+
+    private fun collectUnits(ktFile: KtFile): List<HighlightingUnit> {
+        val units = arrayListOf<HighlightingUnit>()
+        fun collect(element: KtElement) {
+            val declarations = (element as? KtClassOrObject)?.declarations.orEmpty()
+            units.add(HighlightingUnit(element, declarations.toSet()))
+            declarations.forEach { collect(it) }
+        }
+
+        ktFile.children.filterIsInstance<KtElement>().forEach { collect(it) }
+        return units
+    }
+
+    private fun computeBindingKey(ktFile: KtFile, project: IProject): Int {
+        var hash = KotlinProjectAbi.signatureHash(ktFile, includePrivate = true)
+        hash = 31 * hash + (ktFile.packageDirective?.text?.hashCode() ?: 0)
+        hash = 31 * hash + (ktFile.importList?.text?.hashCode() ?: 0)
+        hash = 31 * hash + KotlinProjectAbi.getVersion(project).hashCode()
+        hash = 31 * hash + KotlinAnalysisFileCache.getDependenciesModificationCount().hashCode()
+        return hash
+    }
+}
@@ -81,6 +81,10 @@ class KotlinHighlightingAttributes private constructor() {
         val FUNCTION_DECLARATION = withAttributes { 
             this.styleKey = SemanticHighlightings.METHOD_DECLARATION
         }
+        
+        val ALL = listOf(
+                LOCAL_FINAL_VARIABLE, LOCAL_VARIABLE, PARAMETER_VARIABLE, FIELD, FINAL_FIELD, STATIC_FIELD,
+                STATIC_FINAL_FIELD, TYPE_PARAMETER, ANNOTATION, ENUM_CLASS, INTERFACE, CLASS, FUNCTION_DECLARATION)
     }
     
     lateinit var styleKey: String
@@ -0,0 +1,210 @@
+package org.jetbrains.kotlin.ui.editors.highlighting;
+
+import java.util.Arrays;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.eclipse.ui.utils.LineEndUtil;
+import org.jetbrains.kotlin.lexer.KotlinLexer;
+
+import com.intellij.psi.tree.IElementType;
+
+/**
+ * Tokens of a document produced by {@link KotlinLexer}, kept up to date while the document changes.
+ * <p>
+ * Every token remembers the lexer state at its start. A token with the initial state is a checkpoint where
+ * lexing can be restarted, so after a change only tokens from the last checkpoint before the change are lexed again,
+ * until the lexer reaches a checkpoint which existed before the change. The rest of tokens are only shifted.
+ * <p>
+ * Carriage returns are lexed as spaces, so offsets of tokens are offsets in the document.
+ */
+public class KotlinLexedDocument implements IDocumentListener {
+    private static final int INITIAL_STATE = 0;
+
+    private final IDocument document;
+    private final CharSequence text;
+    private final KotlinLexer lexer = new KotlinLexer();
+
+    private int count = 0;
+    private int[] starts = new int[0];
+    private int[] states = new int[0];
+    private IElementType[] types = new IElementType[0];
+
+    public KotlinLexedDocument(@NotNull IDocument document) {
+        this.document = document;
+        this.text = new DocumentText(document);
+
+        relex(0, 0, 0);
+        document.addPrenotifiedDocumentListener(this);
+    }
+
+    @NotNull
+    public IDocument getDocument() {
+        return document;
+    }
+
+    public void dispose() {
+        document.removePrenotifiedDocumentListener(this);
+    }
+
+    public int getTokenCount() {
+        return count;
+    }
+
+    public int getTokenStart(int index) {
+        return starts[index];
+    }
+
+    public int getTokenEnd(int index) {
+        return index + 1 < count ? starts[index + 1] : document.getLength();
+    }
+
+    @NotNull
+    public IElementType getTokenType(int index) {
+        return types[index];
+    }
+
+    @NotNull
+    public CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * Index of the token which contains {@code offset}.
+     */
+    public int getTokenIndex(int offset) {
+        int index = Arrays.binarySearch(starts, 0, count, offset);
+        return index >= 0 ? index : Math.max(-index - 2, 0);
+    }
+
+    @Override
+    public void documentAboutToBeChanged(DocumentEvent event) {
+    }
+
+    @Override
+    public void documentChanged(DocumentEvent event) {
+        int insertedLength = event.getText() != null ? event.getText().length() : 0;
+        relex(event.getOffset(), event.getLength(), insertedLength);
+    }
+
+    private void relex(int changeOffset, int removedLength, int insertedLength) {
+        int shift = insertedLength - removedLength;
+        int oldChangeEnd = changeOffset + removedLength;
+        int newChangeEnd = changeOffset + insertedLength;
+
+        // A change may join the previous token, e.g. when a letter is typed right after an identifier
+        int restartIndex = count > 0 ? getTokenIndex(changeOffset - 1) : 0;
+        while (restartIndex > 0 && states[restartIndex] != INITIAL_STATE) {
+            restartIndex--;
+        }
+
+        int restartOffset = restartIndex < count ? starts[restartIndex] : 0;
+        int oldIndex = restartIndex;
+        while (oldIndex < count && starts[oldIndex] < oldChangeEnd) {
+            oldIndex++;
+        }
+
+        int newCount = 0;
+        int[] newStarts = new int[16];
+        int[] newStates = new int[16];
+        IElementType[] newTypes = new IElementType[16];
+
+        boolean converged = false;
+        lexer.start(text, restartOffset, text.length(), INITIAL_STATE);
+        while (lexer.getTokenType() != null) {
+            int start = lexer.getTokenStart();
+            int state = lexer.getState();
+
+            if (start >= newChangeEnd && state == INITIAL_STATE) {
+                while (oldIndex < count && starts[oldIndex] + shift < start) {
+                    oldIndex++;
+                }
+
+                if (oldIndex < count && starts[oldIndex] + shift == start && states[oldIndex] == INITIAL_STATE) {
+                    converged = true;
+                    break;
+                }
+            }
+
+            if (newCount == newStarts.length) {
+                newStarts = Arrays.copyOf(newStarts, newCount * 2);
+                newStates = Arrays.copyOf(newStates, newCount * 2);
+                newTypes = Arrays.copyOf(newTypes, newCount * 2);
+            }
+
+            newStarts[newCount] = start;
+            newStates[newCount] = state;
+            newTypes[newCount] = lexer.getTokenType();
+            newCount++;
+
+            lexer.advance();
+        }
+
+        int suffixCount = converged ? count - oldIndex : 0;
+        int totalCount = restartIndex + newCount + suffixCount;
+
+        int[] resultStarts = totalCount <= starts.length ? starts : Arrays.copyOf(starts, totalCount * 3 / 2);
+        int[] resultStates = totalCount <= states.length ? states : Arrays.copyOf(states, totalCount * 3 / 2);
+        IElementType[] resultTypes = totalCount <= types.length ? types : Arrays.copyOf(types, totalCount * 3 / 2);
+
+        // The suffix is moved first as it may overlap with the lexed tokens
+        int suffixTarget = restartIndex + newCount;
+        System.arraycopy(starts, oldIndex, resultStarts, suffixTarget, suffixCount);
+        System.arraycopy(states, oldIndex, resultStates, suffixTarget, suffixCount);
+        System.arraycopy(types, oldIndex, resultTypes, suffixTarget, suffixCount);
+        for (int i = suffixTarget; i < totalCount; i++) {
+            resultStarts[i] += shift;
+        }
+
+        System.arraycopy(newStarts, 0, resultStarts, restartIndex, newCount);
+        System.arraycopy(newStates, 0, resultStates, restartIndex, newCount);
+        System.arraycopy(newTypes, 0, resultTypes, restartIndex, newCount);
+
+        Arrays.fill(resultTypes, totalCount, Math.max(totalCount, count), null);
+
+        starts = resultStarts;
+        states = resultStates;
+        types = resultTypes;
+        count = totalCount;
+    }
+
+    private static class DocumentText implements CharSequence {
+        private final IDocument document;
+
+        DocumentText(IDocument document) {
+            this.document = document;
+        }
+
+        @Override
+        public int length() {
+            return document.getLength();
+        }
+
+        @Override
+        public char charAt(int index) {
+            try {
+                char c = document.getChar(index);
+                return c == LineEndUtil.CARRIAGE_RETURN_CHAR ? ' ' : c;
+            } catch (BadLocationException e) {
+                throw new IndexOutOfBoundsException(e.getMessage());
+            }
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            try {
+                return document.get(start, end - start).replace(LineEndUtil.CARRIAGE_RETURN_CHAR, ' ');
+            } catch (BadLocationException e) {
+                throw new IndexOutOfBoundsException(e.getMessage());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return document.get().replace(LineEndUtil.CARRIAGE_RETURN_CHAR, ' ');
+        }
+    }
+}
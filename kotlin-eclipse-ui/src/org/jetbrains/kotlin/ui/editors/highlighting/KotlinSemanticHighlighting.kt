@@ -17,6 +17,7 @@
 package org.jetbrains.kotlin.ui.editors.highlighting
 
 import org.eclipse.core.resources.IFile
+import org.eclipse.core.runtime.OperationCanceledException
 import org.eclipse.core.runtime.Status
 import org.eclipse.core.runtime.jobs.Job
 import org.eclipse.jdt.internal.ui.javaeditor.JavaSourceViewer
@@ -25,21 +26,25 @@ import org.eclipse.jdt.ui.text.IColorManager
 import org.eclipse.jface.preference.IPreferenceStore
 import org.eclipse.jface.preference.PreferenceConverter
 import org.eclipse.jface.text.IDocument
+import org.eclipse.jface.text.IDocumentExtension4
+import org.eclipse.jface.text.IRegion
 import org.eclipse.jface.text.ITextInputListener
 import org.eclipse.jface.text.ITextPresentationListener
+import org.eclipse.jface.text.IViewportListener
+import org.eclipse.jface.text.Position
+import org.eclipse.jface.text.Region
 import org.eclipse.jface.text.TextPresentation
 import org.eclipse.jface.text.source.Annotation
 import org.eclipse.jface.util.IPropertyChangeListener
 import org.eclipse.jface.util.PropertyChangeEvent
 import org.eclipse.swt.SWT
 import org.eclipse.swt.custom.StyleRange
-import org.eclipse.swt.graphics.Color
 import org.eclipse.swt.graphics.RGB
 import org.eclipse.swt.graphics.TextStyle
-import org.eclipse.swt.widgets.Display
 import org.jetbrains.kotlin.core.builder.KotlinPsiManager
 import org.jetbrains.kotlin.core.log.KotlinLogger
 import org.jetbrains.kotlin.core.model.runJob
+import org.jetbrains.kotlin.progress.CompilationCanceledException
 import org.jetbrains.kotlin.ui.editors.Configuration.KotlinPresentationReconciler
 import org.jetbrains.kotlin.ui.editors.KotlinCommonEditor
 import org.jetbrains.kotlin.ui.editors.KotlinEditor
@@ -50,15 +55,28 @@ import org.jetbrains.kotlin.ui.editors.highlighting.HighlightPosition.StyleAttri
 
 private val SMART_CAST_ANNOTATION_TYPE = "org.jetbrains.kotlin.ui.annotation.smartCast"
 
+// Every invalidated region makes the viewer recompute its presentation, so scattered changes are repainted at once
+private const val MAX_INVALIDATED_REGIONS = 16
+
 class KotlinSemanticHighlighter(
         val preferenceStore: IPreferenceStore, 
         val colorManager: IColorManager,
         val presentationReconciler: KotlinPresentationReconciler,
-        val editor: KotlinEditor) : KotlinReconcilingListener, ITextPresentationListener, IPropertyChangeListener, ITextInputListener {
+        val editor: KotlinEditor) : KotlinReconcilingListener, ITextPresentationListener, IPropertyChangeListener, ITextInputListener, IViewportListener {
     private val positionUpdater by lazy { KotlinPositionUpdater(category) }
     
     private val category by lazy { toString() }
     
+    private val highlightingCache = KotlinHighlightingCache()
+    
+    // Lines shown by the viewer, they are read on the UI thread and used by reconciling
+    @Volatile private var visibleLines: IntRange? = null
+    
+    @Volatile private var highlightingJob: Job? = null
+    
+    // Styles of highlighting kinds, created on the UI thread when needed and dropped when preferences change
+    @Volatile private var styleTable: Map<KotlinHighlightingAttributes, HighlightingStyle>? = null
+    
     override fun applyTextPresentation(textPresentation: TextPresentation) {
         if (!editor.document.containsPositionCategory(category)) {
             KotlinLogger.logWarning("There is no position category for editor")
@@ -69,13 +87,14 @@ class KotlinSemanticHighlighter(
         val regionStart = region.offset
         val regionEnd = regionStart + region.length
         
+        val styles = styleTable ?: createStyleTable().also { styleTable = it }
         editor.document.getPositions(category)
             .filter { regionStart <= it.getOffset() && it.getOffset() + it.getLength() <= regionEnd }
             .filterNot { it.isDeleted() }
             .forEach { position ->
                 when (position) {
                     is StyleAttributes -> {
-                        val styleRange = position.createStyleRange()
+                        val styleRange = position.createStyleRange(styles)
                         
                         textPresentation.replaceStyleRange(styleRange)
                     }
@@ -93,33 +112,64 @@ class KotlinSemanticHighlighter(
         
         KotlinPsiManager.commitFile(file, document)
         
-        removeAllPositions(document)
+        highlightingJob?.cancel()
         
         val ktFile = editor.parsedFile
-        if (ktFile == null) return
+        if (ktFile == null) {
+            runOnUiThread { removeAllPositions(document) }
+            return
+        }
         
-        val highlightingVisitor = KotlinSemanticHighlightingVisitor(ktFile, editor.document)
-        val smartCasts = arrayListOf<SmartCast>()
-        highlightingVisitor.computeHighlightingRanges().forEach { position -> 
-            when (position) {
-                is StyleAttributes -> editor.document.addPosition(category, position)
-                is SmartCast -> smartCasts.add(position)
-            }
-            
+        val modificationStamp = document.modificationStamp
+        
+        // The visible part is highlighted first, so the time until it is highlighted doesn't depend on the file size
+        val visibleRegion = getVisibleRegion(document)
+        if (visibleRegion != null) {
+            val visiblePositions = highlightingCache.computeHighlightingRanges(ktFile, document, file.project, visibleRegion)
+                    .filterIsInstance<StyleAttributes>()
+                    .filter { it.isInside(visibleRegion) }
+            publishPositions(document, modificationStamp, visiblePositions, visibleRegion)
         }
         
-        invalidateTextPresentation()
-        setupSmartCastsAsAnnotations(smartCasts)
+        highlightingJob = runJob("Semantic highlighting", Job.DECORATE, null, { monitor ->
+            try {
+                val styleAttributes = arrayListOf<StyleAttributes>()
+                val smartCasts = arrayListOf<SmartCast>()
+                highlightingCache.computeHighlightingRanges(ktFile, document, file.project, null, monitor).forEach { position ->
+                    when (position) {
+                        is StyleAttributes -> styleAttributes.add(position)
+                        is SmartCast -> smartCasts.add(position)
+                    }
+                }
+                
+                publishPositions(document, modificationStamp, styleAttributes) {
+                    setupSmartCastsAsAnnotations(smartCasts)
+                }
+                
+                Status.OK_STATUS
+            } catch (e: OperationCanceledException) {
+                Status.CANCEL_STATUS
+            } catch (e: CompilationCanceledException) {
+                Status.CANCEL_STATUS
+            }
+        }) {}
+    }
+    
+    override fun viewportChanged(verticalOffset: Int) {
+        updateVisibleLines()
     }
     
     override fun propertyChange(event: PropertyChangeEvent) {
         if (event.property.startsWith(PreferenceConstants.EDITOR_SEMANTIC_HIGHLIGHTING_PREFIX)) {
-            editor.eclipseFile?.let { reconcile(it, editor) }
+            // Positions don't depend on preferences, only styles do
+            styleTable = null
+            invalidateTextPresentation()
         }
     }
     
     override fun inputDocumentChanged(oldInput: IDocument?, newInput: IDocument?) {
         if (newInput != null) {
+            highlightingCache.clear()
             manageDocument(newInput)
             val file = editor.eclipseFile
             if (file != null) reconcile(file, editor)
@@ -143,10 +193,16 @@ class KotlinSemanticHighlighter(
             
             viewer.addTextInputListener(this)
             viewer.prependTextPresentationListener(this)
+            viewer.addViewportListener(this)
+            updateVisibleLines()
 
             runJob("Install semantic highlighting", Job.DECORATE, null, {
-                reconcile(file, editor)
-                Status.OK_STATUS
+                try {
+                    reconcile(file, editor)
+                    Status.OK_STATUS
+                } catch (e: CompilationCanceledException) {
+                    Status.CANCEL_STATUS
+                }
             }) {
                 callback()
             }
@@ -157,7 +213,10 @@ class KotlinSemanticHighlighter(
     
     fun uninstall() {
         val viewer = editor.javaEditor.viewer
+        highlightingJob?.cancel()
+        
         if (viewer is JavaSourceViewer) {
+            viewer.removeViewportListener(this)
             viewer.removeTextPresentationListener(this)
             viewer.removeTextInputListener(this)
             
@@ -188,57 +247,164 @@ class KotlinSemanticHighlighter(
     }
     
     private fun invalidateTextPresentation() {
+        runOnUiThread {
+            editor.javaEditor.viewer?.invalidateTextPresentation()
+        }
+    }
+    
+    /**
+     * Replaces positions of the document with [positions] on the UI thread, so positions are changed by one thread
+     * only. Positions of an outdated document are not published, the next reconcile will highlight the new one.
+     */
+    private fun publishPositions(
+            document: IDocument,
+            modificationStamp: Long,
+            positions: List<StyleAttributes>,
+            region: IRegion? = null,
+            onPublished: () -> Unit = {}) {
+        runOnUiThread {
+            if (document.modificationStamp != modificationStamp || !document.containsPositionCategory(category)) {
+                return@runOnUiThread
+            }
+            
+            val changedRegions = updatePositions(document, positions, region)
+            editor.javaEditor.viewer?.let { viewer ->
+                changedRegions.forEach { viewer.invalidateTextPresentation(it.offset, it.length) }
+            }
+            
+            onPublished()
+        }
+    }
+    
+    private fun runOnUiThread(action: () -> Unit) {
         val shell = editor.javaEditor.site?.shell
         if (shell == null || shell.isDisposed) return
 
         val display = shell.display
         if (display == null || display.isDisposed) return
         
-        display.asyncExec {
-            editor.javaEditor.viewer?.invalidateTextPresentation()
-        }
+        display.asyncExec(action)
+    }
+    
+    private fun updateVisibleLines() {
+        val viewer = editor.javaEditor.viewer ?: return
+        val topIndex = viewer.topIndex
+        val bottomIndex = viewer.bottomIndex
+        visibleLines = if (topIndex >= 0 && bottomIndex >= topIndex) topIndex..bottomIndex else null
+    }
+    
+    private fun getVisibleRegion(document: IDocument): IRegion? {
+        val lines = visibleLines ?: return null
+        val lastLine = document.numberOfLines - 1
+        if (lines.first > lastLine) return null
+        
+        val start = document.getLineOffset(lines.first)
+        val endLine = document.getLineInformation(minOf(lines.last, lastLine))
+        return Region(start, endLine.offset + endLine.length - start)
     }
     
     private fun removeAllPositions(document: IDocument) {
         document.getPositions(category).forEach { it.delete() }
     }
     
-    private fun StyleAttributes.createStyleRange(): StyleRange {
-        val styleKey = styleAttributes.styleKey
-        if (!isEnabled(styleKey, preferenceStore)) {
-            return createStyleRange(getOffset(), getLength())
-        }
+    /**
+     * Makes positions of the document match [newPositions], keeping the ones which didn't change. When [region]
+     * is given, only positions inside it are updated. Returns regions of the document whose highlighting changed.
+     */
+    private fun updatePositions(document: IDocument, newPositions: List<StyleAttributes>, region: IRegion? = null): List<IRegion> {
+        val positionsByKey = newPositions.associateBy { it.key() }
+        val keptKeys = hashSetOf<PositionKey>()
+        val changedPositions = arrayListOf<Position>()
         
-        val textStyle = findTextStyle(styleAttributes, preferenceStore, colorManager)
-        return with(StyleRange(textStyle)) {
-            start = getOffset()
-            length = getLength()
+        for (oldPosition in document.getPositions(category)) {
+            if (region != null && !oldPosition.isInside(region)) continue
             
-            fontStyle = SWT.NORMAL
-            if (isBold(styleKey, preferenceStore)) fontStyle = fontStyle or SWT.BOLD
-            if (isItalic(styleAttributes.styleKey, preferenceStore)) fontStyle = fontStyle or SWT.ITALIC
+            val key = if (oldPosition is StyleAttributes && !oldPosition.isDeleted()) oldPosition.key() else null
+            if (key != null && key in positionsByKey && keptKeys.add(key)) continue
             
-            this
+            document.removePosition(category, oldPosition)
+            if (!oldPosition.isDeleted()) changedPositions.add(oldPosition)
         }
+        
+        for ((key, position) in positionsByKey) {
+            if (key in keptKeys) continue
+            
+            document.addPosition(category, position)
+            changedPositions.add(position)
+        }
+        
+        return mergeRegions(changedPositions)
+    }
+    
+    private fun mergeRegions(positions: List<Position>): List<IRegion> {
+        if (positions.isEmpty()) return emptyList()
+        
+        val sortedPositions = positions.sortedBy { it.offset }
+        val regions = arrayListOf<IRegion>()
+        var start = sortedPositions.first().offset
+        var end = start
+        for (position in sortedPositions) {
+            if (position.offset > end) {
+                regions.add(Region(start, end - start))
+                start = position.offset
+            }
+            end = maxOf(end, position.offset + position.length)
+        }
+        regions.add(Region(start, end - start))
+        
+        return if (regions.size <= MAX_INVALIDATED_REGIONS) {
+            regions
+        } else {
+            val last = regions.last()
+            listOf(Region(regions.first().offset, last.offset + last.length - regions.first().offset))
+        }
+    }
+    
+    // Should be called on the UI thread as colors are created there
+    private fun createStyleTable(): Map<KotlinHighlightingAttributes, HighlightingStyle> {
+        return KotlinHighlightingAttributes.ALL
+                .filter { isEnabled(it.styleKey, preferenceStore) }
+                .associateBy({ it }, { createHighlightingStyle(it, preferenceStore, colorManager) })
     }
 }
 
-private fun findTextStyle(attributes: KotlinHighlightingAttributes, store: IPreferenceStore, colorManager: IColorManager): TextStyle {
-    val style = TextStyle()
-    val rgb = getColor(attributes.styleKey, store)
-    style.foreground = getColor(rgb, colorManager)
-    style.underline = attributes.underline
+// Style of highlighted ranges of one kind, it is not changed after creation
+private class HighlightingStyle(val textStyle: TextStyle, val fontStyle: Int)
+
+private fun StyleAttributes.createStyleRange(styles: Map<KotlinHighlightingAttributes, HighlightingStyle>): StyleRange {
+    val style = styles[styleAttributes] ?: return createStyleRange(getOffset(), getLength())
     
-    return style
+    return with(StyleRange(style.textStyle)) {
+        start = getOffset()
+        length = getLength()
+        fontStyle = style.fontStyle
+        
+        this
+    }
 }
 
-private fun getColor(rgb: RGB?, colorManager: IColorManager): Color? {
-    var color: Color? = null
-    Display.getDefault().syncExec {
-        color = colorManager.getColor(rgb)
-    }
+private data class PositionKey(val offset: Int, val length: Int, val attributes: KotlinHighlightingAttributes)
+
+private fun StyleAttributes.key() = PositionKey(offset, length, styleAttributes)
+
+private fun Position.isInside(region: IRegion) = region.offset <= offset && offset + length <= region.offset + region.length
+
+private val IDocument.modificationStamp: Long
+    get() = (this as? IDocumentExtension4)?.modificationStamp ?: IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+
+private fun createHighlightingStyle(
+        attributes: KotlinHighlightingAttributes,
+        store: IPreferenceStore,
+        colorManager: IColorManager): HighlightingStyle {
+    val textStyle = TextStyle()
+    textStyle.foreground = colorManager.getColor(getColor(attributes.styleKey, store))
+    textStyle.underline = attributes.underline
+    
+    var fontStyle = SWT.NORMAL
+    if (isBold(attributes.styleKey, store)) fontStyle = fontStyle or SWT.BOLD
+    if (isItalic(attributes.styleKey, store)) fontStyle = fontStyle or SWT.ITALIC
     
-    return color
+    return HighlightingStyle(textStyle, fontStyle)
 }
 
 private fun getColor(key: String, store: IPreferenceStore): RGB {
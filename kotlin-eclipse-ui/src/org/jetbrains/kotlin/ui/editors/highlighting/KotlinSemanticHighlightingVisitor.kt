@@ -60,13 +60,30 @@ public class KotlinSemanticHighlightingVisitor(val ktFile: KtFile, val document:
     
     private val positions = arrayListOf<HighlightPosition>()
     
+    private var excludedElements: Set<PsiElement> = emptySet()
+    
     fun computeHighlightingRanges(): List<HighlightPosition> {
         positions.clear()
+        excludedElements = emptySet()
         bindingContext = KotlinAnalysisFileCache.getAnalysisResult(ktFile).analysisResult.bindingContext
         ktFile.acceptChildren(this)
         return positions.toList() // make copy
     }
     
+    /**
+     * Computes highlighting ranges of [element] only, without descendants from [excludedElements].
+     * [element] should belong to [ktFile]
+     */
+    fun computeHighlightingRanges(element: KtElement, excludedElements: Set<PsiElement> = emptySet()): List<HighlightPosition> {
+        positions.clear()
+        this.excludedElements = excludedElements
+        if (!::bindingContext.isInitialized) {
+            bindingContext = KotlinAnalysisFileCache.getAnalysisResult(ktFile).analysisResult.bindingContext
+        }
+        element.accept(this)
+        return positions.toList() // make copy
+    }
+    
     private fun highlight(styleAttributes: KotlinHighlightingAttributes, range: TextRange) {
         positions.add(HighlightPosition.StyleAttributes(styleAttributes, range.offsetInDocument(ktFile, document), range.getLength()))
     }
@@ -76,7 +93,16 @@ public class KotlinSemanticHighlightingVisitor(val ktFile: KtFile, val document:
     }
     
     override fun visitElement(element: PsiElement) {
-        element.acceptChildren(this)
+        if (excludedElements.isEmpty()) {
+            element.acceptChildren(this)
+            return
+        }
+        
+        var child = element.firstChild
+        while (child != null) {
+            if (child !in excludedElements) child.accept(this)
+            child = child.nextSibling
+        }
     }
     
     override fun visitSimpleNameExpression(expression: KtSimpleNameExpression) {
@@ -232,7 +258,13 @@ private fun TextRange.offsetInDocument(ktFile: KtFile, document: IDocument): Int
 }
 
 sealed class HighlightPosition(offset: Int, length: Int) : Position(offset, length) {
-    class StyleAttributes(val styleAttributes: KotlinHighlightingAttributes, offset: Int, length: Int) : HighlightPosition(offset, length)
+    abstract fun withOffset(newOffset: Int): HighlightPosition
     
-    class SmartCast(val typeName: String, offset: Int, length: Int) : HighlightPosition(offset, length)
+    class StyleAttributes(val styleAttributes: KotlinHighlightingAttributes, offset: Int, length: Int) : HighlightPosition(offset, length) {
+        override fun withOffset(newOffset: Int) = StyleAttributes(styleAttributes, newOffset, length)
+    }
+    
+    class SmartCast(val typeName: String, offset: Int, length: Int) : HighlightPosition(offset, length) {
+        override fun withOffset(newOffset: Int) = SmartCast(typeName, newOffset, length)
+    }
 }
\ No newline at end of file
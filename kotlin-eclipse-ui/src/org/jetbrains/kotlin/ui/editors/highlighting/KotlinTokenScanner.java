@@ -1,134 +1,326 @@
 package org.jetbrains.kotlin.ui.editors.highlighting;
 
-import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.ResourcesPlugin;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.eclipse.jdt.ui.text.IColorManager;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
-import org.eclipse.jface.text.TextUtilities;
 import org.eclipse.jface.text.rules.IToken;
 import org.eclipse.jface.text.rules.ITokenScanner;
 import org.eclipse.jface.text.rules.Token;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.kotlin.core.model.KotlinCommonEnvironment;
-import org.jetbrains.kotlin.core.model.KotlinEnvironment;
-import org.jetbrains.kotlin.core.model.KotlinEnvironmentKt;
-import org.jetbrains.kotlin.core.model.KotlinNature;
-import org.jetbrains.kotlin.eclipse.ui.utils.IndenterUtil;
-import org.jetbrains.kotlin.eclipse.ui.utils.LineEndUtil;
-import org.jetbrains.kotlin.psi.KtFile;
-import org.jetbrains.kotlin.psi.KtPsiFactory;
-import org.jetbrains.kotlin.ui.editors.KotlinEditor;
-import org.jetbrains.kotlin.ui.formatter.KotlinFormatterKt;
-
-import com.intellij.psi.PsiElement;
+import org.jetbrains.kotlin.kdoc.lexer.KDocLexer;
+import org.jetbrains.kotlin.lexer.KtKeywordToken;
+import org.jetbrains.kotlin.lexer.KtTokens;
+
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
 
+/**
+ * Colors tokens of a document from the Kotlin lexer only, see {@link KotlinLexedDocument}. Soft keywords are
+ * keywords for the parser only, so they are recognized by the tokens around them.
+ */
 public class KotlinTokenScanner implements ITokenScanner {
-    private final KotlinEditor editor;
+    private static final Map<String, KtKeywordToken> SOFT_KEYWORDS = new HashMap<>();
+    static {
+        for (IElementType type : KtTokens.SOFT_KEYWORDS.getTypes()) {
+            if (type instanceof KtKeywordToken) {
+                SOFT_KEYWORDS.put(((KtKeywordToken) type).getValue(), (KtKeywordToken) type);
+            }
+        }
+    }
+
+    private static final int MAX_SOFT_KEYWORD_LENGTH =
+            SOFT_KEYWORDS.keySet().stream().mapToInt(String::length).max().orElse(0);
+
+    // Soft keywords which are keywords only as targets of annotations, e.g. @file:JvmName
+    private static final TokenSet ANNOTATION_TARGETS = TokenSet.create(
+            KtTokens.FILE_KEYWORD, KtTokens.FIELD_KEYWORD, KtTokens.PROPERTY_KEYWORD, KtTokens.RECEIVER_KEYWORD,
+            KtTokens.PARAM_KEYWORD, KtTokens.SETPARAM_KEYWORD, KtTokens.DELEGATE_KEYWORD, KtTokens.GET_KEYWORD,
+            KtTokens.SET_KEYWORD);
+
+    // Modifiers which are followed by a parameter or type parameter name
+    private static final TokenSet PARAMETER_MODIFIERS = TokenSet.create(
+            KtTokens.VARARG_KEYWORD, KtTokens.NOINLINE_KEYWORD, KtTokens.CROSSINLINE_KEYWORD,
+            KtTokens.REIFIED_KEYWORD, KtTokens.OUT_KEYWORD);
+
+    private static final TokenSet DECLARATION_KEYWORDS = TokenSet.create(
+            KtTokens.CLASS_KEYWORD, KtTokens.INTERFACE_KEYWORD, KtTokens.FUN_KEYWORD, KtTokens.VAL_KEYWORD,
+            KtTokens.VAR_KEYWORD, KtTokens.OBJECT_KEYWORD, KtTokens.TYPE_ALIAS_KEYWORD, KtTokens.AT);
+
+    // Soft keywords which start a declaration or a part of it after modifiers
+    private static final TokenSet DECLARATION_SOFT_KEYWORDS = TokenSet.orSet(KtTokens.MODIFIER_KEYWORDS,
+            TokenSet.create(KtTokens.CONSTRUCTOR_KEYWORD, KtTokens.INIT_KEYWORD, KtTokens.GET_KEYWORD,
+                    KtTokens.SET_KEYWORD));
+
+    private static final TokenSet ACCESSOR_ENDS = TokenSet.create(
+            KtTokens.EQ, KtTokens.LBRACE, KtTokens.COLON, KtTokens.RBRACE);
+
+    private static final TokenSet QUALIFIERS = TokenSet.create(KtTokens.DOT, KtTokens.SAFE_ACCESS, KtTokens.COLONCOLON);
+
+    private static final TokenSet INSIGNIFICANT_TOKENS = TokenSet.orSet(KtTokens.WHITESPACES, KtTokens.COMMENTS);
+
     private final KotlinTokensFactory kotlinTokensFactory;
-    
-    private KtFile jetFile = null;
-    private int offset = 0;
+    private final KDocLexer kdocLexer = new KDocLexer();
+
+    private KotlinLexedDocument lexedDocument = null;
+    private int tokenIndex = 0;
     private int rangeEnd = 0;
-    private PsiElement lastElement = null;
-    private IDocument document;
-    
-    private KotlinTokenScanner(
-            @NotNull IPreferenceStore preferenceStore, 
-            @NotNull IColorManager colorManager,
-            @Nullable KotlinEditor editor) {
-        this.editor = editor;
+    private boolean inKDoc = false;
+
+    private int tokenStart = 0;
+    private int tokenEnd = 0;
+
+    private KotlinTokenScanner(@NotNull IPreferenceStore preferenceStore, @NotNull IColorManager colorManager) {
         kotlinTokensFactory = new KotlinTokensFactory(preferenceStore, colorManager);
     }
-    
+
     public static KotlinTokenScanner createScanner(
-            @NotNull IPreferenceStore preferenceStore, 
-            @NotNull IColorManager colorManager,
-            @NotNull KotlinEditor editor) {
-        return new KotlinTokenScanner(preferenceStore, colorManager, editor);
+            @NotNull IPreferenceStore preferenceStore,
+            @NotNull IColorManager colorManager) {
+        return new KotlinTokenScanner(preferenceStore, colorManager);
     }
-    
+
     public static KotlinTokenScanner createScannerForCompareViewOfKtSourceFile(
-            @NotNull IPreferenceStore preferenceStore, 
+            @NotNull IPreferenceStore preferenceStore,
             @NotNull IColorManager colorManager) {
-        return new KotlinTokenScanner(preferenceStore, colorManager, null);
+        return new KotlinTokenScanner(preferenceStore, colorManager);
     }
-    
+
+    /**
+     * Stops tracking changes of the last scanned document. The scanner can still be used after that.
+     */
+    public void dispose() {
+        if (lexedDocument != null) {
+            lexedDocument.dispose();
+            lexedDocument = null;
+        }
+    }
+
     @Override
     public void setRange(IDocument document, int offset, int length) {
-        this.document = document;
-        jetFile = createKtFile(document);
-        this.offset = LineEndUtil.convertCrToDocumentOffset(document, offset);
-        this.rangeEnd = LineEndUtil.convertCrToDocumentOffset(document, offset + length);
-        this.lastElement = null;
+        if (lexedDocument == null || lexedDocument.getDocument() != document) {
+            if (lexedDocument != null) {
+                lexedDocument.dispose();
+            }
+            lexedDocument = new KotlinLexedDocument(document);
+        }
+
+        tokenIndex = lexedDocument.getTokenIndex(offset);
+        rangeEnd = offset + length;
+        inKDoc = false;
     }
 
     @Override
     public IToken nextToken() {
-        if (rangeEnd <= offset) {
+        if (inKDoc) {
+            IElementType kdocType = kdocLexer.getTokenType();
+            if (kdocType != null && kdocLexer.getTokenStart() < rangeEnd) {
+                tokenStart = kdocLexer.getTokenStart();
+                tokenEnd = kdocLexer.getTokenEnd();
+                kdocLexer.advance();
+                return kotlinTokensFactory.getToken(kdocType);
+            }
+
+            inKDoc = false;
+        }
+
+        if (tokenIndex >= lexedDocument.getTokenCount() || lexedDocument.getTokenStart(tokenIndex) >= rangeEnd) {
             return Token.EOF;
         }
-        
-        if (jetFile == null) return Token.EOF;
-        
-        lastElement = jetFile.findElementAt(offset);
-        if (lastElement != null) {
-            offset = lastElement.getTextRange().getEndOffset();
-            return kotlinTokensFactory.getToken(lastElement);
+
+        int index = tokenIndex++;
+        tokenStart = lexedDocument.getTokenStart(index);
+        tokenEnd = lexedDocument.getTokenEnd(index);
+
+        IElementType type = lexedDocument.getTokenType(index);
+        if (type == KtTokens.DOC_COMMENT) {
+            kdocLexer.start(lexedDocument.getText(), tokenStart, tokenEnd, 0);
+            inKDoc = true;
+            return nextToken();
         }
-        
-        return Token.EOF;
+
+        return kotlinTokensFactory.getToken(type == KtTokens.IDENTIFIER ? getSoftKeyword(index) : type);
     }
 
     @Override
     public int getTokenOffset() {
-        return LineEndUtil.convertLfToDocumentOffset(jetFile.getText(), lastElement.getTextOffset(), document);
+        return tokenStart;
     }
 
     @Override
     public int getTokenLength() {
-        int length = lastElement.getTextLength();
-        if (TextUtilities.getDefaultLineDelimiter(document).length() > 1) {
-            length += IndenterUtil.getLineSeparatorsOccurences(lastElement.getText());
-        }
-        return length;
+        return tokenEnd - tokenStart;
     }
-    
-    @Nullable
-    private KtFile createKtFile(@NotNull IDocument document) {
-        if (editor != null) {
-            IFile eclipseFile = editor.getEclipseFile();
-            if (eclipseFile != null) {
-                return createKtFile(KotlinEnvironmentKt.getEnvironment(eclipseFile), eclipseFile.getName());
-            } 
-            
-            if (editor.getJavaEditor().isEditorInputReadOnly()) {
-                return editor.getParsedFile();
-            }
-        } 
-        
-        return createKtFile(getAnyKotlinEnvironmentForSourceFile(), "dummy.kt");
+
+    @NotNull
+    private IElementType getSoftKeyword(int index) {
+        KtKeywordToken keyword = findSoftKeyword(index);
+        return keyword != null && isUsedAsKeyword(index, keyword) ? keyword : KtTokens.IDENTIFIER;
     }
-    
-    private KtFile createKtFile(@Nullable KotlinCommonEnvironment environment, String fileName) {
-        if (environment == null) {
+
+    @Nullable
+    private KtKeywordToken findSoftKeyword(int index) {
+        int start = lexedDocument.getTokenStart(index);
+        int length = lexedDocument.getTokenEnd(index) - start;
+        if (length > MAX_SOFT_KEYWORD_LENGTH) return null;
+
+        try {
+            return SOFT_KEYWORDS.get(lexedDocument.getDocument().get(start, length));
+        } catch (BadLocationException e) {
             return null;
         }
-        
-        return KotlinFormatterKt.createKtFile(document.get(), new KtPsiFactory(environment.getProject()), fileName);
     }
-    
+
+    /**
+     * Whether a soft keyword is used as a keyword, judging by the tokens around it. Each keyword is checked in the
+     * positions where the parser expects it, so names like {@code file}, {@code value} or calls like {@code get(x)}
+     * are not colored.
+     */
+    private boolean isUsedAsKeyword(int index, @NotNull KtKeywordToken keyword) {
+        int previousIndex = getSignificantTokenIndex(index, -1);
+        IElementType previous = getTokenType(previousIndex);
+        if (previous != null && QUALIFIERS.contains(previous)) return false;
+
+        int nextIndex = getSignificantTokenIndex(index, 1);
+        IElementType next = getTokenType(nextIndex);
+
+        if (ANNOTATION_TARGETS.contains(keyword) && previous == KtTokens.AT) {
+            return next == KtTokens.COLON;
+        }
+
+        if (keyword == KtTokens.IMPORT_KEYWORD) {
+            return next == KtTokens.IDENTIFIER && startsLine(index);
+        }
+        if (keyword == KtTokens.WHERE_KEYWORD) {
+            return next == KtTokens.IDENTIFIER && getTokenType(getSignificantTokenIndex(nextIndex, 1)) == KtTokens.COLON;
+        }
+        if (keyword == KtTokens.BY_KEYWORD) {
+            return (previous == KtTokens.IDENTIFIER || previous == KtTokens.GT || previous == KtTokens.QUEST
+                    || previous == KtTokens.RPAR)
+                    && (next == KtTokens.IDENTIFIER || next == KtTokens.OBJECT_KEYWORD || next == KtTokens.THIS_KEYWORD
+                    || next == KtTokens.LPAR);
+        }
+        if (keyword == KtTokens.CATCH_KEYWORD) {
+            return previous == KtTokens.RBRACE && next == KtTokens.LPAR;
+        }
+        if (keyword == KtTokens.FINALLY_KEYWORD) {
+            return previous == KtTokens.RBRACE && next == KtTokens.LBRACE;
+        }
+        if (keyword == KtTokens.GET_KEYWORD || keyword == KtTokens.SET_KEYWORD) {
+            return isModifier(previousIndex)
+                    || (startsLine(index) && hasAccessorShape(nextIndex, keyword == KtTokens.SET_KEYWORD));
+        }
+        if (keyword == KtTokens.CONSTRUCTOR_KEYWORD) {
+            return next == KtTokens.LPAR && (startsDeclaration(index)
+                    || previous == KtTokens.IDENTIFIER || previous == KtTokens.GT || previous == KtTokens.RPAR);
+        }
+        if (keyword == KtTokens.INIT_KEYWORD) {
+            return next == KtTokens.LBRACE && startsDeclaration(index);
+        }
+        if (PARAMETER_MODIFIERS.contains(keyword)) {
+            return next == KtTokens.IDENTIFIER || isDeclarationStart(nextIndex);
+        }
+        if (keyword == KtTokens.SUSPEND_KEYWORD && next == KtTokens.LPAR) {
+            // Suspend function type, e.g. `block: suspend () -> Unit`
+            return previous == KtTokens.COLON || previous == KtTokens.LT || previous == KtTokens.ARROW
+                    || previous == KtTokens.LPAR || previous == KtTokens.COMMA;
+        }
+        if (KtTokens.MODIFIER_KEYWORDS.contains(keyword)) {
+            return isDeclarationStart(nextIndex);
+        }
+
+        return false;
+    }
+
+    /**
+     * Whether the token at {@code index} can start a declaration after a modifier.
+     */
+    private boolean isDeclarationStart(int index) {
+        IElementType type = getTokenType(index);
+        if (type == null) return false;
+        if (DECLARATION_KEYWORDS.contains(type)) return true;
+
+        if (type != KtTokens.IDENTIFIER) return false;
+        KtKeywordToken keyword = findSoftKeyword(index);
+        return keyword != null && DECLARATION_SOFT_KEYWORDS.contains(keyword);
+    }
+
+    /**
+     * Whether the token at {@code index} can be the first token of a declaration in a class body.
+     */
+    private boolean startsDeclaration(int index) {
+        int previousIndex = getSignificantTokenIndex(index, -1);
+        IElementType previous = getTokenType(previousIndex);
+        return previous == null || previous == KtTokens.LBRACE || previous == KtTokens.RBRACE
+                || previous == KtTokens.SEMICOLON || isModifier(previousIndex) || startsLine(index);
+    }
+
+    private boolean isModifier(int index) {
+        if (getTokenType(index) != KtTokens.IDENTIFIER) return false;
+
+        KtKeywordToken keyword = findSoftKeyword(index);
+        return keyword != null && KtTokens.MODIFIER_KEYWORDS.contains(keyword);
+    }
+
+    /**
+     * Whether tokens from {@code lparIndex} look like parameters of an accessor: {@code ()} for a getter or a setter,
+     * {@code (value)} or {@code (value: Type)} for a setter, followed by a body, a type or the end of the line.
+     */
+    private boolean hasAccessorShape(int lparIndex, boolean isSetter) {
+        if (getTokenType(lparIndex) != KtTokens.LPAR) return false;
+
+        int index = getSignificantTokenIndex(lparIndex, 1);
+        if (isSetter && getTokenType(index) == KtTokens.IDENTIFIER) {
+            index = getSignificantTokenIndex(index, 1);
+            if (getTokenType(index) == KtTokens.COLON) return true;
+        }
+        if (getTokenType(index) != KtTokens.RPAR) return false;
+
+        int nextIndex = getSignificantTokenIndex(index, 1);
+        IElementType next = getTokenType(nextIndex);
+        return next == null || ACCESSOR_ENDS.contains(next) || startsLine(nextIndex);
+    }
+
+    /**
+     * Whether there is only whitespace or comments between the token at {@code index} and the line start.
+     */
+    private boolean startsLine(int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            IElementType type = lexedDocument.getTokenType(i);
+            if (!INSIGNIFICANT_TOKENS.contains(type)) return false;
+            if (KtTokens.WHITESPACES.contains(type) && containsLineBreak(i)) return true;
+        }
+
+        return true;
+    }
+
+    private boolean containsLineBreak(int index) {
+        int start = lexedDocument.getTokenStart(index);
+        try {
+            // Carriage returns are lexed as spaces, so the document is checked instead of the lexed text
+            String text = lexedDocument.getDocument().get(start, lexedDocument.getTokenEnd(index) - start);
+            return text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0;
+        } catch (BadLocationException e) {
+            return false;
+        }
+    }
+
     @Nullable
-    private static KotlinEnvironment getAnyKotlinEnvironmentForSourceFile() {
-        IProject[] projects = ResourcesPlugin.getWorkspace().getRoot().getProjects();
-        for (IProject project : projects) {
-            if (project.isAccessible() && KotlinNature.Companion.hasKotlinNature(project)) {
-                return KotlinEnvironment.Companion.getEnvironment(project);
-            }
+    private IElementType getTokenType(int index) {
+        return index >= 0 ? lexedDocument.getTokenType(index) : null;
+    }
+
+    private int getSignificantTokenIndex(int index, int direction) {
+        if (index < 0) return -1;
+
+        for (int i = index + direction; i >= 0 && i < lexedDocument.getTokenCount(); i += direction) {
+            if (!INSIGNIFICANT_TOKENS.contains(lexedDocument.getTokenType(i))) return i;
         }
-        
-        return null;
+
+        return -1;
     }
 }
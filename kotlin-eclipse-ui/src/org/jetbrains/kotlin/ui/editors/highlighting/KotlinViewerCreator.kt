@@ -3,6 +3,7 @@ package org.jetbrains.kotlin.ui.editors.highlighting
 import org.eclipse.compare.IViewerCreator
 import org.eclipse.jface.viewers.Viewer
 import org.eclipse.compare.CompareConfiguration
+import org.eclipse.swt.events.DisposeEvent
 import org.eclipse.swt.widgets.Composite
 import org.eclipse.compare.contentmergeviewer.TextMergeViewer
 import org.eclipse.jface.text.TextViewer
@@ -29,6 +30,7 @@ public class KotlinViewerCreator : IViewerCreator {
 
 class KotlinMergeViewer(parent: Composite, configuration: CompareConfiguration): TextMergeViewer(parent, configuration) {
 	private val colorManager = JavaColorManager()
+	private val scanners = arrayListOf<KotlinTokenScanner>()
 	
 	override fun configureTextViewer(viewer: TextViewer) {
 		if (viewer !is SourceViewer) return
@@ -37,10 +39,18 @@ class KotlinMergeViewer(parent: Composite, configuration: CompareConfiguration):
 			override fun getPresentationReconciler(sourceViewer: ISourceViewer): IPresentationReconciler? {
 				val scanner = KotlinTokenScanner.createScannerForCompareViewOfKtSourceFile(
                         JavaPlugin.getDefault().getPreferenceStore(), colorManager)
+				scanners.add(scanner)
 				return Configuration.getKotlinPresentaionReconciler(scanner)
 			}
 		}
 		
 		viewer.configure(configuration)
 	}
+	
+	override fun handleDispose(event: DisposeEvent) {
+		scanners.forEach { it.dispose() }
+		scanners.clear()
+		
+		super.handleDispose(event)
+	}
 }
\ No newline at end of file
@@ -34,6 +34,7 @@ import org.jetbrains.kotlin.descriptors.SourceElement
 import org.jetbrains.kotlin.eclipse.ui.utils.EditorUtil
 import org.jetbrains.kotlin.eclipse.ui.utils.getTextDocumentOffset
 import org.jetbrains.kotlin.core.model.runJob
+import org.jetbrains.kotlin.progress.CompilationCanceledException
 import org.jetbrains.kotlin.psi.KtElement
 import org.jetbrains.kotlin.ui.commands.findReferences.KotlinScopedQuerySpecification
 import org.jetbrains.kotlin.ui.editors.KotlinCommonEditor
@@ -61,14 +62,18 @@ public class KotlinMarkOccurrences(val kotlinEditor: KotlinCommonEditor) : ISele
                 val document = part.getDocumentSafely()
                 if (document == null) return@runJob Status.CANCEL_STATUS
                 
-                KotlinPsiManager.getKotlinFileIfExist(file, document.get())
+                KotlinPsiManager.getKotlinFileIfExist(file, document)
                 
                 val ktElement = EditorUtil.getJetElement(part, selection.getOffset())
                 if (ktElement == null) {
                     return@runJob Status.CANCEL_STATUS
                 }
                 
-                val occurrences = findOccurrences(part, ktElement, file)
+                val occurrences = try {
+                    findOccurrences(part, ktElement, file)
+                } catch (e: CompilationCanceledException) {
+                    return@runJob Status.CANCEL_STATUS
+                }
                 updateOccurrences(part, occurrences)
             }
             
@@ -21,9 +21,7 @@ private var IMarker.annotationCode: Int?
     set(value) = setAttribute(ANNOTATION_DIAGNOSTIC_HASH, value)
 
 internal fun IMarker.addDiagnostics(diagnostic: Diagnostic) {
-    val hashCode = diagnostic.hashCode()
-    resourceDiagnosticsMapping.getOrPut(resource as IFile) { hashMapOf() }[hashCode] = diagnostic
-    annotationCode = hashCode
+    annotationCode = (resource as IFile).registerDiagnostic(diagnostic)
 }
 
 internal fun IFile.removeMarkers() {
@@ -31,3 +29,37 @@ internal fun IFile.removeMarkers() {
     resourceDiagnosticsMapping.remove(this)
 }
 
+
+internal val IMarker.problemAttributes: Map<String, Any?>
+    get() = attributes.orEmpty() - ANNOTATION_DIAGNOSTIC_HASH
+
+internal fun IFile.createProblemMarker(type: String, attributes: Map<String, Any?>, diagnostic: Diagnostic?) {
+    val allAttributes = if (diagnostic != null) attributes + (ANNOTATION_DIAGNOSTIC_HASH to registerDiagnostic(diagnostic)) else attributes
+    createMarker(type).setAttributes(allAttributes.keys.toTypedArray(), allAttributes.values.toTypedArray())
+}
+
+// The marker is kept, only the diagnostic behind it is replaced with one from the last analysis
+internal fun IMarker.replaceDiagnostic(diagnostic: Diagnostic?) {
+    if (diagnostic == null) return
+
+    val code = annotationCode
+    if (code != null) {
+        resourceDiagnosticsMapping.getOrPut(resource as IFile) { hashMapOf() }[code] = diagnostic
+    } else {
+        addDiagnostics(diagnostic)
+    }
+}
+
+internal fun IFile.removeMarkers(markers: Collection<IMarker>) {
+    val diagnostics = resourceDiagnosticsMapping[this]
+    for (marker in markers) {
+        marker.annotationCode?.let { diagnostics?.remove(it) }
+        marker.delete()
+    }
+}
+
+private fun IFile.registerDiagnostic(diagnostic: Diagnostic): Int {
+    val hashCode = diagnostic.hashCode()
+    resourceDiagnosticsMapping.getOrPut(this) { hashMapOf() }[hashCode] = diagnostic
+    return hashCode
+}